@@ -0,0 +1,86 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.impl.Base64Codec;
+import com.github.sarxos.securetoken.impl.Z85Codec;
+
+
+/**
+ * Base64 armor of encrypted token, including byte/string conversion, as it
+ * was done by Tokenizer with BouncyCastle encoder and as it is done with
+ * codec writing to pre-sized arrays, and denser Z85 armor.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class Base64Benchmark {
+
+	@Param({ "32", "512", "8192" })
+	private int size;
+
+	private byte[] bytes;
+	private String encoded;
+	private String z85;
+
+	@Setup
+	public void setup() {
+		bytes = Payload.bytes(size);
+		encoded = Strings.fromUTF8ByteArray(Base64.encode(bytes));
+		z85 = Z85Codec.encodeToString(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public String encodeBC() {
+		return Strings.fromUTF8ByteArray(Base64.encode(bytes));
+	}
+
+	@Benchmark
+	public byte[] decodeBC() {
+		return Base64.decode(Strings.toUTF8ByteArray(encoded));
+	}
+
+	@Benchmark
+	public String encode() {
+		return Base64Codec.STANDARD.encodeToString(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public String encodeURL() {
+		return Base64Codec.URL.encodeToString(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public byte[] decode() {
+		return Base64Codec.decode(encoded, 0, encoded.length());
+	}
+
+	@Benchmark
+	public String encodeZ85() {
+		return Z85Codec.encodeToString(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public byte[] decodeZ85() {
+		return Z85Codec.decode(z85, 0, z85.length());
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.BatchResult;
+import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.SecretHandle;
+import com.github.sarxos.securetoken.Tokenizer;
+
+
+/**
+ * Batch API compared with plain loop over the same objects.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchBenchmark {
+
+	@Param({ "AES", "BLOWFISH" })
+	private CipherType type;
+
+	@Param({ "10000" })
+	private int count;
+
+	private String password = "benchmark secret";
+	private SecretHandle secret;
+	private List<Payload> payloads;
+	private List<String> tokens;
+
+	@Setup
+	public void setup() {
+		secret = Tokenizer.secret(type, password);
+		payloads = new ArrayList<Payload>(count);
+		for (int i = 0; i < count; i++) {
+			payloads.add(Payload.of(32));
+		}
+		tokens = Tokenizer.tokenizeAll(payloads, type, password).getValues();
+	}
+
+	@Benchmark
+	public List<String> tokenizeLoop() {
+		List<String> result = new ArrayList<String>(count);
+		for (Payload payload : payloads) {
+			result.add(Tokenizer.tokenize(payload, secret));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public BatchResult<String> tokenizeAll() {
+		return Tokenizer.tokenizeAll(payloads, type, password);
+	}
+
+	@Benchmark
+	public List<Payload> objectifyLoop() {
+		List<Payload> result = new ArrayList<Payload>(count);
+		for (String token : tokens) {
+			result.add(Tokenizer.objectify(Payload.class, token, secret));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public BatchResult<Payload> objectifyAll() {
+		return Tokenizer.objectifyAll(Payload.class, tokens, type, password);
+	}
+}
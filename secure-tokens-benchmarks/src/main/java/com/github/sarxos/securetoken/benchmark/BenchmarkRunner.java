@@ -0,0 +1,49 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs benchmarks once for every requested number of threads, with GC
+ * profiler enabled, and writes JSON results which can be compared between
+ * releases. Usage:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [regexp] [threads]
+ * java -jar target/benchmarks.jar Cipher 1,4,16
+ * </pre>
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Thread counts used when none are given.
+	 */
+	private static final String DEFAULT_THREADS = "1,4";
+
+	public static void main(String[] args) throws RunnerException {
+
+		String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+		String threads = args.length > 1 ? args[1] : DEFAULT_THREADS;
+
+		for (String t : threads.split(",")) {
+
+			int n = Integer.parseInt(t.trim());
+
+			ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(include)
+				.threads(n)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(String.format("jmh-result-t%d.json", n));
+
+			new Runner(options.build()).run();
+		}
+	}
+}
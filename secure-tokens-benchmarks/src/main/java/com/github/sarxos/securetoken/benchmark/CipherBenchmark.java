@@ -0,0 +1,65 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.impl.CipherEngine;
+
+
+/**
+ * Encryption and decryption with every cipher type, with provider selected
+ * automatically, with BouncyCastle provider and with BouncyCastle lightweight
+ * engines.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CipherBenchmark {
+
+	@Param({ "DES", "AES", "SEED", "IDEA", "NOEKEON", "TWOFISH", "BLOWFISH", "CAMELIA", "SERPENT", "AES_GCM", "AES_CTR_HMAC" })
+	private CipherType type;
+
+	@Param({ "32", "512", "8192" })
+	private int size;
+
+	@Param({ CipherEngine.AUTO, CipherEngine.BC, CipherEngine.LIGHTWEIGHT })
+	private String provider;
+
+	private String password = "benchmark secret";
+	private byte[] bytes;
+	private byte[] encrypted;
+
+	@Setup
+	public void setup() {
+		CipherEngine.setProvider(type, provider);
+		bytes = Payload.bytes(size);
+		encrypted = CipherEngine.encrypt(type, password, bytes);
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return CipherEngine.encrypt(type, password, bytes);
+	}
+
+	@Benchmark
+	public byte[] decrypt() {
+		return CipherEngine.decrypt(type, password, encrypted);
+	}
+}
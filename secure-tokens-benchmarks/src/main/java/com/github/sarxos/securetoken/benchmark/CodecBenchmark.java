@@ -0,0 +1,65 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.impl.ReflectiveAccessor;
+import com.github.sarxos.securetoken.impl.TokenCodec;
+
+
+/**
+ * Building token string from object and splitting it back.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+	@Param({ "32", "512", "8192" })
+	private int size;
+
+	private TokenCodec<Payload> codec;
+	private Payload payload;
+	private String token;
+	private byte[] bytes;
+
+	@Setup
+	public void setup() {
+		codec = new TokenCodec<Payload>(new ReflectiveAccessor<Payload>(Payload.class, Payload.fields(Payload.class), "#"));
+		payload = Payload.of(size);
+		token = codec.encode(payload);
+		bytes = token.getBytes(Charset.forName("UTF-8"));
+	}
+
+	@Benchmark
+	public String encode() {
+		return codec.encode(payload);
+	}
+
+	@Benchmark
+	public Payload decode() {
+		return codec.decode(token);
+	}
+
+	@Benchmark
+	public Payload decodeBytes() {
+		return codec.decode(bytes, 0, bytes.length);
+	}
+}
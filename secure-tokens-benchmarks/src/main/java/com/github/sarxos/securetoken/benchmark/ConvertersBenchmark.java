@@ -0,0 +1,69 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.impl.Converters;
+
+
+/**
+ * Conversion of token part values from and to strings.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConvertersBenchmark {
+
+	private Integer integer = 123456;
+	private Long longer = 9876543210123L;
+	private BigDecimal decimal = new BigDecimal("1234.5678");
+
+	private String integerString = "123456";
+	private String longString = "9876543210123";
+	private String decimalString = "1234.5678";
+
+	@Benchmark
+	public String intToString() {
+		return Converters.toString(integer);
+	}
+
+	@Benchmark
+	public String longToString() {
+		return Converters.toString(longer);
+	}
+
+	@Benchmark
+	public String decimalToString() {
+		return Converters.toString(decimal);
+	}
+
+	@Benchmark
+	public Object intToObject() {
+		return Converters.toObject(int.class, integerString);
+	}
+
+	@Benchmark
+	public Object longToObject() {
+		return Converters.toObject(long.class, longString);
+	}
+
+	@Benchmark
+	public Object decimalToObject() {
+		return Converters.toObject(BigDecimal.class, decimalString);
+	}
+}
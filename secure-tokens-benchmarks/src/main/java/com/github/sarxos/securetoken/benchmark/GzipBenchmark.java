@@ -0,0 +1,68 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.impl.Deflate;
+import com.github.sarxos.securetoken.impl.GZIP;
+
+
+/**
+ * Token payload compression, GZIP used before and pooled raw deflate used
+ * now.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GzipBenchmark {
+
+	@Param({ "32", "512", "8192" })
+	private int size;
+
+	private byte[] bytes;
+	private byte[] compressed;
+	private byte[] deflated;
+
+	@Setup
+	public void setup() {
+		bytes = Payload.bytes(size);
+		compressed = GZIP.compress(bytes);
+		deflated = Deflate.compress(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public byte[] compress() {
+		return GZIP.compress(bytes);
+	}
+
+	@Benchmark
+	public byte[] uncompress() {
+		return GZIP.uncompress(compressed);
+	}
+
+	@Benchmark
+	public byte[] deflate() {
+		return Deflate.compress(bytes, 0, bytes.length);
+	}
+
+	@Benchmark
+	public byte[] inflate() {
+		return Deflate.uncompress(deflated, 0, deflated.length);
+	}
+}
@@ -0,0 +1,82 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.sarxos.securetoken.impl.ReflectiveAccessor;
+import com.github.sarxos.securetoken.impl.Reflector;
+
+
+/**
+ * Field extraction: scanning class for token parts, building reflective
+ * accessor and reading parts with accessor and plain reflection.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PartsBenchmark {
+
+	private Payload payload;
+	private Field[] fields;
+	private ReflectiveAccessor<Payload> accessor;
+
+	@Setup
+	public void setup() {
+		payload = Payload.of(32);
+		fields = Payload.fields(Payload.class);
+		for (Field field : fields) {
+			field.setAccessible(true);
+		}
+		accessor = new ReflectiveAccessor<Payload>(Payload.class, fields, "#");
+	}
+
+	@Benchmark
+	public Field[] scan() {
+		return Payload.fields(Payload.class);
+	}
+
+	@Benchmark
+	public ReflectiveAccessor<Payload> accessor() {
+		return new ReflectiveAccessor<Payload>(Payload.class, fields, "#");
+	}
+
+	@Benchmark
+	public void readAccessor(Blackhole bh) {
+		for (int i = 0; i < fields.length; i++) {
+			bh.consume(accessor.get(payload, i));
+		}
+	}
+
+	@Benchmark
+	public void readReflector(Blackhole bh) {
+		for (Field field : fields) {
+			bh.consume(Reflector.getValue(field, payload));
+		}
+	}
+
+	@Benchmark
+	public Payload writeAccessor() {
+		Payload p = accessor.newInstance();
+		for (int i = 0; i < fields.length; i++) {
+			accessor.set(p, i, accessor.get(payload, i));
+		}
+		return p;
+	}
+}
@@ -0,0 +1,96 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.annotation.TokenPart;
+
+
+/**
+ * Token used by benchmarks. Size of the token is controlled by the length of
+ * the data part.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class Payload implements Token {
+
+	@TokenPart("id")
+	int id = 123456;
+
+	@TokenPart("sn")
+	long serial = 9876543210123L;
+
+	@TokenPart("amt")
+	BigDecimal amount = new BigDecimal("1234.5678");
+
+	@TokenPart("act")
+	boolean active = true;
+
+	@TokenPart("data")
+	String data = "";
+
+	/**
+	 * Create token which data part has given length.
+	 *
+	 * @param size the data length
+	 * @return New payload token
+	 */
+	public static Payload of(int size) {
+		Payload payload = new Payload();
+		payload.data = text(size);
+		return payload;
+	}
+
+	/**
+	 * Create pseudo-random, but repeatable text of given length. Text is made
+	 * of words from small dictionary, so it compresses the way real tokens do.
+	 *
+	 * @param size the text length
+	 * @return Text
+	 */
+	public static String text(int size) {
+
+		String[] words = { "license", "user", "feature", "region", "eu", "sku", "42", "trial", "pro", "x" };
+		Random random = new Random(size);
+		StringBuilder sb = new StringBuilder(size);
+
+		while (sb.length() < size) {
+			sb.append(words[random.nextInt(words.length)]);
+			sb.append('.');
+		}
+
+		sb.setLength(size);
+
+		return sb.toString();
+	}
+
+	/**
+	 * @param size the bytes length
+	 * @return Bytes of text of given length
+	 */
+	public static byte[] bytes(int size) {
+		return text(size).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Find fields annotated as token parts, the same way Tokenizer does.
+	 *
+	 * @param clazz the token class
+	 * @return Token part fields
+	 */
+	public static Field[] fields(Class<?> clazz) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.getAnnotation(TokenPart.class) != null) {
+					fields.add(field);
+				}
+			}
+		}
+		return fields.toArray(new Field[fields.size()]);
+	}
+}
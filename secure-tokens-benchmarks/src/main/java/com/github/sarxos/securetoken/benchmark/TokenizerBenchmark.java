@@ -0,0 +1,97 @@
+package com.github.sarxos.securetoken.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.SecretHandle;
+import com.github.sarxos.securetoken.TokenStatistics;
+import com.github.sarxos.securetoken.Tokenizer;
+
+
+/**
+ * Whole pipeline, from object to token string and back.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TokenizerBenchmark {
+
+	@Param({ "NOOP", "DES", "AES", "SEED", "IDEA", "NOEKEON", "TWOFISH", "BLOWFISH", "CAMELIA", "SERPENT", "AES_GCM", "AES_CTR_HMAC" })
+	private CipherType type;
+
+	@Param({ "32", "512", "8192" })
+	private int size;
+
+	/**
+	 * True to collect statistics, to see listener overhead.
+	 */
+	@Param({ "false", "true" })
+	private boolean statistics;
+
+	private String password = "benchmark secret";
+	private Payload payload;
+	private SecretHandle secret;
+	private String token;
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() {
+		payload = Payload.of(size);
+		secret = Tokenizer.secret(type, password);
+		token = Tokenizer.tokenize(payload, type, password);
+		buffer = ByteBuffer.allocateDirect(token.length());
+		buffer.put(token.getBytes(StandardCharsets.US_ASCII)).flip();
+		Tokenizer.setListener(statistics ? new TokenStatistics() : null);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Tokenizer.setListener(null);
+	}
+
+	@Benchmark
+	public String tokenize() {
+		return Tokenizer.tokenize(payload, type, password);
+	}
+
+	@Benchmark
+	public Payload objectify() {
+		return Tokenizer.objectify(Payload.class, token, type, password);
+	}
+
+	@Benchmark
+	public String tokenizeSecret() {
+		return Tokenizer.tokenize(payload, secret);
+	}
+
+	@Benchmark
+	public Payload objectifySecret() {
+		return Tokenizer.objectify(Payload.class, token, secret);
+	}
+
+	@Benchmark
+	public Payload objectifyBuffer() {
+		buffer.rewind();
+		return Tokenizer.objectify(Payload.class, buffer, secret);
+	}
+}
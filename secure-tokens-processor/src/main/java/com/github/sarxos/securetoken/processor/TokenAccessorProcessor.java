@@ -0,0 +1,527 @@
+package com.github.sarxos.securetoken.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+
+/**
+ * Annotation processor generating token accessors. For every class with
+ * {@code @TokenPart} fields it generates plain Java subclass of
+ * {@code TokenAccessor} and registers it in META-INF/services, so Tokenizer
+ * does not have to scan class with reflection. Classes which parts cannot be
+ * accessed from generated code (private fields without accessible getter and
+ * setter, no accessible default constructor) are skipped with a warning and
+ * will be handled reflectively at runtime.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+@SupportedAnnotationTypes({ TokenAccessorProcessor.TOKEN_PART, TokenAccessorProcessor.TOKEN_ENTITY })
+public class TokenAccessorProcessor extends AbstractProcessor {
+
+	static final String TOKEN_PART = "com.github.sarxos.securetoken.annotation.TokenPart";
+	static final String TOKEN_ENTITY = "com.github.sarxos.securetoken.annotation.TokenEntity";
+	static final String TOKEN_ACCESSOR = "com.github.sarxos.securetoken.TokenAccessor";
+	static final String TOKEN_FORMAT = "com.github.sarxos.securetoken.TokenFormat";
+
+	/**
+	 * Generated accessor name suffix.
+	 */
+	static final String SUFFIX = "_TokenAccessor";
+
+	/**
+	 * Primitive types for which accessor overrides boxing-free getter and
+	 * setter.
+	 */
+	private static final String[] PRIMITIVES = { "int", "long", "double", "boolean" };
+
+	/**
+	 * Service file listing generated accessors.
+	 */
+	static final String SERVICE_FILE = "META-INF/services/" + TOKEN_ACCESSOR;
+
+	/**
+	 * Single token part with Java expressions used to read and write it.
+	 */
+	private static final class Part {
+
+		private String name;
+		private int tag;
+		private String type;
+		private String cast;
+		private String read;
+		private String write;
+	}
+
+	/**
+	 * Names of accessors generated so far.
+	 */
+	private final Set<String> generated = new LinkedHashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+
+		if (env.processingOver()) {
+			writeServiceFile();
+			return false;
+		}
+
+		Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+
+		for (TypeElement annotation : annotations) {
+			for (Element element : env.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() == ElementKind.FIELD) {
+					types.add((TypeElement) element.getEnclosingElement());
+				} else if (element.getKind() == ElementKind.CLASS) {
+					types.add((TypeElement) element);
+				}
+			}
+		}
+
+		for (TypeElement type : types) {
+			if (isInstantiable(type)) {
+				generate(type);
+			}
+		}
+
+		return false;
+	}
+
+	private boolean isInstantiable(TypeElement type) {
+
+		if (type.getKind() != ElementKind.CLASS) {
+			return false;
+		}
+
+		Set<Modifier> modifiers = type.getModifiers();
+		if (modifiers.contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+
+		for (Element e = type; e.getKind().isClass(); e = e.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE)) {
+				return warn(type, "private classes cannot be accessed from generated accessor");
+			}
+			if (((TypeElement) e).getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+				return warn(type, "inner classes cannot be instantiated by generated accessor");
+			}
+			if (((TypeElement) e).getNestingKind() != NestingKind.MEMBER && ((TypeElement) e).getNestingKind() != NestingKind.TOP_LEVEL) {
+				return false;
+			}
+		}
+
+		List<ExecutableElement> ctors = ElementFilter.constructorsIn(type.getEnclosedElements());
+		for (ExecutableElement ctor : ctors) {
+			if (ctor.getParameters().isEmpty()) {
+				if (ctor.getModifiers().contains(Modifier.PRIVATE)) {
+					return warn(type, "default constructor is private");
+				}
+				return true;
+			}
+		}
+
+		return warn(type, "default constructor missing");
+	}
+
+	private boolean warn(TypeElement type, String reason) {
+		String message = String.format("Token accessor not generated for %s (%s), reflection will be used", type.getQualifiedName(), reason);
+		processingEnv.getMessager().printMessage(Kind.WARNING, message, type);
+		return false;
+	}
+
+	private void generate(TypeElement type) {
+
+		AnnotationMirror entity = getTokenEntity(type);
+		if (entity == null) {
+			return;
+		}
+
+		String delimiter = (String) getValue(entity, "delimiter");
+		String format = ((VariableElement) getValue(entity, "format")).getSimpleName().toString();
+
+		String pkg = getPackage(type).getQualifiedName().toString();
+		List<Part> parts = new ArrayList<Part>();
+		Set<String> names = new LinkedHashSet<String>();
+
+		for (TypeElement c = type; c != null; c = getSuperclass(c)) {
+			for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+
+				AnnotationMirror tp = getAnnotation(field, TOKEN_PART);
+				if (tp == null) {
+					continue;
+				}
+
+				Part part = new Part();
+				part.name = (String) getValue(tp, "value");
+				part.tag = (Integer) getValue(tp, "tag");
+
+				if (!names.add(part.name)) {
+					processingEnv.getMessager().printMessage(Kind.ERROR, "Two or more fields cannot be annotated with the same token part name", field);
+					return;
+				}
+
+				if (!resolve(part, field, c, pkg)) {
+					warn(type, String.format("field %s.%s cannot be accessed", c.getSimpleName(), field.getSimpleName()));
+					return;
+				}
+
+				parts.add(part);
+			}
+		}
+
+		String name = getAccessorName(type);
+
+		try {
+			write(type, pkg, name, delimiter, format, parts);
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Cannot write token accessor: " + e.getMessage(), type);
+			return;
+		}
+
+		generated.add(pkg.length() == 0 ? name : pkg + "." + name);
+	}
+
+	/**
+	 * Find expressions to read and write given field, directly or through
+	 * bean getter and setter.
+	 */
+	private boolean resolve(Part part, VariableElement field, TypeElement owner, String pkg) {
+
+		TypeMirror type = processingEnv.getTypeUtils().erasure(field.asType());
+		String fname = field.getSimpleName().toString();
+
+		part.type = type.toString();
+
+		if (type.getKind().isPrimitive()) {
+			part.cast = processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) type).getQualifiedName().toString();
+		} else {
+			part.cast = part.type;
+		}
+
+		boolean visible = isVisible(field, owner, pkg);
+
+		if (visible) {
+			part.read = "token." + fname;
+		}
+		if (visible && !field.getModifiers().contains(Modifier.FINAL)) {
+			part.write = "token." + fname + " = %s";
+		}
+
+		String cap = Character.toUpperCase(fname.charAt(0)) + fname.substring(1);
+
+		for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+
+			if (!isVisible(method, owner, pkg)) {
+				continue;
+			}
+
+			String mname = method.getSimpleName().toString();
+			List<? extends VariableElement> params = method.getParameters();
+
+			if (part.read == null && params.isEmpty() && (mname.equals("get" + cap) || mname.equals("is" + cap))) {
+				if (processingEnv.getTypeUtils().isSameType(type, processingEnv.getTypeUtils().erasure(method.getReturnType()))) {
+					part.read = "token." + mname + "()";
+				}
+			}
+
+			if (part.write == null && params.size() == 1 && mname.equals("set" + cap)) {
+				if (processingEnv.getTypeUtils().isSameType(type, processingEnv.getTypeUtils().erasure(params.get(0).asType()))) {
+					part.write = "token." + mname + "(%s)";
+				}
+			}
+		}
+
+		return part.read != null && part.write != null;
+	}
+
+	private boolean isVisible(Element member, TypeElement owner, String pkg) {
+		Set<Modifier> modifiers = member.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+			return false;
+		}
+		if (modifiers.contains(Modifier.PUBLIC)) {
+			return true;
+		}
+		return getPackage(owner).getQualifiedName().contentEquals(pkg);
+	}
+
+	/**
+	 * Find token entity annotation the same way Tokenizer does, by looking for
+	 * {@code @TokenEntity} on class, its interfaces and superclasses.
+	 */
+	private AnnotationMirror getTokenEntity(TypeElement type) {
+		for (TypeElement c = type; c != null; c = getSuperclass(c)) {
+			AnnotationMirror te = getAnnotation(c, TOKEN_ENTITY);
+			if (te == null) {
+				for (TypeMirror i : c.getInterfaces()) {
+					te = getAnnotation(((DeclaredType) i).asElement(), TOKEN_ENTITY);
+					if (te != null) {
+						break;
+					}
+				}
+			}
+			if (te != null) {
+				return te;
+			}
+		}
+		return null;
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private PackageElement getPackage(Element element) {
+		return processingEnv.getElementUtils().getPackageOf(element);
+	}
+
+	private AnnotationMirror getAnnotation(Element element, String name) {
+		for (AnnotationMirror am : element.getAnnotationMirrors()) {
+			if (((TypeElement) am.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+				return am;
+			}
+		}
+		return null;
+	}
+
+	private Object getValue(AnnotationMirror am, String name) {
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(am);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Accessor name is built from simple names of the class and all its
+	 * enclosing classes, e.g. Outer_Inner_TokenAccessor.
+	 */
+	static String getAccessorName(TypeElement type) {
+		StringBuilder sb = new StringBuilder(type.getSimpleName());
+		for (Element e = type.getEnclosingElement(); e.getKind().isClass() || e.getKind().isInterface(); e = e.getEnclosingElement()) {
+			sb.insert(0, '_').insert(0, e.getSimpleName());
+		}
+		return sb.append(SUFFIX).toString();
+	}
+
+	private void write(TypeElement type, String pkg, String name, String delimiter, String format, List<Part> parts) throws IOException {
+
+		String qualified = pkg.length() == 0 ? name : pkg + "." + name;
+		String token = type.getQualifiedName().toString();
+
+		Map<String, String> names = new LinkedHashMap<String, String>();
+		List<String> tags = new ArrayList<String>();
+		for (Part part : parts) {
+			names.put(processingEnv.getElementUtils().getConstantExpression(part.name), part.type + ".class");
+			tags.add(Integer.toString(part.tag));
+		}
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(qualified, type);
+		Writer w = file.openWriter();
+
+		try {
+
+			if (pkg.length() > 0) {
+				w.write("package " + pkg + ";\n\n");
+			}
+
+			w.write("/**\n");
+			w.write(" * Token accessor for {@link " + token + "}, generated by secure-tokens-processor.\n");
+			w.write(" */\n");
+			w.write("public final class " + name + " extends " + TOKEN_ACCESSOR + "<" + token + "> {\n\n");
+
+			w.write("\tpublic " + name + "() {\n");
+			w.write("\t\tsuper(" + token + ".class, " + processingEnv.getElementUtils().getConstantExpression(delimiter) + ", " + TOKEN_FORMAT + "." + format + ",\n");
+			w.write("\t\t\tnew String[] { " + join(names.keySet()) + " },\n");
+			w.write("\t\t\tnew int[] { " + join(tags) + " },\n");
+			w.write("\t\t\tnew Class<?>[] { " + join(names.values()) + " });\n");
+			w.write("\t}\n\n");
+
+			w.write("\t@Override\n");
+			w.write("\tpublic " + token + " newInstance() {\n");
+			w.write("\t\treturn new " + token + "();\n");
+			w.write("\t}\n\n");
+
+			w.write("\t@Override\n");
+			w.write("\tpublic Object get(" + token + " token, int part) {\n");
+			w.write("\t\tswitch (part) {\n");
+			for (int i = 0; i < parts.size(); i++) {
+				w.write("\t\t\tcase " + i + ":\n");
+				w.write("\t\t\t\treturn " + parts.get(i).read + ";\n");
+			}
+			w.write("\t\t\tdefault:\n");
+			w.write("\t\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(part));\n");
+			w.write("\t\t}\n");
+			w.write("\t}\n\n");
+
+			w.write("\t@Override\n");
+			w.write("\tpublic void set(" + token + " token, int part, Object value) {\n");
+			w.write("\t\tswitch (part) {\n");
+			for (int i = 0; i < parts.size(); i++) {
+				w.write("\t\t\tcase " + i + ":\n");
+				w.write("\t\t\t\t" + String.format(parts.get(i).write, "(" + parts.get(i).cast + ") value") + ";\n");
+				w.write("\t\t\t\tbreak;\n");
+			}
+			w.write("\t\t\tdefault:\n");
+			w.write("\t\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(part));\n");
+			w.write("\t\t}\n");
+			w.write("\t}\n");
+
+			for (String primitive : PRIMITIVES) {
+				writePrimitive(w, token, primitive, parts);
+			}
+
+			w.write("}\n");
+
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Write primitive getter and setter overrides, so that primitive parts are
+	 * read and written without boxing.
+	 */
+	private void writePrimitive(Writer w, String token, String primitive, List<Part> parts) throws IOException {
+
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < parts.size(); i++) {
+			if (parts.get(i).type.equals(primitive)) {
+				indexes.add(i);
+			}
+		}
+
+		if (indexes.isEmpty()) {
+			return;
+		}
+
+		String suffix = Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+
+		w.write("\n");
+		w.write("\t@Override\n");
+		w.write("\tpublic " + primitive + " get" + suffix + "(" + token + " token, int part) {\n");
+		w.write("\t\tswitch (part) {\n");
+		for (int i : indexes) {
+			w.write("\t\t\tcase " + i + ":\n");
+			w.write("\t\t\t\treturn " + parts.get(i).read + ";\n");
+		}
+		w.write("\t\t\tdefault:\n");
+		w.write("\t\t\t\treturn super.get" + suffix + "(token, part);\n");
+		w.write("\t\t}\n");
+		w.write("\t}\n\n");
+
+		w.write("\t@Override\n");
+		w.write("\tpublic void set" + suffix + "(" + token + " token, int part, " + primitive + " value) {\n");
+		w.write("\t\tswitch (part) {\n");
+		for (int i : indexes) {
+			w.write("\t\t\tcase " + i + ":\n");
+			w.write("\t\t\t\t" + String.format(parts.get(i).write, "value") + ";\n");
+			w.write("\t\t\t\tbreak;\n");
+		}
+		w.write("\t\t\tdefault:\n");
+		w.write("\t\t\t\tsuper.set" + suffix + "(token, part, value);\n");
+		w.write("\t\t\t\tbreak;\n");
+		w.write("\t\t}\n");
+		w.write("\t}\n");
+	}
+
+	private static String join(Iterable<String> strings) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : strings) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write service file listing all generated accessors, merged with entries
+	 * already present in output (incremental compilation).
+	 */
+	private void writeServiceFile() {
+
+		if (generated.isEmpty()) {
+			return;
+		}
+
+		Set<String> entries = new LinkedHashSet<String>();
+
+		try {
+			FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+			BufferedReader br = new BufferedReader(new InputStreamReader(existing.openInputStream(), "UTF-8"));
+			try {
+				String line = null;
+				while ((line = br.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0) {
+						entries.add(line);
+					}
+				}
+			} finally {
+				br.close();
+			}
+		} catch (IOException e) {
+			// no such file yet
+		}
+
+		entries.addAll(generated);
+
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+			Writer w = file.openWriter();
+			try {
+				for (String entry : entries) {
+					w.write(entry);
+					w.write('\n');
+				}
+			} finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Cannot write " + SERVICE_FILE + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.github.sarxos.securetoken.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.TokenAccessor;
+import com.github.sarxos.securetoken.TokenFormat;
+import com.github.sarxos.securetoken.impl.TokenCodec;
+
+
+public class TokenAccessorProcessorTest {
+
+	private static final String BASE = "" +
+		"package sample;\n" +
+		"import com.github.sarxos.securetoken.annotation.TokenPart;\n" +
+		"public class Base {\n" +
+		"	@TokenPart(value = \"amount\", tag = 3) protected java.math.BigDecimal amount;\n" +
+		"}\n";
+
+	private static final String SAMPLE = "" +
+		"package sample;\n" +
+		"import com.github.sarxos.securetoken.Token;\n" +
+		"import com.github.sarxos.securetoken.annotation.TokenEntity;\n" +
+		"import com.github.sarxos.securetoken.annotation.TokenPart;\n" +
+		"@TokenEntity(delimiter = \"|\")\n" +
+		"public class Sample extends Base implements Token {\n" +
+		"	@TokenPart(value = \"id\", tag = 1) int id;\n" +
+		"	@TokenPart(value = \"name\", tag = 2) private String name;\n" +
+		"	public String getName() { return name; }\n" +
+		"	public void setName(String name) { this.name = name; }\n" +
+		"	public static class Nested implements Token {\n" +
+		"		@TokenPart(\"v\") public long v;\n" +
+		"	}\n" +
+		"}\n";
+
+	private static final String HIDDEN = "" +
+		"package sample;\n" +
+		"import com.github.sarxos.securetoken.Token;\n" +
+		"import com.github.sarxos.securetoken.annotation.TokenPart;\n" +
+		"public class Hidden implements Token {\n" +
+		"	@TokenPart(\"x\") private int x;\n" +
+		"}\n";
+
+	private static File write(File dir, String name, String source) throws IOException {
+		File file = new File(dir, name);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), source.getBytes(Charset.forName("UTF-8")));
+		return file;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test_generate() throws Exception {
+
+		File root = Files.createTempDirectory("processor").toFile();
+		File src = new File(root, "src");
+		File out = new File(root, "out");
+		out.mkdirs();
+
+		List<File> files = new ArrayList<File>();
+		files.add(write(src, "sample/Base.java", BASE));
+		files.add(write(src, "sample/Sample.java", SAMPLE));
+		files.add(write(src, "sample/Hidden.java", HIDDEN));
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, null);
+
+		List<String> options = Arrays.asList(
+			"-classpath", System.getProperty("java.class.path"),
+			"-d", out.getAbsolutePath(),
+			"-s", out.getAbsolutePath(),
+			"-processor", TokenAccessorProcessor.class.getName());
+
+		boolean ok = compiler.getTask(null, fm, diagnostics, options, null, fm.getJavaFileObjectsFromFiles(files)).call();
+		fm.close();
+
+		Assert.assertTrue(diagnostics.getDiagnostics().toString(), ok);
+		Assert.assertTrue(new File(out, "sample/Sample_TokenAccessor.java").exists());
+		Assert.assertTrue(new File(out, "sample/Sample_Nested_TokenAccessor.java").exists());
+		Assert.assertFalse(new File(out, "sample/Hidden_TokenAccessor.java").exists());
+
+		List<String> services = Files.readAllLines(new File(out, TokenAccessorProcessor.SERVICE_FILE).toPath(), Charset.forName("UTF-8"));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("sample.Sample_TokenAccessor", "sample.Sample_Nested_TokenAccessor")), new HashSet<String>(services));
+
+		URLClassLoader loader = new URLClassLoader(new URL[] { out.toURI().toURL() }, getClass().getClassLoader());
+
+		try {
+
+			TokenAccessor<Token> accessor = (TokenAccessor<Token>) loader.loadClass("sample.Sample_TokenAccessor").newInstance();
+
+			Assert.assertEquals("|", accessor.getDelimiter());
+			Assert.assertEquals(3, accessor.getPartCount());
+			Assert.assertEquals("id", accessor.getPartName(0));
+			Assert.assertEquals("name", accessor.getPartName(1));
+			Assert.assertEquals("amount", accessor.getPartName(2));
+			Assert.assertEquals(int.class, accessor.getPartType(0));
+			Assert.assertEquals(BigDecimal.class, accessor.getPartType(2));
+			Assert.assertEquals(TokenFormat.TEXT, accessor.getFormat());
+			Assert.assertEquals(3, accessor.getPartTag(2));
+
+			Token sample = accessor.newInstance();
+			accessor.set(sample, 0, 5);
+			accessor.set(sample, 1, "abc");
+			accessor.set(sample, 2, new BigDecimal("1.5"));
+
+			TokenCodec<Token> codec = new TokenCodec<Token>(accessor);
+			String token = codec.encode(sample);
+			Assert.assertEquals("id=5|name=abc|amount=1.5", token);
+
+			Token restored = codec.decode(token);
+			Assert.assertEquals(5, accessor.get(restored, 0));
+			Assert.assertEquals("abc", accessor.get(restored, 1));
+			Assert.assertEquals(new BigDecimal("1.5"), accessor.get(restored, 2));
+
+		} finally {
+			loader.close();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.github.sarxos.securetoken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Result of batch operation. Results are kept in the same order as inputs.
+ * Item which failed has no value, but the exception thrown while it was
+ * processed, so one bad item does not abort whole batch.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ * @param <R> the result type
+ */
+public final class BatchResult<R> {
+
+	private final Object[] values;
+	private final RuntimeException[] errors;
+
+	/**
+	 * @param values the results, null for failed items
+	 * @param errors the failures, null for successful items
+	 */
+	public BatchResult(Object[] values, RuntimeException[] errors) {
+		if (values.length != errors.length) {
+			throw new IllegalArgumentException("Number of values and errors differs");
+		}
+		this.values = values;
+		this.errors = errors;
+	}
+
+	/**
+	 * @return Number of items in batch
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * @param index the item index
+	 * @return Result of given item, null if item failed
+	 */
+	@SuppressWarnings("unchecked")
+	public R get(int index) {
+		return (R) values[index];
+	}
+
+	/**
+	 * @param index the item index
+	 * @return Exception thrown when given item was processed, null if it
+	 *         succeeded
+	 */
+	public RuntimeException getError(int index) {
+		return errors[index];
+	}
+
+	/**
+	 * @param index the item index
+	 * @return True if given item failed
+	 */
+	public boolean isFailed(int index) {
+		return errors[index] != null;
+	}
+
+	/**
+	 * @return Number of failed items
+	 */
+	public int getFailureCount() {
+		int n = 0;
+		for (RuntimeException e : errors) {
+			if (e != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return Results in input order, null for failed items
+	 */
+	@SuppressWarnings("unchecked")
+	public List<R> getValues() {
+		List<R> list = new ArrayList<R>(values.length);
+		for (Object value : values) {
+			list.add((R) value);
+		}
+		return Collections.unmodifiableList(list);
+	}
+}
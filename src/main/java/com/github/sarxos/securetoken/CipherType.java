@@ -3,6 +3,7 @@ package com.github.sarxos.securetoken;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.ExtendedDigest;
 import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.digests.ShortenedDigest;
 
 
@@ -11,6 +12,23 @@ class Digests {
 	public static final ExtendedDigest SHA1_20 = new SHA1Digest();
 	public static final ExtendedDigest SHA1_16 = new ShortenedDigest(SHA1_20, 16);
 	public static final ExtendedDigest SHA1_08 = new ShortenedDigest(SHA1_20, 8);
+	public static final ExtendedDigest SHA256_32 = new SHA256Digest();
+
+	/**
+	 * Create new, not shared digest of the same kind as given one.
+	 * 
+	 * @param digest the digest to be copied
+	 * @return New digest
+	 */
+	public static final ExtendedDigest newInstance(Digest digest) {
+		if (digest == SHA1_20) {
+			return new SHA1Digest();
+		}
+		if (digest == SHA256_32) {
+			return new SHA256Digest();
+		}
+		return new ShortenedDigest(new SHA1Digest(), digest.getDigestSize());
+	}
 }
 
 public enum CipherType {
@@ -18,38 +36,38 @@ public enum CipherType {
 	/**
 	 * No-operation cipher - ignore encoding / decoding when used.
 	 */
-	NOOP("Noop", null),
+	NOOP(0, "Noop", null),
 
 	/**
 	 * Data Encryption Standard (DES) cipher.
 	 */
-	DES("DES", Digests.SHA1_08),
+	DES(1, "DES", Digests.SHA1_08),
 
 	/**
 	 * Advanced Encryption Standard (AES) is a specification for the encryption
 	 * of electronic data established by the U.S. National Institute of
 	 * Standards and Technology (NIST) in 2001.
 	 */
-	AES("AES", Digests.SHA1_16),
+	AES(2, "AES", Digests.SHA1_16),
 
 	/**
 	 * SEED is a block cipher developed by the Korean Information Security
 	 * Agency.
 	 */
-	SEED("SEED", Digests.SHA1_16),
+	SEED(3, "SEED", Digests.SHA1_16),
 
 	/**
 	 * International Data Encryption Algorithm (IDEA) is a block cipher designed
 	 * by James Massey of ETH Zurich and Xuejia Lai.
 	 */
-	IDEA("IDEA", Digests.SHA1_08),
+	IDEA(4, "IDEA", Digests.SHA1_08),
 
 	/**
 	 * Noekeon (pronounced [nukion]) is a block cipher with a block length and a
 	 * key length of 128 bits. It is a substitution-linear transformation
 	 * network in bit-slice mode, and as such similar to AES proposal Serpent.
 	 */
-	NOEKEON("Noekeon", Digests.SHA1_16),
+	NOEKEON(5, "Noekeon", Digests.SHA1_16),
 
 	/**
 	 * Twofish is a symmetric key block cipher with a block size of 128 bits and
@@ -57,7 +75,7 @@ public enum CipherType {
 	 * Advanced Encryption Standard contest, but was not selected for
 	 * standardization.
 	 */
-	TWOFISH("Twofish", Digests.SHA1_16),
+	TWOFISH(6, "Twofish", Digests.SHA1_16),
 
 	/**
 	 * Blowfish is a keyed, symmetric block cipher, designed in 1993 by Bruce
@@ -65,14 +83,14 @@ public enum CipherType {
 	 * products. Blowfish provides a good encryption rate in software and no
 	 * effective cryptanalysis of it has been found to date.
 	 */
-	BLOWFISH("Blowfish", Digests.SHA1_08),
+	BLOWFISH(7, "Blowfish", Digests.SHA1_08),
 
 	/**
 	 * Camellia is a 128-bit block cipher jointly developed by Mitsubishi and
 	 * NTT. The cipher has been approved for use by the ISO/IEC, the European
 	 * Union's NESSIE project and the Japanese CRYPTREC project.
 	 */
-	CAMELIA("Camellia", Digests.SHA1_16),
+	CAMELIA(8, "Camellia", Digests.SHA1_16),
 
 	/**
 	 * Serpent is a symmetric key block cipher which was a finalist in the
@@ -80,28 +98,156 @@ public enum CipherType {
 	 * Rijndael. Serpent was designed by Ross Anderson, Eli Biham, and Lars
 	 * Knudsen.
 	 */
-	SERPENT("Serpent", Digests.SHA1_16);
+	SERPENT(9, "Serpent", Digests.SHA1_16),
+
+	/**
+	 * AES in Galois/Counter Mode, without padding. Every token is encrypted
+	 * with random 96-bit nonce written in front of it and ends with 128-bit
+	 * authentication tag, so tampered tokens are rejected when they are
+	 * decrypted.
+	 */
+	AES_GCM(10, "AES", "AES/GCM/NoPadding", null, Digests.SHA1_16, 12, 16),
+
+	/**
+	 * AES in counter mode, without padding. Every token is encrypted with
+	 * random 128-bit initial counter written in front of it and ends with
+	 * HMAC-SHA256 of counter and ciphertext, truncated to 128 bits. Cipher and
+	 * MAC keys are two halves of 256-bit secret derived from password.
+	 */
+	AES_CTR_HMAC(11, "AES", "AES/CTR/NoPadding", "HmacSHA256", Digests.SHA256_32, 16, 16);
+
+	/**
+	 * Cipher identifier written in keyed token header.
+	 */
+	private final int id;
 
 	/**
 	 * The algorithm name.
 	 */
 	private String algorithm = null;
 
+	/**
+	 * Cipher transformation, bare algorithm name when provider default mode
+	 * and padding is used.
+	 */
+	private String transformation = null;
+
+	/**
+	 * MAC algorithm, null when ciphertext is not authenticated by separate
+	 * MAC.
+	 */
+	private String mac = null;
+
 	/**
 	 * Digest.
 	 */
 	private Digest digest = null;
 
-	private CipherType(String name, Digest digest) {
+	/**
+	 * Size of random nonce written in front of every token.
+	 */
+	private int nonceSize = 0;
+
+	/**
+	 * Size of authentication tag written at the end of every token.
+	 */
+	private int tagSize = 0;
+
+	private CipherType(int id, String name, Digest digest) {
+		this(id, name, name, null, digest, 0, 0);
+	}
+
+	private CipherType(int id, String name, String transformation, String mac, Digest digest, int nonceSize, int tagSize) {
+		this.id = id;
 		this.algorithm = name;
+		this.transformation = transformation;
+		this.mac = mac;
 		this.digest = digest;
+		this.nonceSize = nonceSize;
+		this.tagSize = tagSize;
+	}
+
+	/**
+	 * @return Cipher identifier written in keyed token header, it does not
+	 *         change when new cipher types are added
+	 * @see TokenKeyring
+	 */
+	public int getId() {
+		return id;
 	}
 
 	public String getAlgorithm() {
 		return algorithm;
 	}
 
+	/**
+	 * @return Cipher transformation, e.g. AES/GCM/NoPadding, or bare algorithm
+	 *         name when provider default mode and padding is used
+	 */
+	public String getTransformation() {
+		return transformation;
+	}
+
+	/**
+	 * @return MAC algorithm, or null if ciphertext is not authenticated by
+	 *         separate MAC
+	 */
+	public String getMacAlgorithm() {
+		return mac;
+	}
+
+	/**
+	 * @return Size (in bytes) of random nonce written in front of every token,
+	 *         0 if the same token is always created for the same data
+	 */
+	public int getNonceSize() {
+		return nonceSize;
+	}
+
+	/**
+	 * @return Size (in bytes) of authentication tag written at the end of
+	 *         every token, 0 if tokens are not authenticated
+	 */
+	public int getTagSize() {
+		return tagSize;
+	}
+
+	/**
+	 * @return True if tampered tokens are rejected when decrypted
+	 */
+	public boolean isAuthenticated() {
+		return tagSize > 0;
+	}
+
 	public Digest getDigest() {
 		return digest;
 	}
+
+	/**
+	 * Create new digest of the same kind as {@link #getDigest()}. Digests are
+	 * stateful and the one returned by {@link #getDigest()} is shared by all
+	 * cipher types, so new instance should be used to calculate hash.
+	 * 
+	 * @return New digest instance, or null for no-operation cipher
+	 */
+	public Digest newDigest() {
+		if (digest == null) {
+			return null;
+		}
+		return Digests.newInstance(digest);
+	}
+
+	/**
+	 * @param id the cipher identifier
+	 * @return Cipher type with given identifier
+	 * @throws IllegalArgumentException when there is no such cipher type
+	 */
+	public static CipherType valueOf(int id) {
+		for (CipherType type : values()) {
+			if (type.id == id) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Unknown cipher type %d", id));
+	}
 }
@@ -0,0 +1,30 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Converter of primitive {@code double} token parts. Part values are parsed from
+ * and appended to character buffers, so they are never boxed and no
+ * temporary string is created. Converter registered for {@code double.class}
+ * which also implements this interface is used for primitive double fields.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public interface DoubleConverter {
+
+	/**
+	 * Parse value from characters between given indexes.
+	 * 
+	 * @param chars the characters to parse
+	 * @param from the index of the first character
+	 * @param to the index after the last character
+	 * @return Parsed value
+	 */
+	double parse(CharSequence chars, int from, int to);
+
+	/**
+	 * Append string representation of value.
+	 * 
+	 * @param value the value to be appended
+	 * @param sb the buffer to append value to
+	 */
+	void append(double value, StringBuilder sb);
+}
@@ -0,0 +1,35 @@
+package com.github.sarxos.securetoken;
+
+import java.io.IOException;
+
+
+/**
+ * Converter which writes objects directly into character buffer and parses
+ * them from range of characters, so no intermediate string is created for
+ * every token part. Plain {@link Converter} implementations are adapted to
+ * this interface when token codec is built, so they keep working.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the type of converted objects
+ */
+public interface ExtendedConverter<T> extends Converter<T> {
+
+	/**
+	 * Append string representation of object.
+	 * 
+	 * @param object the object to be converted
+	 * @param out the buffer to append to
+	 * @throws IOException when appendable fails
+	 */
+	void appendTo(T object, Appendable out) throws IOException;
+
+	/**
+	 * Parse object from characters between given indexes.
+	 * 
+	 * @param chars the characters to parse
+	 * @param from the index of the first character
+	 * @param to the index after the last character
+	 * @return Object
+	 */
+	T parse(CharSequence chars, int from, int to);
+}
@@ -0,0 +1,30 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Converter of primitive {@code int} token parts. Part values are parsed from
+ * and appended to character buffers, so they are never boxed and no
+ * temporary string is created. Converter registered for {@code int.class}
+ * which also implements this interface is used for primitive int fields.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public interface IntConverter {
+
+	/**
+	 * Parse value from characters between given indexes.
+	 * 
+	 * @param chars the characters to parse
+	 * @param from the index of the first character
+	 * @param to the index after the last character
+	 * @return Parsed value
+	 */
+	int parse(CharSequence chars, int from, int to);
+
+	/**
+	 * Append string representation of value.
+	 * 
+	 * @param value the value to be appended
+	 * @param sb the buffer to append value to
+	 */
+	void append(int value, StringBuilder sb);
+}
@@ -0,0 +1,18 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Secret derived from password for specific cipher type. It holds cipher key,
+ * IV and cipher state, so tokens created and parsed with handle do not need
+ * any password hashing or cache lookups. Handles are thread-safe and should be
+ * obtained once, with {@link Tokenizer#secret(CipherType, String)}, and then
+ * reused.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public interface SecretHandle {
+
+	/**
+	 * @return Cipher type this secret has been derived for
+	 */
+	CipherType getType();
+}
@@ -0,0 +1,245 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Provides access to parts of specific token class. Accessors are generated at
+ * compile time by the secure-tokens-processor annotation processor and are
+ * discovered with {@link java.util.ServiceLoader}. When there is no generated
+ * accessor for given class, reflective one is used instead.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the token type
+ */
+public abstract class TokenAccessor<T extends Token> {
+
+	/**
+	 * Token class.
+	 */
+	private final Class<T> type;
+
+	/**
+	 * Token delimiter.
+	 */
+	private final String delimiter;
+
+	/**
+	 * Token format.
+	 */
+	private final TokenFormat format;
+
+	/**
+	 * Part names.
+	 */
+	private final String[] names;
+
+	/**
+	 * Part tags.
+	 */
+	private final int[] tags;
+
+	/**
+	 * Part types.
+	 */
+	private final Class<?>[] types;
+
+	/**
+	 * Create accessor for text token without part tags.
+	 *
+	 * @param type the token class
+	 * @param delimiter the token delimiter
+	 * @param names the part names
+	 * @param types the part types, in the same order as names
+	 */
+	protected TokenAccessor(Class<T> type, String delimiter, String[] names, Class<?>[] types) {
+		this(type, delimiter, TokenFormat.TEXT, names, new int[names.length], types);
+	}
+
+	/**
+	 * Create accessor.
+	 *
+	 * @param type the token class
+	 * @param delimiter the token delimiter
+	 * @param format the token format
+	 * @param names the part names
+	 * @param tags the part tags, in the same order as names
+	 * @param types the part types, in the same order as names
+	 */
+	protected TokenAccessor(Class<T> type, String delimiter, TokenFormat format, String[] names, int[] tags, Class<?>[] types) {
+
+		if (names.length != types.length || names.length != tags.length) {
+			throw new IllegalArgumentException("Number of part names, tags and types differs");
+		}
+
+		this.type = type;
+		this.delimiter = delimiter;
+		this.format = format;
+		this.names = names;
+		this.tags = tags;
+		this.types = types;
+	}
+
+	/**
+	 * @return Token class
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return Token delimiter
+	 */
+	public String getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @return Token format
+	 */
+	public TokenFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return Number of token parts
+	 */
+	public int getPartCount() {
+		return names.length;
+	}
+
+	/**
+	 * @param part the part index
+	 * @return Name of given part
+	 */
+	public String getPartName(int part) {
+		return names[part];
+	}
+
+	/**
+	 * @param part the part index
+	 * @return Tag of given part, 0 if not set
+	 */
+	public int getPartTag(int part) {
+		return tags[part];
+	}
+
+	/**
+	 * @param part the part index
+	 * @return Type of given part
+	 */
+	public Class<?> getPartType(int part) {
+		return types[part];
+	}
+
+	/**
+	 * Create new empty token object.
+	 *
+	 * @return New token
+	 */
+	public abstract T newInstance();
+
+	/**
+	 * Read part value.
+	 *
+	 * @param token the token object
+	 * @param part the part index
+	 * @return Part value
+	 */
+	public abstract Object get(T token, int part);
+
+	/**
+	 * Write part value.
+	 *
+	 * @param token the token object
+	 * @param part the part index
+	 * @param value the value to be written
+	 */
+	public abstract void set(T token, int part, Object value);
+
+	/**
+	 * Read value of primitive int part. Generated accessors override this to
+	 * read field without boxing.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @return Part value
+	 */
+	public int getInt(T token, int part) {
+		return (Integer) get(token, part);
+	}
+
+	/**
+	 * Write value of primitive int part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @param value the value to be written
+	 */
+	public void setInt(T token, int part, int value) {
+		set(token, part, value);
+	}
+
+	/**
+	 * Read value of primitive long part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @return Part value
+	 */
+	public long getLong(T token, int part) {
+		return (Long) get(token, part);
+	}
+
+	/**
+	 * Write value of primitive long part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @param value the value to be written
+	 */
+	public void setLong(T token, int part, long value) {
+		set(token, part, value);
+	}
+
+	/**
+	 * Read value of primitive double part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @return Part value
+	 */
+	public double getDouble(T token, int part) {
+		return (Double) get(token, part);
+	}
+
+	/**
+	 * Write value of primitive double part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @param value the value to be written
+	 */
+	public void setDouble(T token, int part, double value) {
+		set(token, part, value);
+	}
+
+	/**
+	 * Read value of primitive boolean part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @return Part value
+	 */
+	public boolean getBoolean(T token, int part) {
+		return (Boolean) get(token, part);
+	}
+
+	/**
+	 * Write value of primitive boolean part.
+	 * 
+	 * @param token the token object
+	 * @param part the part index
+	 * @param value the value to be written
+	 */
+	public void setBoolean(T token, int part, boolean value) {
+		set(token, part, value);
+	}
+}
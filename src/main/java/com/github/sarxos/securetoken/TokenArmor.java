@@ -0,0 +1,205 @@
+package com.github.sarxos.securetoken;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.github.sarxos.securetoken.impl.AsciiSequence;
+import com.github.sarxos.securetoken.impl.Base64Codec;
+import com.github.sarxos.securetoken.impl.Z85Codec;
+
+
+/**
+ * Encoding of encrypted token. Armors other than Base64 ones put one
+ * indicator character (or byte) in front of token, which never occurs at the
+ * beginning of Base64 token, so tokens in every armor can be objectified
+ * without knowing which one was used to create them, and Base64 tokens
+ * created before armors were introduced stay valid.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Tokenizer#setArmor(TokenArmor)
+ */
+public enum TokenArmor {
+
+	/**
+	 * Standard Base64 with padding, adds 33% to encrypted token. This is the
+	 * default armor.
+	 */
+	BASE64(-1, Base64Codec.STANDARD),
+
+	/**
+	 * URL and filename safe Base64 without padding. Tokens can be put into
+	 * URLs and cookies without escaping.
+	 */
+	BASE64URL(-1, Base64Codec.URL),
+
+	/**
+	 * Z85 prefixed with '~', adds 25% to encrypted token. Tokens can be put
+	 * into cookies, but not into URLs without escaping.
+	 */
+	Z85('~', null),
+
+	/**
+	 * Encrypted bytes prefixed with zero byte, for binary transports and
+	 * storage. Tokens in this armor can be created only as bytes.
+	 *
+	 * @see Tokenizer#tokenizeToBytes(Token, SecretHandle)
+	 */
+	RAW(0, null);
+
+	private final int indicator;
+
+	private final Base64Codec base64;
+
+	private TokenArmor(int indicator, Base64Codec base64) {
+		this.indicator = indicator;
+		this.base64 = base64;
+	}
+
+	/**
+	 * @return Character or byte preceding token, -1 if there is none
+	 */
+	public int getIndicator() {
+		return indicator;
+	}
+
+	/**
+	 * @return True if tokens in this armor can be strings
+	 */
+	public boolean isText() {
+		return this != RAW;
+	}
+
+	/**
+	 * Return stream encoding data written to it, Base64 is used for armors
+	 * which cannot be streamed.
+	 */
+	Base64Codec getStreamCodec() {
+		return base64 == null ? Base64Codec.STANDARD : base64;
+	}
+
+	/**
+	 * @throws IllegalStateException when armor is not text one
+	 */
+	String encodeToString(byte[] data) {
+		switch (this) {
+			case Z85:
+				return new String(encodeToBytes(data), StandardCharsets.ISO_8859_1);
+			case RAW:
+				throw new IllegalStateException("Tokens in raw armor can be created only as bytes");
+			default:
+				return base64.encodeToString(data, 0, data.length);
+		}
+	}
+
+	byte[] encodeToBytes(byte[] data) {
+
+		if (base64 != null) {
+			byte[] dst = new byte[base64.encodedLength(data.length)];
+			base64.encode(data, 0, data.length, dst, 0);
+			return dst;
+		}
+
+		int length = this == Z85 ? Z85Codec.encodedLength(data.length) : data.length;
+		byte[] dst = new byte[length + 1];
+		dst[0] = (byte) indicator;
+
+		if (this == Z85) {
+			Z85Codec.encode(data, 0, data.length, dst, 1);
+		} else {
+			System.arraycopy(data, 0, dst, 1, data.length);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Return number of bytes given number of encrypted bytes is armored to,
+	 * with indicator.
+	 */
+	int encodedLength(int length) {
+		if (base64 != null) {
+			return base64.encodedLength(length);
+		}
+		return (this == Z85 ? Z85Codec.encodedLength(length) : length) + 1;
+	}
+
+	/**
+	 * Encode encrypted bytes straight into buffer, which can be direct one.
+	 *
+	 * @return Number of bytes written
+	 * @throws BufferOverflowException when there is not enough space left in
+	 *             buffer, its position is not changed then
+	 */
+	int encode(byte[] data, int offset, int length, ByteBuffer out) {
+
+		if (out.remaining() < encodedLength(length)) {
+			throw new BufferOverflowException();
+		}
+
+		if (base64 != null) {
+			return base64.encode(data, offset, length, out);
+		}
+
+		out.put((byte) indicator);
+
+		if (this == Z85) {
+			return Z85Codec.encode(data, offset, length, out) + 1;
+		}
+
+		out.put(data, offset, length);
+
+		return length + 1;
+	}
+
+	/**
+	 * Decode token in text armor.
+	 */
+	static byte[] decode(CharSequence token, int from, int to) {
+		if (to > from && token.charAt(from) == Z85.indicator) {
+			return Z85Codec.decode(token, from + 1, to);
+		}
+		return Base64Codec.decode(token, from, to);
+	}
+
+	/**
+	 * Decode token in text armor into given array, which must be large enough
+	 * to hold {@link #decodedLength(CharSequence, int, int)} bytes.
+	 *
+	 * @return Number of bytes written
+	 */
+	static int decode(CharSequence token, int from, int to, byte[] dst) {
+		if (to > from && token.charAt(from) == Z85.indicator) {
+			return Z85Codec.decode(token, from + 1, to, dst, 0);
+		}
+		return Base64Codec.decode(token, from, to, dst, 0);
+	}
+
+	/**
+	 * Return maximum number of bytes token in text armor is decoded to.
+	 */
+	static int decodedLength(CharSequence token, int from, int to) {
+		if (to > from && token.charAt(from) == Z85.indicator) {
+			return Z85Codec.decodedLength(to - from - 1);
+		}
+		return Base64Codec.decodedLength(token, from, to);
+	}
+
+	/**
+	 * Decode token in any armor.
+	 */
+	static byte[] decode(byte[] token) {
+		return decode(token, 0);
+	}
+
+	/**
+	 * Decode token in any armor, starting at given index.
+	 */
+	static byte[] decode(byte[] token, int from) {
+		if (token.length > from && token[from] == RAW.indicator) {
+			return Arrays.copyOfRange(token, from + 1, token.length);
+		}
+		return decode(new AsciiSequence(token), from, token.length);
+	}
+}
@@ -0,0 +1,163 @@
+package com.github.sarxos.securetoken;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.sarxos.securetoken.impl.BoundedCache;
+
+
+/**
+ * Cache of objects restored from token strings. When the same token is
+ * objectified many times (e.g. session token sent with every request), only
+ * the first call decodes, decrypts and parses it, subsequent ones end with
+ * single hash lookup. Entries are keyed by token class, token string, cipher
+ * type and secret handle, and they are evicted when cache grows over its size
+ * or when their time to live passes.
+ * <p>
+ * By default every hit returns a copy of cached object, so callers can modify
+ * objects they get. When token objects are never modified, copying can be
+ * disabled and cached instance is returned directly.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Tokenizer#setCache(TokenCache)
+ */
+public final class TokenCache {
+
+	/**
+	 * Cache key.
+	 */
+	private static final class Key {
+
+		private final Class<?> type;
+		private final String token;
+		private final CipherType cipher;
+		private final SecretHandle secret;
+		private final int hash;
+
+		public Key(Class<?> type, String token, CipherType cipher, SecretHandle secret) {
+			this.type = type;
+			this.token = token;
+			this.cipher = cipher;
+			this.secret = secret;
+			this.hash = (token.hashCode() * 31 + type.hashCode()) * 31 + System.identityHashCode(secret);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && type == other.type && cipher == other.cipher && secret == other.secret && token.equals(other.token);
+		}
+	}
+
+	private final BoundedCache<Key, Token> entries;
+
+	private volatile boolean copyOnRead = true;
+
+	/**
+	 * Create token cache.
+	 *
+	 * @param maximumSize the maximum number of cached objects
+	 * @param timeToLive the time after which cached object is evicted
+	 * @param unit the time unit
+	 */
+	public TokenCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("Token cache time to live must be positive");
+		}
+		this.entries = new BoundedCache<Key, Token>(maximumSize, 0, unit);
+		this.entries.setExpireAfterWrite(timeToLive, unit);
+	}
+
+	/**
+	 * Return cached object.
+	 *
+	 * @param type the token class
+	 * @param token the token string
+	 * @param cipher the cipher type
+	 * @param secret the secret, null for no-operation cipher
+	 * @return Cached object or null
+	 */
+	Token get(Class<?> type, String token, CipherType cipher, SecretHandle secret) {
+		return entries.getIfPresent(new Key(type, token, cipher, secret));
+	}
+
+	/**
+	 * Put object in cache.
+	 *
+	 * @param type the token class
+	 * @param token the token string
+	 * @param cipher the cipher type
+	 * @param secret the secret, null for no-operation cipher
+	 * @param object the object restored from token
+	 */
+	void put(Class<?> type, String token, CipherType cipher, SecretHandle secret, Token object) {
+		entries.put(new Key(type, token, cipher, secret), object);
+	}
+
+	/**
+	 * @param copyOnRead true if copy of cached object should be returned,
+	 *            false to return cached instance
+	 */
+	public void setCopyOnRead(boolean copyOnRead) {
+		this.copyOnRead = copyOnRead;
+	}
+
+	/**
+	 * @return True if copy of cached object is returned
+	 */
+	public boolean isCopyOnRead() {
+		return copyOnRead;
+	}
+
+	/**
+	 * Remove all cached objects.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return Number of cached objects, including expired ones not evicted yet
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of objectify calls served from cache
+	 */
+	public long getHitCount() {
+		return entries.getHitCount();
+	}
+
+	/**
+	 * @return Number of objectify calls which had to decode token
+	 */
+	public long getMissCount() {
+		return entries.getMissCount();
+	}
+
+	/**
+	 * @return Number of evicted objects
+	 */
+	public long getEvictionCount() {
+		return entries.getEvictionCount();
+	}
+
+	/**
+	 * @return Ratio of hits to all lookups, 1 when there were no lookups
+	 */
+	public double getHitRate() {
+		return entries.getHitRate();
+	}
+}
@@ -0,0 +1,1754 @@
+package com.github.sarxos.securetoken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.bouncycastle.util.Strings;
+
+import com.github.sarxos.securetoken.TokenListener.Operation;
+import com.github.sarxos.securetoken.TokenListener.Stage;
+import com.github.sarxos.securetoken.impl.AsciiSequence;
+import com.github.sarxos.securetoken.impl.Base64Codec;
+import com.github.sarxos.securetoken.impl.Batch;
+import com.github.sarxos.securetoken.impl.BufferSequence;
+import com.github.sarxos.securetoken.impl.CipherEngine;
+import com.github.sarxos.securetoken.impl.CipherEngine.SecretStore;
+import com.github.sarxos.securetoken.impl.ConverterRegistry;
+import com.github.sarxos.securetoken.impl.Converters;
+import com.github.sarxos.securetoken.impl.Deflate;
+import com.github.sarxos.securetoken.impl.GZIP;
+import com.github.sarxos.securetoken.impl.ReflectiveAccessor;
+import com.github.sarxos.securetoken.impl.ScratchBuffers;
+import com.github.sarxos.securetoken.impl.Streams;
+import com.github.sarxos.securetoken.impl.Threads;
+import com.github.sarxos.securetoken.impl.TokenCodec;
+import com.github.sarxos.securetoken.impl.TokenMetadata;
+
+
+/**
+ * Tokenizer instance with configuration, converters and compiled codecs of
+ * its own. It is immutable and thread-safe, so one instance can be shared by
+ * all threads, and instances do not affect each other, e.g. converter
+ * registered for one of them is not visible in others. Static methods of
+ * {@link Tokenizer} work on default instance.
+ *
+ * <pre>
+ * TokenEngine engine = Tokenizer.builder()
+ * 	.armor(TokenArmor.BASE64URL)
+ * 	.cipherPoolSize(64)
+ * 	.build();
+ * </pre>
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Tokenizer#builder()
+ */
+public final class TokenEngine {
+
+	/**
+	 * Builder of tokenizer instances. It starts with default configuration
+	 * and global converters, see {@link Converters#getRegistry()}.
+	 *
+	 * @author Bartosz Firyn (bfiryn)
+	 */
+	public static final class Builder {
+
+		private ConverterRegistry converters = Converters.getRegistry();
+
+		/**
+		 * Codecs of source instance, reused while converters do not change.
+		 */
+		private ClassValue<TokenCodec<?>> codecs;
+
+		private boolean compressionEnabled = true;
+
+		private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+		private TokenCache cache;
+
+		private TokenArmor armor = TokenArmor.BASE64;
+
+		private TokenListener listener;
+
+		private Executor executor = DEFAULT_EXECUTOR;
+
+		private int cipherPoolSize = CipherEngine.DEFAULT_POOL_SIZE;
+
+		private int secretCacheSize = CipherEngine.DEFAULT_SECRETS_SIZE;
+
+		/**
+		 * Store of secrets, the shared one until its sizes are changed.
+		 */
+		private SecretStore secrets = CipherEngine.getSecretStore();
+
+		Builder() {
+		}
+
+		private Builder(TokenEngine engine) {
+			this.converters = engine.converters;
+			this.codecs = engine.codecs;
+			this.compressionEnabled = engine.compressionEnabled;
+			this.compressionThreshold = engine.compressionThreshold;
+			this.cache = engine.cache;
+			this.armor = engine.armor;
+			this.listener = engine.listener;
+			this.executor = engine.executor;
+			this.cipherPoolSize = engine.secrets.getPoolSize();
+			this.secretCacheSize = engine.secrets.getCache().getMaximumSize();
+			this.secrets = engine.secrets;
+		}
+
+		/**
+		 * Use converters from given registry instead of global ones.
+		 *
+		 * @param converters the converters registry
+		 * @return This builder
+		 */
+		public Builder converters(ConverterRegistry converters) {
+			if (converters == null) {
+				throw new IllegalArgumentException("Converter registry cannot be null");
+			}
+			this.converters = converters;
+			this.codecs = null;
+			return this;
+		}
+
+		/**
+		 * Register converter to be used by built tokenizer only.
+		 *
+		 * @param <C> the type of objects to be translated by given converter
+		 * @param clazz the class representing type which will be converted
+		 * @param converter the converter itself
+		 * @return This builder
+		 */
+		public <C> Builder register(Class<C> clazz, Converter<C> converter) {
+			return converters(converters.with(clazz, converter));
+		}
+
+		/**
+		 * Unregister converter bound with given class from built tokenizer.
+		 *
+		 * @param clazz the class representing type being converted
+		 * @return This builder
+		 */
+		public Builder unregister(Class<?> clazz) {
+			return converters(converters.without(clazz));
+		}
+
+		/**
+		 * Enable or disable compression of token bodies. Streamed tokens are
+		 * always compressed.
+		 *
+		 * @param enabled true to compress bodies over threshold (default)
+		 * @return This builder
+		 * @see #compressionThreshold(int)
+		 */
+		public Builder compression(boolean enabled) {
+			this.compressionEnabled = enabled;
+			return this;
+		}
+
+		/**
+		 * Set minimum size of token body to be compressed.
+		 *
+		 * @param bytes the minimum body size in bytes, 0 to try compressing
+		 *            every token
+		 * @return This builder
+		 * @see Tokenizer#setCompressionThreshold(int)
+		 */
+		public Builder compressionThreshold(int bytes) {
+			if (bytes < 0) {
+				throw new IllegalArgumentException("Compression threshold cannot be negative");
+			}
+			this.compressionThreshold = bytes;
+			return this;
+		}
+
+		/**
+		 * Set cache of objects restored from token strings. Instances which
+		 * should be isolated from each other should not share cache.
+		 *
+		 * @param cache the cache to be used, null to disable caching (default)
+		 * @return This builder
+		 */
+		public Builder cache(TokenCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Set encoding of encrypted tokens.
+		 *
+		 * @param armor the armor to be used
+		 * @return This builder
+		 * @see Tokenizer#setArmor(TokenArmor)
+		 */
+		public Builder armor(TokenArmor armor) {
+			if (armor == null) {
+				throw new IllegalArgumentException("Token armor cannot be null");
+			}
+			this.armor = armor;
+			return this;
+		}
+
+		/**
+		 * Set listener notified about every token operation.
+		 *
+		 * @param listener the listener to be used, null to remove it
+		 * @return This builder
+		 */
+		public Builder listener(TokenListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Set executor of asynchronous operations.
+		 *
+		 * @param executor the executor to be used, null to restore default one
+		 * @return This builder
+		 * @see Tokenizer#setExecutor(Executor)
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor == null ? DEFAULT_EXECUTOR : executor;
+			return this;
+		}
+
+		/**
+		 * Set maximum number of ciphers pooled for virtual threads per secret.
+		 * Tokenizer with pool size or secret cache size of its own derives
+		 * secrets into store of its own, so it does not share ciphers with
+		 * other instances.
+		 *
+		 * @param size the pool size
+		 * @return This builder
+		 */
+		public Builder cipherPoolSize(int size) {
+			if (size < 0) {
+				throw new IllegalArgumentException("Cipher pool size cannot be negative");
+			}
+			this.cipherPoolSize = size;
+			this.secrets = null;
+			return this;
+		}
+
+		/**
+		 * Set maximum number of secrets derived by tokenizer and cached with
+		 * their ciphers.
+		 *
+		 * @param size the maximum number of cached secrets
+		 * @return This builder
+		 * @see #cipherPoolSize(int)
+		 */
+		public Builder secretCacheSize(int size) {
+			if (size <= 0) {
+				throw new IllegalArgumentException("Secret cache size must be positive");
+			}
+			this.secretCacheSize = size;
+			this.secrets = null;
+			return this;
+		}
+
+		/**
+		 * @return New tokenizer instance
+		 */
+		public TokenEngine build() {
+			return new TokenEngine(this);
+		}
+	}
+
+	/**
+	 * Compression markers, written in front of text tokens before header byte
+	 * was introduced. Such tokens can still be read.
+	 */
+	private static final byte[] CMP_MARKER = { 'c', 'm', 'p' };
+
+	/**
+	 * Decompression markers.
+	 */
+	private static final byte[] DCP_MARKER = { 'd', 'c', 'p' };
+
+	/**
+	 * Highest bit of token header byte. Old tokens written without header
+	 * start with compression marker, which never has this bit set. Next three bits
+	 * hold token format and the lowest four bits hold compression.
+	 */
+	private static final int HEADER_MARKER = 0x80;
+
+	/**
+	 * Token body is not compressed.
+	 */
+	private static final int COMPRESSION_NONE = 0;
+
+	/**
+	 * Token body is compressed with GZIP. Such tokens are no longer created,
+	 * but they can still be read.
+	 */
+	private static final int COMPRESSION_GZIP = 1;
+
+	/**
+	 * Token body is compressed with raw deflate.
+	 */
+	private static final int COMPRESSION_DEFLATE = 2;
+
+	/**
+	 * Default minimum size (in bytes) of token body to be compressed.
+	 */
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+
+	/**
+	 * Default executor of asynchronous operations, new virtual thread per task
+	 * when JVM supports them, common fork-join pool otherwise.
+	 */
+	private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Size of compression buffers used when token is streamed.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * Default cipher type.
+	 */
+	private static final CipherType DEFAULT_CIPHER = CipherType.AES;
+
+	/**
+	 * Converters of token parts.
+	 */
+	private final ConverterRegistry converters;
+
+	/**
+	 * Compiled codecs. Class value does not keep token classes reachable.
+	 */
+	private final ClassValue<TokenCodec<?>> codecs;
+
+	/**
+	 * False when token bodies are never compressed.
+	 */
+	private final boolean compressionEnabled;
+
+	/**
+	 * Token bodies smaller than this are not compressed.
+	 */
+	private final int compressionThreshold;
+
+	/**
+	 * Cache of objectified tokens, null when disabled.
+	 */
+	private final TokenCache cache;
+
+	/**
+	 * Encoding of encrypted tokens.
+	 */
+	private final TokenArmor armor;
+
+	/**
+	 * Listener notified about token operations, null when there is none.
+	 */
+	private final TokenListener listener;
+
+	/**
+	 * Executor of asynchronous operations.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Secrets derived from passwords.
+	 */
+	private final SecretStore secrets;
+
+	private TokenEngine(Builder builder) {
+		this.converters = builder.converters;
+		this.codecs = builder.codecs == null ? newCodecs(builder.converters) : builder.codecs;
+		this.compressionEnabled = builder.compressionEnabled;
+		this.compressionThreshold = builder.compressionThreshold;
+		this.cache = builder.cache;
+		this.armor = builder.armor;
+		this.listener = builder.listener;
+		this.executor = builder.executor;
+		this.secrets = builder.secrets == null ? new SecretStore(builder.secretCacheSize, builder.cipherPoolSize) : builder.secrets;
+	}
+
+	private static Executor defaultExecutor() {
+		Executor executor = Threads.newVirtualExecutor();
+		return executor == null ? ForkJoinPool.commonPool() : executor;
+	}
+
+	/**
+	 * Find accessor generated by annotation processor for given token class.
+	 * Services are looked up in class loader of token class, so accessors of
+	 * classes loaded later, e.g. by redeployed application, are found too, and
+	 * nothing outside of codec class value keeps them reachable.
+	 * 
+	 * @param clazz the token class
+	 * @return Generated accessor, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Token> TokenAccessor<T> findAccessor(Class<T> clazz) {
+		for (TokenAccessor<?> accessor : ServiceLoader.load(TokenAccessor.class, clazz.getClassLoader())) {
+			if (accessor.getType() == clazz) {
+				return (TokenAccessor<T>) accessor;
+			}
+		}
+		return null;
+	}
+
+	private static boolean startsWith(byte[] source, int from, int to, byte[] match) {
+		if (match.length > to - from) {
+			return false;
+		}
+		for (int i = 0; i < match.length; i++) {
+			if (source[from + i] != match[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String tokenize(Token tokenizable, String password) {
+		return tokenize(tokenizable, DEFAULT_CIPHER, password);
+	}
+
+	/**
+	 * Tokenize object and then encrypt it.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param password the password to be used in encryption
+	 * @param type the cipher type
+	 * @return Encrypted string representation of given tokenizable object
+	 */
+	public String tokenize(Token tokenizable, CipherType type, String password) {
+
+		if (type == CipherType.NOOP) {
+			return (String) tokenize0(tokenizable, type, null, null, false, null);
+		}
+
+		return (String) tokenize0(tokenizable, type, secrets.get(type, password), null, false, null);
+	}
+
+	/**
+	 * Tokenize object and then encrypt it with previously derived secret.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Encrypted string representation of given tokenizable object
+	 * @see #secret(CipherType, String)
+	 */
+	public String tokenize(Token tokenizable, SecretHandle secret) {
+		return (String) tokenize0(tokenizable, secret.getType(), secret, null, false, null);
+	}
+
+	/**
+	 * Tokenize object, encrypt it and return token as bytes. Text armors give
+	 * ASCII bytes of token string, {@link TokenArmor#RAW} gives encrypted
+	 * bytes themselves.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Token bytes
+	 * @see Builder#armor(TokenArmor)
+	 */
+	public byte[] tokenizeToBytes(Token tokenizable, CipherType type, String password) {
+
+		if (type == CipherType.NOOP) {
+			return (byte[]) tokenize0(tokenizable, type, null, null, true, null);
+		}
+
+		return (byte[]) tokenize0(tokenizable, type, secrets.get(type, password), null, true, null);
+	}
+
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and return
+	 * token as bytes.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Token bytes
+	 * @see #tokenizeToBytes(Token, CipherType, String)
+	 */
+	public byte[] tokenizeToBytes(Token tokenizable, SecretHandle secret) {
+		return (byte[]) tokenize0(tokenizable, secret.getType(), secret, null, true, null);
+	}
+
+	/**
+	 * Tokenize object, encrypt it and put token bytes into buffer, which can be
+	 * direct one. Token is encrypted into pooled scratch array and armored
+	 * straight into buffer, no token array is created.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param out the buffer to put token bytes into
+	 * @return Number of bytes put into buffer
+	 * @throws BufferOverflowException when there is not enough space left in
+	 *             buffer, its position is not changed then
+	 * @see #tokenizeToBytes(Token, CipherType, String)
+	 */
+	public int tokenize(Token tokenizable, CipherType type, String password, ByteBuffer out) {
+
+		if (type == CipherType.NOOP) {
+			return (Integer) tokenize0(tokenizable, type, null, null, true, out);
+		}
+
+		return (Integer) tokenize0(tokenizable, type, secrets.get(type, password), null, true, out);
+	}
+
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and put token
+	 * bytes into buffer.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param out the buffer to put token bytes into
+	 * @return Number of bytes put into buffer
+	 * @throws BufferOverflowException when there is not enough space left in
+	 *             buffer, its position is not changed then
+	 * @see #tokenize(Token, CipherType, String, ByteBuffer)
+	 */
+	public int tokenize(Token tokenizable, SecretHandle secret, ByteBuffer out) {
+		return (Integer) tokenize0(tokenizable, secret.getType(), secret, null, true, out);
+	}
+
+	/**
+	 * Tokenize object and encrypt it with primary key of given keyring. Token
+	 * carries id of the key, so it can be objectified after primary key has
+	 * been changed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param keyring the keyring
+	 * @return Encrypted string representation of given tokenizable object
+	 * @throws IllegalStateException when keyring is empty
+	 * @see #objectify(Class, String, TokenKeyring)
+	 */
+	public String tokenize(Token tokenizable, TokenKeyring keyring) {
+		TokenKeyring.Key key = keyring.primary();
+		return (String) tokenize0(tokenizable, key.getSecret().getType(), key.getSecret(), key, false, null);
+	}
+
+	/**
+	 * Tokenize object, encrypt it with primary key of given keyring and return
+	 * token as bytes.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param keyring the keyring
+	 * @return Token bytes
+	 * @throws IllegalStateException when keyring is empty
+	 * @see #tokenize(Token, TokenKeyring)
+	 */
+	public byte[] tokenizeToBytes(Token tokenizable, TokenKeyring keyring) {
+		TokenKeyring.Key key = keyring.primary();
+		return (byte[]) tokenize0(tokenizable, key.getSecret().getType(), key.getSecret(), key, true, null);
+	}
+
+	/**
+	 * @param key the keyring key whose header is put in front of token, or null
+	 * @param out the buffer to put token bytes into, or null
+	 * @return Token string, token bytes when bytes are requested, or number of
+	 *         bytes put into buffer when there is one
+	 */
+	private <T extends Token> Object tokenize0(T tokenizable, CipherType type, SecretHandle secret, TokenKeyring.Key key, boolean bytes, ByteBuffer out) {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			return tokenize1(tokenizable, type, secret, key, bytes, out, null);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			Object token = tokenize1(tokenizable, type, secret, key, bytes, out, listener);
+			listener.completed(Operation.TOKENIZE, type, System.nanoTime() - start);
+			return token;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.TOKENIZE, type, e);
+			throw e;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Token> Object tokenize1(T tokenizable, CipherType type, SecretHandle secret, TokenKeyring.Key key, boolean bytes, ByteBuffer out, TokenListener listener) {
+
+		long time = listener == null ? 0 : System.nanoTime();
+		TokenArmor armor = this.armor;
+
+		TokenCodec<T> codec = getCodec((Class<T>) tokenizable.getClass());
+
+		byte[] body = null;
+
+		if (codec.getFormat() == TokenFormat.TEXT) {
+
+			String text = codec.encode(tokenizable);
+			if (type == CipherType.NOOP) {
+				lap(listener, Stage.ENCODE, type, time);
+				if (out != null) {
+					byte[] utf = Strings.toUTF8ByteArray(text);
+					out.put(utf);
+					return utf.length;
+				}
+				return bytes ? Strings.toUTF8ByteArray(text) : text;
+			}
+
+			body = Strings.toUTF8ByteArray(text);
+
+		} else {
+			body = codec.encodeBinary(tokenizable);
+		}
+
+		time = lap(listener, Stage.ENCODE, type, time);
+
+		int compression = COMPRESSION_NONE;
+		int size = body.length;
+
+		if (compressionEnabled && body.length >= compressionThreshold) {
+			byte[] compressed = Deflate.compress(body, 0, body.length);
+			if (compressed.length < body.length) {
+				compression = COMPRESSION_DEFLATE;
+				body = compressed;
+			}
+			time = lap(listener, Stage.COMPRESS, type, time);
+		}
+
+		if (listener != null) {
+			listener.compressed(type, size, body.length);
+		}
+
+		if (out != null) {
+			return put(header(codec.getFormat(), compression), body, type, secret, armor, out, listener, time);
+		}
+
+		byte[] input = new byte[body.length + 1];
+		input[0] = header(codec.getFormat(), compression);
+
+		System.arraycopy(body, 0, input, 1, body.length);
+
+		byte[] encrypted = input;
+		if (type != CipherType.NOOP) {
+			encrypted = CipherEngine.encrypt(secret, input);
+			time = lap(listener, Stage.ENCRYPT, type, time);
+		}
+
+		Object token = bytes ? armor.encodeToBytes(encrypted) : armor.encodeToString(encrypted);
+
+		if (key != null) {
+			if (bytes) {
+				byte[] header = key.getHeaderBytes();
+				byte[] keyed = new byte[header.length + ((byte[]) token).length];
+				System.arraycopy(header, 0, keyed, 0, header.length);
+				System.arraycopy(token, 0, keyed, header.length, keyed.length - header.length);
+				token = keyed;
+			} else {
+				token = key.getHeader() + token;
+			}
+		}
+
+		lap(listener, Stage.ARMOR, type, time);
+
+		return token;
+	}
+
+	/**
+	 * Encrypt token body and armor it straight into buffer. Intermediate data
+	 * is kept in pooled scratch arrays.
+	 * 
+	 * @return Number of bytes put into buffer
+	 */
+	private static int put(byte header, byte[] body, CipherType type, SecretHandle secret, TokenArmor armor, ByteBuffer out, TokenListener listener, long time) {
+
+		int length = body.length + 1;
+
+		byte[] input = ScratchBuffers.acquire(length);
+		byte[] encrypted = null;
+
+		try {
+
+			input[0] = header;
+			System.arraycopy(body, 0, input, 1, body.length);
+
+			byte[] data = input;
+			if (type != CipherType.NOOP) {
+				data = encrypted = ScratchBuffers.acquire(CipherEngine.getEncryptedLength(type, length));
+				length = CipherEngine.encrypt(secret, input, 0, length, encrypted, 0);
+				time = lap(listener, Stage.ENCRYPT, type, time);
+			}
+
+			int n = armor.encode(data, 0, length, out);
+
+			lap(listener, Stage.ARMOR, type, time);
+
+			return n;
+
+		} finally {
+			ScratchBuffers.release(input);
+			ScratchBuffers.release(encrypted);
+		}
+	}
+
+	/**
+	 * Report stage which started at given time to listener, if there is one.
+	 * 
+	 * @return Time when stage has ended, start of the next one
+	 */
+	private static long lap(TokenListener listener, Stage stage, CipherType type, long start) {
+		if (listener == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		listener.stage(stage, type, now - start);
+		return now;
+	}
+
+	private static byte header(TokenFormat format, int compression) {
+		return (byte) (HEADER_MARKER | format.getId() << 4 | compression);
+	}
+
+	/**
+	 * Return compiled codec for given token class. Codec is built once and
+	 * then reused for all subsequent calls.
+	 * 
+	 * @param <T> the token type
+	 * @param clazz the token class
+	 * @return Codec for given class
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends Token> TokenCodec<T> getCodec(Class<T> clazz) {
+		return (TokenCodec<T>) codecs.get(clazz);
+	}
+
+	private static ClassValue<TokenCodec<?>> newCodecs(final ConverterRegistry converters) {
+		return new ClassValue<TokenCodec<?>>() {
+
+			@Override
+			protected TokenCodec<?> computeValue(Class<?> type) {
+				return newCodec(type.asSubclass(Token.class), converters);
+			}
+		};
+	}
+
+	private static <T extends Token> TokenCodec<T> newCodec(Class<T> clazz, ConverterRegistry converters) {
+
+		TokenAccessor<T> accessor = findAccessor(clazz);
+		if (accessor == null) {
+			accessor = new ReflectiveAccessor<T>(TokenMetadata.of(clazz));
+		}
+
+		return new TokenCodec<T>(accessor, converters);
+	}
+
+	public <T extends Token> T objectify(Class<T> clazz, String token, String password) {
+		return objectify(clazz, token, DEFAULT_CIPHER, password);
+	}
+
+	/**
+	 * Objectify String first decrypting it.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, String token, CipherType type, String password) {
+
+		if (type == CipherType.NOOP) {
+			return objectify0(clazz, token, 0, token.length(), type, null);
+		}
+
+		return objectify0(clazz, token, 0, token.length(), type, secrets.get(type, password));
+	}
+
+	/**
+	 * Objectify String first decrypting it with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #secret(CipherType, String)
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, String token, SecretHandle secret) {
+		return objectify0(clazz, token, 0, token.length(), secret.getType(), secret);
+	}
+
+	/**
+	 * Objectify token which is part of longer character sequence, e.g. header
+	 * value, with previously derived secret. Encrypted token is decoded
+	 * directly from given sequence, without copying it to string first.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the sequence containing token
+	 * @param from the index of the first token character
+	 * @param to the index after the last token character
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #secret(CipherType, String)
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, CharSequence token, int from, int to, SecretHandle secret) {
+		if (from < 0 || to > token.length() || from > to) {
+			throw new IllegalArgumentException(String.format("Invalid token range %d-%d of %d characters", from, to, token.length()));
+		}
+		return objectify0(clazz, token, from, to, secret.getType(), secret);
+	}
+
+	/**
+	 * Objectify token bytes created with
+	 * {@link #tokenizeToBytes(Token, CipherType, String)}, in any armor.
+	 * Objects restored from bytes are not cached.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, byte[] token, CipherType type, String password) {
+
+		if (type == CipherType.NOOP) {
+			return objectify0(clazz, token, type, null);
+		}
+
+		return objectify0(clazz, token, type, secrets.get(type, password));
+	}
+
+	/**
+	 * Objectify token bytes with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #objectify(Class, byte[], CipherType, String)
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, byte[] token, SecretHandle secret) {
+		return objectify0(clazz, token, secret.getType(), secret);
+	}
+
+	/**
+	 * Objectify token bytes from buffer, which can be direct one, in any armor.
+	 * Token is read from buffer position to its limit and buffer is left at
+	 * its limit. Intermediate data is kept in pooled scratch arrays, and
+	 * {@link TokenArmor#RAW} tokens are decrypted straight from buffer, so
+	 * verifying token does not create heap copies of it. Objects restored from
+	 * buffers are not cached.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the buffer with token bytes
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, ByteBuffer token, CipherType type, String password) {
+
+		if (type == CipherType.NOOP) {
+			return objectify0(clazz, token, type, null);
+		}
+
+		return objectify0(clazz, token, type, secrets.get(type, password));
+	}
+
+	/**
+	 * Objectify token bytes from buffer with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the buffer with token bytes
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #objectify(Class, ByteBuffer, CipherType, String)
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, ByteBuffer token, SecretHandle secret) {
+		return objectify0(clazz, token, secret.getType(), secret);
+	}
+
+	/**
+	 * Objectify token created with {@link #tokenize(Token, TokenKeyring)}. Key
+	 * and cipher are taken from token header, so token is decrypted once, with
+	 * the key it has been created with. Token without header is decrypted with
+	 * keyring fallback secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param keyring the keyring
+	 * @return Object of given type
+	 * @throws IllegalArgumentException when token key is not in keyring
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, String token, TokenKeyring keyring) {
+		return objectify0(clazz, token, null, keyring);
+	}
+
+	/**
+	 * Objectify token bytes created with
+	 * {@link #tokenizeToBytes(Token, TokenKeyring)}, in any armor. Objects
+	 * restored from bytes are not cached.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param keyring the keyring
+	 * @return Object of given type
+	 * @throws IllegalArgumentException when token key is not in keyring
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, byte[] token, TokenKeyring keyring) {
+		return objectify0(clazz, null, token, keyring);
+	}
+
+	/**
+	 * Objectify keyring token given as string or as bytes. Key is selected
+	 * from plain text header, so cache is looked up before token is unarmored.
+	 * Cipher type is not known until key is found, so failures before that are
+	 * reported without it.
+	 */
+	private <T extends Token> T objectify0(Class<T> clazz, String string, byte[] bytes, TokenKeyring keyring) {
+
+		TokenListener listener = this.listener;
+		CipherType type = null;
+
+		long start = listener == null ? 0 : System.nanoTime();
+
+		try {
+
+			TokenKeyring.Key key = string == null ? keyring.select(new AsciiSequence(bytes), 0, bytes.length) : keyring.select(string, 0, string.length());
+			type = key.getSecret().getType();
+
+			T object = objectify1(clazz, string, bytes, key, listener, start);
+			if (listener != null) {
+				listener.completed(Operation.OBJECTIFY, type, System.nanoTime() - start);
+			}
+			return object;
+
+		} catch (RuntimeException e) {
+			if (listener != null) {
+				listener.failed(Operation.OBJECTIFY, type, e);
+			}
+			throw e;
+		}
+	}
+
+	private <T extends Token> T objectify1(Class<T> clazz, String string, byte[] bytes, TokenKeyring.Key key, TokenListener listener, long time) {
+
+		TokenCodec<T> codec = getCodec(clazz);
+		TokenCache cache = this.cache;
+
+		SecretHandle secret = key.getSecret();
+		CipherType type = secret.getType();
+
+		if (cache == null || string == null) {
+			return open(codec, string, bytes, key, listener, time);
+		}
+
+		T object = clazz.cast(cache.get(clazz, string, type, secret));
+
+		if (listener != null) {
+			listener.cache(type, object != null);
+		}
+
+		if (object == null) {
+			object = open(codec, string, bytes, key, listener, time);
+			cache.put(clazz, string, type, secret, object);
+		}
+
+		return cache.isCopyOnRead() ? codec.copy(object) : object;
+	}
+
+	/**
+	 * Unarmor keyring token past its key header and decrypt it.
+	 */
+	private static <T extends Token> T open(TokenCodec<T> codec, String string, byte[] bytes, TokenKeyring.Key key, TokenListener listener, long time) {
+
+		SecretHandle secret = key.getSecret();
+		CipherType type = secret.getType();
+
+		int from = key.getHeader().length();
+		byte[] encrypted = string == null ? TokenArmor.decode(bytes, from) : TokenArmor.decode(string, from, string.length());
+
+		return open(codec, encrypted, type, secret, listener, lap(listener, Stage.UNARMOR, type, time));
+	}
+
+	private <T extends Token> T objectify0(Class<T> clazz, ByteBuffer token, CipherType type, SecretHandle secret) {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			return decode(getCodec(clazz), token, type, secret, null);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			T object = decode(getCodec(clazz), token, type, secret, listener);
+			listener.completed(Operation.OBJECTIFY, type, System.nanoTime() - start);
+			return object;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.OBJECTIFY, type, e);
+			throw e;
+		}
+	}
+
+	private <T extends Token> T objectify0(Class<T> clazz, byte[] token, CipherType type, SecretHandle secret) {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			return decode(getCodec(clazz), token, type, secret, null);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			T object = decode(getCodec(clazz), token, type, secret, listener);
+			listener.completed(Operation.OBJECTIFY, type, System.nanoTime() - start);
+			return object;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.OBJECTIFY, type, e);
+			throw e;
+		}
+	}
+
+	private <T extends Token> T objectify0(Class<T> clazz, CharSequence token, int from, int to, CipherType type, SecretHandle secret) {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			return objectify1(clazz, token, from, to, type, secret, null);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			T object = objectify1(clazz, token, from, to, type, secret, listener);
+			listener.completed(Operation.OBJECTIFY, type, System.nanoTime() - start);
+			return object;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.OBJECTIFY, type, e);
+			throw e;
+		}
+	}
+
+	private <T extends Token> T objectify1(Class<T> clazz, CharSequence token, int from, int to, CipherType type, SecretHandle secret, TokenListener listener) {
+
+		TokenCodec<T> codec = getCodec(clazz);
+		TokenCache cache = this.cache;
+
+		if (cache == null) {
+			return decode(codec, token, from, to, type, secret, listener);
+		}
+
+		String key = token.subSequence(from, to).toString();
+		T object = clazz.cast(cache.get(clazz, key, type, secret));
+
+		if (listener != null) {
+			listener.cache(type, object != null);
+		}
+
+		if (object == null) {
+			object = decode(codec, key, 0, key.length(), type, secret, listener);
+			cache.put(clazz, key, type, secret, object);
+		}
+
+		return cache.isCopyOnRead() ? codec.copy(object) : object;
+	}
+
+	private static <T extends Token> T decode(TokenCodec<T> codec, CharSequence token, int from, int to, CipherType type, SecretHandle secret, TokenListener listener) {
+
+		long time = listener == null ? 0 : System.nanoTime();
+
+		if (type == CipherType.NOOP && codec.getFormat() == TokenFormat.TEXT) {
+			T object = codec.decode(token.subSequence(from, to).toString());
+			lap(listener, Stage.DECODE, type, time);
+			return object;
+		}
+
+		byte[] encrypted = TokenArmor.decode(token, from, to);
+
+		return open(codec, encrypted, type, secret, listener, lap(listener, Stage.UNARMOR, type, time));
+	}
+
+	private static <T extends Token> T decode(TokenCodec<T> codec, byte[] token, CipherType type, SecretHandle secret, TokenListener listener) {
+
+		long time = listener == null ? 0 : System.nanoTime();
+
+		if (type == CipherType.NOOP && codec.getFormat() == TokenFormat.TEXT) {
+			T object = codec.decode(token, 0, token.length);
+			lap(listener, Stage.DECODE, type, time);
+			return object;
+		}
+
+		byte[] encrypted = TokenArmor.decode(token);
+
+		return open(codec, encrypted, type, secret, listener, lap(listener, Stage.UNARMOR, type, time));
+	}
+
+	private static <T extends Token> T decode(TokenCodec<T> codec, ByteBuffer token, CipherType type, SecretHandle secret, TokenListener listener) {
+
+		long time = listener == null ? 0 : System.nanoTime();
+
+		int length = token.remaining();
+		byte[] armored = null;
+		byte[] decrypted = null;
+
+		try {
+
+			if (type == CipherType.NOOP && codec.getFormat() == TokenFormat.TEXT) {
+				T object = null;
+				if (token.hasArray()) {
+					object = codec.decode(token.array(), token.arrayOffset() + token.position(), length);
+					token.position(token.limit());
+				} else {
+					armored = ScratchBuffers.acquire(length);
+					token.get(armored, 0, length);
+					object = codec.decode(armored, 0, length);
+				}
+				lap(listener, Stage.DECODE, type, time);
+				return object;
+			}
+
+			ByteBuffer encrypted = null;
+
+			if (length > 0 && token.get(token.position()) == TokenArmor.RAW.getIndicator()) {
+				encrypted = token.duplicate();
+				encrypted.position(encrypted.position() + 1);
+			} else {
+				BufferSequence chars = new BufferSequence(token);
+				armored = ScratchBuffers.acquire(TokenArmor.decodedLength(chars, 0, length));
+				encrypted = ByteBuffer.wrap(armored, 0, TokenArmor.decode(chars, 0, length, armored));
+			}
+
+			token.position(token.limit());
+			time = lap(listener, Stage.UNARMOR, type, time);
+
+			int size = encrypted.remaining();
+
+			if (type == CipherType.NOOP) {
+				if (encrypted.hasArray()) {
+					return unpack(codec, encrypted.array(), encrypted.arrayOffset() + encrypted.position(), size, type, listener, time);
+				}
+				decrypted = ScratchBuffers.acquire(size);
+				encrypted.get(decrypted, 0, size);
+				return unpack(codec, decrypted, 0, size, type, listener, time);
+			}
+
+			decrypted = ScratchBuffers.acquire(size);
+			size = CipherEngine.decrypt(secret, encrypted, ByteBuffer.wrap(decrypted));
+			time = lap(listener, Stage.DECRYPT, type, time);
+
+			return unpack(codec, decrypted, 0, size, type, listener, time);
+
+		} finally {
+			ScratchBuffers.release(armored);
+			ScratchBuffers.release(decrypted);
+		}
+	}
+
+	/**
+	 * Decrypt, uncompress and decode token which armor has been removed.
+	 */
+	private static <T extends Token> T open(TokenCodec<T> codec, byte[] encrypted, CipherType type, SecretHandle secret, TokenListener listener, long time) {
+
+		byte[] decrypted = encrypted;
+		if (type != CipherType.NOOP) {
+			decrypted = CipherEngine.decrypt(secret, encrypted);
+			time = lap(listener, Stage.DECRYPT, type, time);
+		}
+
+		return unpack(codec, decrypted, 0, decrypted.length, type, listener, time);
+	}
+
+	/**
+	 * Uncompress and decode decrypted token.
+	 */
+	private static <T extends Token> T unpack(TokenCodec<T> codec, byte[] decrypted, int start, int size, CipherType type, TokenListener listener, long time) {
+
+		if (size == 0) {
+			throw new IllegalArgumentException("Empty token");
+		}
+
+		int header = decrypted[start] & 0xFF;
+		int end = start + size;
+
+		// old tokens without header byte start with text compression marker
+
+		if ((header & HEADER_MARKER) == 0) {
+
+			if (startsWith(decrypted, start, end, CMP_MARKER)) {
+				byte[] output = GZIP.uncompress(ArrayUtils.subarray(decrypted, start + CMP_MARKER.length, end));
+				time = lap(listener, Stage.UNCOMPRESS, type, time);
+				T object = codec.decode(output, 0, output.length);
+				lap(listener, Stage.DECODE, type, time);
+				return object;
+			}
+
+			T object = codec.decode(decrypted, start + DCP_MARKER.length, size - DCP_MARKER.length);
+			lap(listener, Stage.DECODE, type, time);
+			return object;
+		}
+
+		TokenFormat format = TokenFormat.valueOf(header >> 4 & 0x07);
+		int compression = header & 0x0F;
+
+		byte[] body = decrypted;
+		int offset = start + 1;
+		int length = size - 1;
+
+		switch (compression) {
+			case COMPRESSION_NONE:
+				break;
+			case COMPRESSION_GZIP:
+				body = GZIP.uncompress(ArrayUtils.subarray(decrypted, start + 1, end));
+				offset = 0;
+				length = body.length;
+				break;
+			case COMPRESSION_DEFLATE:
+				body = Deflate.uncompress(decrypted, start + 1, size - 1);
+				offset = 0;
+				length = body.length;
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown token compression %d", compression));
+		}
+
+		if (compression != COMPRESSION_NONE) {
+			time = lap(listener, Stage.UNCOMPRESS, type, time);
+		}
+
+		T object = null;
+		if (format == TokenFormat.BINARY) {
+			object = codec.decodeBinary(body, offset, length);
+		} else {
+			object = codec.decode(body, offset, length);
+		}
+
+		lap(listener, Stage.DECODE, type, time);
+
+		return object;
+	}
+
+	/**
+	 * Tokenize object, encrypt it and write resulting token to given stream.
+	 * Token is compressed, encrypted and encoded while it is written, using
+	 * fixed size buffers, so memory use does not depend on token size. Stream
+	 * is not closed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param out the stream to write token to
+	 * @throws IOException when stream fails
+	 */
+	public void tokenize(Token tokenizable, CipherType type, String password, OutputStream out) throws IOException {
+
+		if (type == CipherType.NOOP) {
+			tokenize0(tokenizable, type, null, out);
+		} else {
+			tokenize0(tokenizable, type, secrets.get(type, password), out);
+		}
+	}
+
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and write
+	 * resulting token to given stream. Stream is not closed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param out the stream to write token to
+	 * @throws IOException when stream fails
+	 * @see #tokenize(Token, CipherType, String, OutputStream)
+	 */
+	public void tokenize(Token tokenizable, SecretHandle secret, OutputStream out) throws IOException {
+		tokenize0(tokenizable, secret.getType(), secret, out);
+	}
+
+	private <T extends Token> void tokenize0(T tokenizable, CipherType type, SecretHandle secret, OutputStream out) throws IOException {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			tokenizeStream(tokenizable, type, secret, out);
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			tokenizeStream(tokenizable, type, secret, out);
+			listener.completed(Operation.TOKENIZE, type, System.nanoTime() - start);
+		} catch (IOException e) {
+			listener.failed(Operation.TOKENIZE, type, e);
+			throw e;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.TOKENIZE, type, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Streamed token is always compressed, because size is not known until
+	 * it is written. It can be objectified from string as well.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends Token> void tokenizeStream(T tokenizable, CipherType type, SecretHandle secret, OutputStream out) throws IOException {
+
+		TokenCodec<T> codec = getCodec((Class<T>) tokenizable.getClass());
+
+		if (type == CipherType.NOOP && codec.getFormat() == TokenFormat.TEXT) {
+			Writer writer = new OutputStreamWriter(Streams.shield(out), UTF8);
+			codec.encode(tokenizable, writer);
+			writer.close();
+			return;
+		}
+
+		OutputStream encoder = armor.getStreamCodec().encode(Streams.shield(out));
+		OutputStream input = type == CipherType.NOOP ? encoder : CipherEngine.encrypt(secret, encoder);
+
+		input.write(header(codec.getFormat(), COMPRESSION_DEFLATE));
+
+		OutputStream deflate = Deflate.compress(input, BUFFER_SIZE);
+
+		if (codec.getFormat() == TokenFormat.TEXT) {
+			Writer writer = new OutputStreamWriter(deflate, UTF8);
+			codec.encode(tokenizable, writer);
+			writer.close();
+		} else {
+			codec.encodeBinary(tokenizable, deflate);
+			deflate.close();
+		}
+	}
+
+	/**
+	 * Read token from given stream, decrypt it and objectify. Token is
+	 * decoded, decrypted and uncompressed while it is read, using fixed size
+	 * buffers. Stream is read to its end, but it is not closed.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param in the stream to read token from
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 * @throws IOException when stream fails
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, InputStream in, CipherType type, String password) throws IOException {
+
+		if (type == CipherType.NOOP) {
+			return objectify0(clazz, in, type, null);
+		}
+
+		return objectify0(clazz, in, type, secrets.get(type, password));
+	}
+
+	/**
+	 * Read token from given stream, decrypt it with previously derived secret
+	 * and objectify. Stream is not closed.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param in the stream to read token from
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @throws IOException when stream fails
+	 * @see #objectify(Class, InputStream, CipherType, String)
+	 */
+	public <T extends Token> T objectify(Class<T> clazz, InputStream in, SecretHandle secret) throws IOException {
+		return objectify0(clazz, in, secret.getType(), secret);
+	}
+
+	private <T extends Token> T objectify0(Class<T> clazz, InputStream in, CipherType type, SecretHandle secret) throws IOException {
+
+		TokenListener listener = this.listener;
+		if (listener == null) {
+			return objectifyStream(clazz, in, type, secret);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			T object = objectifyStream(clazz, in, type, secret);
+			listener.completed(Operation.OBJECTIFY, type, System.nanoTime() - start);
+			return object;
+		} catch (IOException e) {
+			listener.failed(Operation.OBJECTIFY, type, e);
+			throw e;
+		} catch (RuntimeException e) {
+			listener.failed(Operation.OBJECTIFY, type, e);
+			throw e;
+		}
+	}
+
+	private <T extends Token> T objectifyStream(Class<T> clazz, InputStream in, CipherType type, SecretHandle secret) throws IOException {
+
+		TokenCodec<T> codec = getCodec(clazz);
+
+		if (type == CipherType.NOOP && codec.getFormat() == TokenFormat.TEXT) {
+			return codec.decode(new InputStreamReader(in, UTF8));
+		}
+
+		InputStream decoder = Base64Codec.decode(Streams.shield(in));
+		InputStream output = type == CipherType.NOOP ? decoder : CipherEngine.decrypt(secret, decoder);
+
+		try {
+
+			int header = output.read();
+			if (header == -1) {
+				throw new IllegalArgumentException("Empty token");
+			}
+
+			// old tokens without header byte start with text compression marker
+
+			if ((header & HEADER_MARKER) == 0) {
+
+				byte[] mark = new byte[CMP_MARKER.length];
+				mark[0] = (byte) header;
+
+				for (int i = 1; i < mark.length; i++) {
+					mark[i] = (byte) output.read();
+				}
+
+				if (Arrays.equals(mark, CMP_MARKER)) {
+					output = new GZIPInputStream(output, BUFFER_SIZE);
+				}
+
+				return codec.decode(new InputStreamReader(output, UTF8));
+			}
+
+			TokenFormat format = TokenFormat.valueOf(header >> 4 & 0x07);
+			int compression = header & 0x0F;
+
+			switch (compression) {
+				case COMPRESSION_NONE:
+					break;
+				case COMPRESSION_GZIP:
+					output = new GZIPInputStream(output, BUFFER_SIZE);
+					break;
+				case COMPRESSION_DEFLATE:
+					output = Deflate.uncompress(output, BUFFER_SIZE);
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown token compression %d", compression));
+			}
+
+			if (format == TokenFormat.BINARY) {
+				return codec.decodeBinary(output);
+			} else {
+				return codec.decode(new InputStreamReader(output, UTF8));
+			}
+
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Tokenize and encrypt all objects in parallel, in common fork-join pool.
+	 * 
+	 * @param tokenizables the objects to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Tokens in the order of objects, with failures of single objects
+	 */
+	public BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, CipherType type, String password) {
+		return tokenizeAll(tokenizables, type, password, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Tokenize and encrypt all objects in parallel, in given fork-join pool.
+	 * 
+	 * @param tokenizables the objects to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param pool the pool to run in
+	 * @return Tokens in the order of objects, with failures of single objects
+	 */
+	public BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, CipherType type, String password, ForkJoinPool pool) {
+		return tokenizeAll(tokenizables, type, type == CipherType.NOOP ? null : secrets.get(type, password), pool);
+	}
+
+	/**
+	 * Tokenize and encrypt all objects in parallel with previously derived
+	 * secret, in given fork-join pool.
+	 * 
+	 * @param tokenizables the objects to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param pool the pool to run in
+	 * @return Tokens in the order of objects, with failures of single objects
+	 */
+	public BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, SecretHandle secret, ForkJoinPool pool) {
+		return tokenizeAll(tokenizables, secret.getType(), secret, pool);
+	}
+
+	private BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, final CipherType type, final SecretHandle secret, ForkJoinPool pool) {
+		return Batch.run(new ArrayList<Token>(tokenizables), new Batch.Operation<Token, String>() {
+
+			@Override
+			public String apply(Token tokenizable) {
+				return (String) tokenize0(tokenizable, type, secret, null, false, null);
+			}
+		}, pool);
+	}
+
+	/**
+	 * Decrypt and objectify all tokens in parallel, in common fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, CipherType type, String password) {
+		return objectifyAll(clazz, tokens, type, password, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Decrypt and objectify all tokens in parallel, in given fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @param pool the pool to run in
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, CipherType type, String password, ForkJoinPool pool) {
+		return objectifyAll(clazz, tokens, type, type == CipherType.NOOP ? null : secrets.get(type, password), pool);
+	}
+
+	/**
+	 * Decrypt and objectify all tokens in parallel with previously derived
+	 * secret, in given fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @param pool the pool to run in
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, SecretHandle secret, ForkJoinPool pool) {
+		return objectifyAll(clazz, tokens, secret.getType(), secret, pool);
+	}
+
+	private <T extends Token> BatchResult<T> objectifyAll(final Class<T> clazz, List<String> tokens, final CipherType type, final SecretHandle secret, ForkJoinPool pool) {
+		return Batch.run(tokens, new Batch.Operation<String, T>() {
+
+			@Override
+			public T apply(String token) {
+				return objectify0(clazz, token, 0, token.length(), type, secret);
+			}
+		}, pool);
+	}
+
+	/**
+	 * Tokenize and encrypt object asynchronously, in default executor. Secret
+	 * is derived from password in the same task.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Future completed with token or with failure
+	 * @see Builder#executor(Executor)
+	 */
+	public CompletableFuture<String> tokenizeAsync(final Token tokenizable, final CipherType type, final String password) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+
+			@Override
+			public String get() {
+				return tokenize(tokenizable, type, password);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Tokenize and encrypt object asynchronously with previously derived
+	 * secret, in default executor.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Future completed with token or with failure
+	 * @see Builder#executor(Executor)
+	 */
+	public CompletableFuture<String> tokenizeAsync(Token tokenizable, SecretHandle secret) {
+		return tokenizeAsync(tokenizable, secret, executor);
+	}
+
+	/**
+	 * Tokenize and encrypt object asynchronously with previously derived
+	 * secret, in given executor.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param executor the executor to run in
+	 * @return Future completed with token or with failure
+	 */
+	public CompletableFuture<String> tokenizeAsync(final Token tokenizable, final SecretHandle secret, Executor executor) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+
+			@Override
+			public String get() {
+				return (String) tokenize0(tokenizable, secret.getType(), secret, null, false, null);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Decrypt and objectify token asynchronously, in default executor. Secret
+	 * is derived from password in the same task.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Future completed with object or with failure
+	 * @see Builder#executor(Executor)
+	 */
+	public <T extends Token> CompletableFuture<T> objectifyAsync(final Class<T> clazz, final String token, final CipherType type, final String password) {
+		return CompletableFuture.supplyAsync(new Supplier<T>() {
+
+			@Override
+			public T get() {
+				return objectify(clazz, token, type, password);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Decrypt and objectify token asynchronously with previously derived
+	 * secret, in default executor.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @return Future completed with object or with failure
+	 * @see Builder#executor(Executor)
+	 */
+	public <T extends Token> CompletableFuture<T> objectifyAsync(Class<T> clazz, String token, SecretHandle secret) {
+		return objectifyAsync(clazz, token, secret, executor);
+	}
+
+	/**
+	 * Decrypt and objectify token asynchronously with previously derived
+	 * secret, in given executor.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @param executor the executor to run in
+	 * @return Future completed with object or with failure
+	 */
+	public <T extends Token> CompletableFuture<T> objectifyAsync(final Class<T> clazz, final String token, final SecretHandle secret, Executor executor) {
+		return CompletableFuture.supplyAsync(new Supplier<T>() {
+
+			@Override
+			public T get() {
+				return objectify0(clazz, token, 0, token.length(), secret.getType(), secret);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Derive secret from password, or return the one derived before. Returned
+	 * handle holds cipher key, IV and cipher state, so it should be kept and
+	 * passed to {@link #tokenize(Token, SecretHandle)} and
+	 * {@link #objectify(Class, String, SecretHandle)} instead of password.
+	 * 
+	 * @param type the cipher type
+	 * @param password the password
+	 * @return Secret handle
+	 */
+	public SecretHandle secret(CipherType type, String password) {
+		return secrets.get(type, password);
+	}
+
+	/**
+	 * @return Converters of token parts
+	 */
+	public ConverterRegistry getConverters() {
+		return converters;
+	}
+
+	/**
+	 * @return False if token bodies are never compressed
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * @return Minimum size of token body to be compressed, in bytes
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * @return Cache of objects restored from token strings, null if disabled
+	 */
+	public TokenCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return Encoding of encrypted tokens
+	 */
+	public TokenArmor getArmor() {
+		return armor;
+	}
+
+	/**
+	 * @return Listener notified about token operations, null if there is none
+	 */
+	public TokenListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return Executor of asynchronous operations
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return Store of secrets derived by this tokenizer
+	 */
+	public SecretStore getSecretStore() {
+		return secrets;
+	}
+
+	/**
+	 * Return builder with configuration of this instance, e.g. to create
+	 * instance which differs in one setting only. Instance built without
+	 * changing converters and secret store sizes shares compiled codecs and
+	 * secrets with this one.
+	 * 
+	 * @return New builder
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+}
@@ -0,0 +1,56 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Format in which token parts are serialized before they are compressed and
+ * encrypted.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public enum TokenFormat {
+
+	/**
+	 * Human readable name=value pairs joined with token delimiter. This is the
+	 * default format.
+	 */
+	TEXT(0),
+
+	/**
+	 * Compact binary format. Every part is written with its numeric tag (see
+	 * {@link com.github.sarxos.securetoken.annotation.TokenPart#tag()}),
+	 * integer numbers are variable length encoded, strings are length
+	 * prefixed and big numbers are written as two's complement bytes. Parts
+	 * missing in token keep values assigned by default constructor and parts
+	 * with unknown tags are ignored, so new parts can be added to token class
+	 * without breaking old tokens.
+	 */
+	BINARY(1);
+
+	/**
+	 * Format identifier written in token header.
+	 */
+	private final int id;
+
+	private TokenFormat(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return Format identifier written in token header
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the format identifier
+	 * @return Format with given identifier
+	 */
+	public static TokenFormat valueOf(int id) {
+		for (TokenFormat format : values()) {
+			if (format.id == id) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Unknown token format %d", id));
+	}
+}
@@ -0,0 +1,318 @@
+package com.github.sarxos.securetoken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Secrets identified by short key ids, for key rotation without downtime.
+ * Tokens created with keyring carry id of the key they have been encrypted
+ * with, together with cipher type, in plain text header in front of armored
+ * token, e.g. {@code 2024-01:10|Vq3...}. Tokens are objectified with the key
+ * their header points to, found with single hash lookup, so old tokens are
+ * still accepted after new primary key is set and no token is decrypted
+ * twice. Header ends with '|', which does not occur in any armor, so tokens
+ * created without keyring are never taken for keyed ones.
+ * <p>
+ * Rotation is done in three steps: add new key, make it primary when all
+ * nodes have it, and remove old one when tokens created with it have
+ * expired. Keyring can be changed while it is used, lookups do not lock.
+ *
+ * <pre>
+ * TokenKeyring keyring = new TokenKeyring();
+ * keyring.add("2024-01", Tokenizer.secret(CipherType.AES_GCM, password));
+ * keyring.setPrimary("2024-01");
+ * String token = Tokenizer.tokenize(session, keyring);
+ * </pre>
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Tokenizer#tokenize(Token, TokenKeyring)
+ */
+public final class TokenKeyring {
+
+	/**
+	 * Secret with its id and the header written in front of tokens encrypted
+	 * with it.
+	 */
+	static final class Key {
+
+		private final String id;
+		private final SecretHandle secret;
+		private final String header;
+		private final byte[] headerBytes;
+
+		private Key(String id, SecretHandle secret, String header) {
+			this.id = id;
+			this.secret = secret;
+			this.header = header;
+			this.headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+		}
+
+		SecretHandle getSecret() {
+			return secret;
+		}
+
+		/**
+		 * @return Header, empty for fallback key
+		 */
+		String getHeader() {
+			return header;
+		}
+
+		/**
+		 * @return ASCII bytes of header, shared, they must not be modified
+		 */
+		byte[] getHeaderBytes() {
+			return headerBytes;
+		}
+	}
+
+	/**
+	 * Immutable keyring state. Every change creates new snapshot, so lookups
+	 * never see map being modified.
+	 */
+	private static final class Snapshot {
+
+		private final Map<String, Key> keys;
+		private final Key primary;
+		private final Key fallback;
+
+		private Snapshot(Map<String, Key> keys, Key primary, Key fallback) {
+			this.keys = keys;
+			this.primary = primary;
+			this.fallback = fallback;
+		}
+	}
+
+	/**
+	 * Maximum length of key id.
+	 */
+	public static final int MAX_ID_LENGTH = 32;
+
+	/**
+	 * Separates key id from cipher identifier in header.
+	 */
+	private static final char CIPHER_SEPARATOR = ':';
+
+	/**
+	 * Ends header, it is not used by any armor.
+	 */
+	private static final char HEADER_END = '|';
+
+	/**
+	 * Maximum header length, key id, separator, up to three digits of cipher
+	 * identifier and header end.
+	 */
+	private static final int MAX_HEADER_LENGTH = MAX_ID_LENGTH + 5;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.<String, Key> emptyMap(), null, null);
+
+	/**
+	 * Lock used to serialize keyring changes. Lookups do not use it.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Add key. The first key added becomes primary one.
+	 *
+	 * @param id the key id, 1 to {@value #MAX_ID_LENGTH} ASCII letters, digits,
+	 *            '.', '_' or '-'
+	 * @param secret the secret
+	 * @throws IllegalArgumentException when id is invalid or already used, or
+	 *             secret is for no-operation cipher
+	 */
+	public void add(String id, SecretHandle secret) {
+
+		if (id == null || secret == null) {
+			throw new IllegalArgumentException("Key id and secret cannot be null");
+		}
+		if (secret.getType() == CipherType.NOOP) {
+			throw new IllegalArgumentException("Keyring cannot hold no-operation secret");
+		}
+
+		boolean valid = id.length() > 0 && id.length() <= MAX_ID_LENGTH;
+		for (int i = 0; valid && i < id.length(); i++) {
+			valid = isIdChar(id.charAt(i));
+		}
+		if (!valid) {
+			throw new IllegalArgumentException(String.format("Key id must have 1 to %d ASCII letters, digits, '.', '_' or '-', '%s' given", MAX_ID_LENGTH, id));
+		}
+
+		Key key = new Key(id, secret, id + CIPHER_SEPARATOR + secret.getType().getId() + HEADER_END);
+
+		synchronized (lock) {
+			Snapshot s = snapshot;
+			if (s.keys.containsKey(id)) {
+				throw new IllegalArgumentException(String.format("Key '%s' is already in keyring", id));
+			}
+			Map<String, Key> keys = new HashMap<String, Key>(s.keys);
+			keys.put(id, key);
+			snapshot = new Snapshot(keys, s.primary == null ? key : s.primary, s.fallback);
+		}
+	}
+
+	/**
+	 * Remove key, tokens created with it are no longer accepted.
+	 *
+	 * @param id the key id
+	 * @throws IllegalArgumentException when key is primary one
+	 */
+	public void remove(String id) {
+		synchronized (lock) {
+			Snapshot s = snapshot;
+			if (s.primary != null && s.primary.id.equals(id)) {
+				throw new IllegalArgumentException(String.format("Primary key '%s' cannot be removed", id));
+			}
+			Map<String, Key> keys = new HashMap<String, Key>(s.keys);
+			keys.remove(id);
+			snapshot = new Snapshot(keys, s.primary, s.fallback);
+		}
+	}
+
+	/**
+	 * Set key used to create new tokens.
+	 *
+	 * @param id the key id
+	 * @throws IllegalArgumentException when there is no such key
+	 */
+	public void setPrimary(String id) {
+		synchronized (lock) {
+			Snapshot s = snapshot;
+			Key key = s.keys.get(id);
+			if (key == null) {
+				throw new IllegalArgumentException(String.format("Key '%s' is not in keyring", id));
+			}
+			snapshot = new Snapshot(s.keys, key, s.fallback);
+		}
+	}
+
+	/**
+	 * @return Id of the key used to create new tokens, null if keyring is
+	 *         empty
+	 */
+	public String getPrimary() {
+		Key primary = snapshot.primary;
+		return primary == null ? null : primary.id;
+	}
+
+	/**
+	 * Set secret used to objectify tokens without key header, created before
+	 * keyring was introduced. Tokens with key header are never decrypted with
+	 * it, also when their key is not in keyring.
+	 *
+	 * @param secret the secret, null to accept keyed tokens only (default)
+	 */
+	public void setFallback(SecretHandle secret) {
+		synchronized (lock) {
+			Snapshot s = snapshot;
+			snapshot = new Snapshot(s.keys, s.primary, secret == null ? null : new Key(null, secret, ""));
+		}
+	}
+
+	/**
+	 * @return Secret used to objectify tokens without key header, or null
+	 */
+	public SecretHandle getFallback() {
+		Key fallback = snapshot.fallback;
+		return fallback == null ? null : fallback.secret;
+	}
+
+	/**
+	 * @param id the key id
+	 * @return Secret with given id, or null if there is no such key
+	 */
+	public SecretHandle get(String id) {
+		Key key = snapshot.keys.get(id);
+		return key == null ? null : key.secret;
+	}
+
+	/**
+	 * @return Ids of all keys
+	 */
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(snapshot.keys.keySet());
+	}
+
+	/**
+	 * @throws IllegalStateException when keyring is empty
+	 */
+	Key primary() {
+		Key primary = snapshot.primary;
+		if (primary == null) {
+			throw new IllegalStateException("Keyring has no keys");
+		}
+		return primary;
+	}
+
+	/**
+	 * Return key given token has been created with. Token without key header
+	 * is assumed to be created before keyring and it gets fallback key, which
+	 * has empty header. Token with key header is never given fallback key.
+	 *
+	 * @param token the sequence with armored token
+	 * @param from the index of the first token character
+	 * @param to the index after the last token character
+	 * @throws IllegalArgumentException when token key is not in keyring or
+	 *             has different cipher, header is malformed, or token has no
+	 *             key header and there is no fallback key
+	 */
+	Key select(CharSequence token, int from, int to) {
+
+		Snapshot s = snapshot;
+
+		int end = from;
+		int separator = -1;
+		int limit = Math.min(to, from + MAX_HEADER_LENGTH);
+
+		for (; end < limit; end++) {
+			char c = token.charAt(end);
+			if (c == HEADER_END) {
+				break;
+			}
+			if (c == CIPHER_SEPARATOR) {
+				separator = end;
+			} else if (!isIdChar(c)) {
+				end = limit;
+			}
+		}
+
+		if (end >= limit) {
+			if (s.fallback == null) {
+				throw new IllegalArgumentException("Token has no key header");
+			}
+			return s.fallback;
+		}
+
+		if (separator <= from || end - separator < 2 || end - separator > 4) {
+			throw new IllegalArgumentException("Malformed token key header");
+		}
+
+		int cipher = 0;
+		for (int i = separator + 1; i < end; i++) {
+			char c = token.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("Malformed token key header");
+			}
+			cipher = cipher * 10 + c - '0';
+		}
+
+		String id = token.subSequence(from, separator).toString();
+		Key key = s.keys.get(id);
+
+		if (key == null) {
+			throw new IllegalArgumentException(String.format("Token key '%s' is not in keyring", id));
+		}
+		if (key.secret.getType().getId() != cipher) {
+			throw new IllegalArgumentException(String.format("Token cipher does not match cipher of key '%s'", id));
+		}
+
+		return key;
+	}
+
+	private static boolean isIdChar(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '_' || c == '-';
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.sarxos.securetoken;
+
+/**
+ * Listener notified about every token tokenized and objectified from string,
+ * e.g. to collect metrics. It is called synchronously on the thread doing the
+ * work, so it has to be thread-safe and fast. When no listener is set, token
+ * pipeline does not even read the clock.
+ * <p>
+ * Tokens read from and written to streams are reported only as completed or
+ * failed operations, because their stages are interleaved.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Tokenizer#setListener(TokenListener)
+ * @see TokenStatistics
+ */
+public interface TokenListener {
+
+	/**
+	 * Token operation.
+	 */
+	enum Operation {
+
+		TOKENIZE,
+
+		OBJECTIFY,
+	}
+
+	/**
+	 * Stage of token pipeline.
+	 */
+	enum Stage {
+
+		/**
+		 * Reading parts from object and converting them to token body.
+		 */
+		ENCODE,
+
+		/**
+		 * Compressing token body.
+		 */
+		COMPRESS,
+
+		/**
+		 * Encrypting token body.
+		 */
+		ENCRYPT,
+
+		/**
+		 * Encoding encrypted token into string.
+		 */
+		ARMOR,
+
+		/**
+		 * Decoding encrypted token from string.
+		 */
+		UNARMOR,
+
+		/**
+		 * Decrypting token body.
+		 */
+		DECRYPT,
+
+		/**
+		 * Uncompressing token body.
+		 */
+		UNCOMPRESS,
+
+		/**
+		 * Converting token body to parts and writing them to object.
+		 */
+		DECODE,
+	}
+
+	/**
+	 * Called when stage is done.
+	 *
+	 * @param stage the pipeline stage
+	 * @param type the cipher type
+	 * @param nanos the stage duration in nanoseconds
+	 */
+	void stage(Stage stage, CipherType type, long nanos);
+
+	/**
+	 * Called when token body has been checked for compression. Both sizes are
+	 * the same when body was too small or when it did not get shorter.
+	 *
+	 * @param type the cipher type
+	 * @param size the body size before compression
+	 * @param compressedSize the body size stored in token
+	 */
+	void compressed(CipherType type, int size, int compressedSize);
+
+	/**
+	 * Called when token has been looked up in token cache.
+	 *
+	 * @param type the cipher type
+	 * @param hit true if object has been found in cache
+	 * @see Tokenizer#setCache(TokenCache)
+	 */
+	void cache(CipherType type, boolean hit);
+
+	/**
+	 * Called when operation has completed successfully.
+	 *
+	 * @param operation the operation
+	 * @param type the cipher type
+	 * @param nanos the operation duration in nanoseconds
+	 */
+	void completed(Operation operation, CipherType type, long nanos);
+
+	/**
+	 * Called when operation has failed, before failure is thrown to caller.
+	 *
+	 * @param operation the operation
+	 * @param type the cipher type, null when token was objectified with
+	 *            keyring and failed before its key was found
+	 * @param cause the failure
+	 */
+	void failed(Operation operation, CipherType type, Throwable cause);
+}
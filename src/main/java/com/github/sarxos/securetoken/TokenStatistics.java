@@ -0,0 +1,374 @@
+package com.github.sarxos.securetoken;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Token listener which collects counters and timing histograms, and exposes
+ * them as MXBean. Counters are striped, so collecting does not make threads
+ * contend with each other. Histograms have power-of-two buckets, so
+ * percentiles are accurate to factor of 2.
+ *
+ * <pre>
+ * TokenStatistics statistics = new TokenStatistics();
+ * statistics.register();
+ * Tokenizer.setListener(statistics);
+ * </pre>
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class TokenStatistics implements TokenListener, TokenStatisticsMXBean {
+
+	/**
+	 * Default object name under which statistics are registered.
+	 */
+	public static final String OBJECT_NAME = "com.github.sarxos.securetoken:type=TokenStatistics";
+
+	/**
+	 * Duration histogram.
+	 */
+	private static final class Timer {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+		public void record(long nanos) {
+
+			if (nanos < 0) {
+				nanos = 0;
+			}
+
+			count.increment();
+			total.add(nanos);
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) & 63);
+
+			long m = max.get();
+			while (nanos > m && !max.compareAndSet(m, nanos)) {
+				m = max.get();
+			}
+		}
+
+		public double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : micros(total.sum()) / n;
+		}
+
+		public double max() {
+			return micros(max.get());
+		}
+
+		/**
+		 * Return upper bound of bucket in which given percentile is.
+		 */
+		public double percentile(double p) {
+
+			long n = 0;
+			for (int i = 0; i < 64; i++) {
+				n += buckets.get(i);
+			}
+
+			long rank = (long) Math.ceil(n * p);
+			if (rank == 0) {
+				return 0;
+			}
+
+			for (int i = 0; i < 64; i++) {
+				rank -= buckets.get(i);
+				if (rank <= 0) {
+					return Math.min(micros(i == 0 ? 0 : (1L << i) - 1), max());
+				}
+			}
+
+			return max();
+		}
+
+		public void reset() {
+			count.reset();
+			total.reset();
+			max.set(0);
+			for (int i = 0; i < 64; i++) {
+				buckets.set(i, 0);
+			}
+		}
+	}
+
+	private static final CipherType[] CIPHERS = CipherType.values();
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final Timer[] operations = new Timer[Operation.values().length];
+
+	private final Timer[] stages = new Timer[STAGES.length];
+
+	private final LongAdder[] tokenized = adders(CIPHERS.length);
+
+	private final LongAdder[] objectified = adders(CIPHERS.length);
+
+	private final LongAdder[] failures = adders(CIPHERS.length);
+
+	private final LongAdder[] operationFailures = adders(Operation.values().length);
+
+	private final LongAdder uncompressedBytes = new LongAdder();
+
+	private final LongAdder compressedBytes = new LongAdder();
+
+	private final LongAdder compressed = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private volatile ObjectName name = null;
+
+	public TokenStatistics() {
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = new Timer();
+		}
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new Timer();
+		}
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	/**
+	 * Register statistics in platform MBean server under default name.
+	 *
+	 * @return Object name statistics have been registered under
+	 * @see #OBJECT_NAME
+	 */
+	public ObjectName register() {
+		try {
+			return register(new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Register statistics in platform MBean server under given name.
+	 *
+	 * @param name the object name
+	 * @return Object name statistics have been registered under
+	 */
+	public ObjectName register(ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			this.name = server.registerMBean(this, name).getObjectName();
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+		return this.name;
+	}
+
+	/**
+	 * Unregister statistics from platform MBean server, if they have been
+	 * registered.
+	 */
+	public void unregister() {
+		ObjectName n = name;
+		if (n == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(n);
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		} finally {
+			name = null;
+		}
+	}
+
+	@Override
+	public void stage(Stage stage, CipherType type, long nanos) {
+		stages[stage.ordinal()].record(nanos);
+	}
+
+	@Override
+	public void compressed(CipherType type, int size, int compressedSize) {
+		uncompressedBytes.add(size);
+		compressedBytes.add(compressedSize);
+		if (compressedSize < size) {
+			compressed.increment();
+		}
+	}
+
+	@Override
+	public void cache(CipherType type, boolean hit) {
+		if (hit) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+	}
+
+	@Override
+	public void completed(Operation operation, CipherType type, long nanos) {
+		operations[operation.ordinal()].record(nanos);
+		if (operation == Operation.TOKENIZE) {
+			tokenized[type.ordinal()].increment();
+		} else {
+			objectified[type.ordinal()].increment();
+		}
+	}
+
+	@Override
+	public void failed(Operation operation, CipherType type, Throwable cause) {
+		operationFailures[operation.ordinal()].increment();
+		if (type != null) {
+			failures[type.ordinal()].increment();
+		}
+	}
+
+	private static Map<String, Long> counts(LongAdder[] adders) {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (CipherType type : CIPHERS) {
+			counts.put(type.name(), adders[type.ordinal()].sum());
+		}
+		return counts;
+	}
+
+	@Override
+	public long getTokenizeCount() {
+		return operations[Operation.TOKENIZE.ordinal()].count.sum();
+	}
+
+	@Override
+	public long getObjectifyCount() {
+		return operations[Operation.OBJECTIFY.ordinal()].count.sum();
+	}
+
+	@Override
+	public long getTokenizeFailureCount() {
+		return operationFailures[Operation.TOKENIZE.ordinal()].sum();
+	}
+
+	@Override
+	public long getObjectifyFailureCount() {
+		return operationFailures[Operation.OBJECTIFY.ordinal()].sum();
+	}
+
+	@Override
+	public Map<String, Long> getTokenizeCounts() {
+		return counts(tokenized);
+	}
+
+	@Override
+	public Map<String, Long> getObjectifyCounts() {
+		return counts(objectified);
+	}
+
+	@Override
+	public Map<String, Long> getFailureCounts() {
+		return counts(failures);
+	}
+
+	@Override
+	public double getTokenizeMeanTime() {
+		return operations[Operation.TOKENIZE.ordinal()].mean();
+	}
+
+	@Override
+	public double getObjectifyMeanTime() {
+		return operations[Operation.OBJECTIFY.ordinal()].mean();
+	}
+
+	@Override
+	public Map<String, Double> getStageMeanTimes() {
+		Map<String, Double> times = new LinkedHashMap<String, Double>();
+		for (Stage stage : STAGES) {
+			times.put(stage.name(), stages[stage.ordinal()].mean());
+		}
+		return times;
+	}
+
+	@Override
+	public Map<String, Double> getStageMaxTimes() {
+		Map<String, Double> times = new LinkedHashMap<String, Double>();
+		for (Stage stage : STAGES) {
+			times.put(stage.name(), stages[stage.ordinal()].max());
+		}
+		return times;
+	}
+
+	@Override
+	public Map<String, Double> getStage99thPercentileTimes() {
+		Map<String, Double> times = new LinkedHashMap<String, Double>();
+		for (Stage stage : STAGES) {
+			times.put(stage.name(), stages[stage.ordinal()].percentile(0.99));
+		}
+		return times;
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		long size = uncompressedBytes.sum();
+		return size == 0 ? 1 : (double) compressedBytes.sum() / size;
+	}
+
+	@Override
+	public long getCompressedCount() {
+		return compressed.sum();
+	}
+
+	@Override
+	public long getCacheHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getCacheMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 1 : (double) h / total;
+	}
+
+	@Override
+	public void reset() {
+		for (Timer timer : operations) {
+			timer.reset();
+		}
+		for (Timer timer : stages) {
+			timer.reset();
+		}
+		for (int i = 0; i < CIPHERS.length; i++) {
+			tokenized[i].reset();
+			objectified[i].reset();
+			failures[i].reset();
+		}
+		for (LongAdder adder : operationFailures) {
+			adder.reset();
+		}
+		uncompressedBytes.reset();
+		compressedBytes.reset();
+		compressed.reset();
+		hits.reset();
+		misses.reset();
+	}
+}
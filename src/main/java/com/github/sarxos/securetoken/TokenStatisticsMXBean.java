@@ -0,0 +1,105 @@
+package com.github.sarxos.securetoken;
+
+import java.util.Map;
+
+
+/**
+ * Management interface of {@link TokenStatistics}. Times are in microseconds,
+ * maps are keyed by cipher type or pipeline stage name.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public interface TokenStatisticsMXBean {
+
+	/**
+	 * @return Number of tokens created
+	 */
+	long getTokenizeCount();
+
+	/**
+	 * @return Number of objects restored from tokens
+	 */
+	long getObjectifyCount();
+
+	/**
+	 * @return Number of failed tokenize calls
+	 */
+	long getTokenizeFailureCount();
+
+	/**
+	 * @return Number of failed objectify calls
+	 */
+	long getObjectifyFailureCount();
+
+	/**
+	 * @return Number of tokens created per cipher type
+	 */
+	Map<String, Long> getTokenizeCounts();
+
+	/**
+	 * @return Number of objects restored from tokens per cipher type
+	 */
+	Map<String, Long> getObjectifyCounts();
+
+	/**
+	 * @return Number of failed operations per cipher type
+	 */
+	Map<String, Long> getFailureCounts();
+
+	/**
+	 * @return Mean tokenize time
+	 */
+	double getTokenizeMeanTime();
+
+	/**
+	 * @return Mean objectify time
+	 */
+	double getObjectifyMeanTime();
+
+	/**
+	 * @return Mean time per stage
+	 */
+	Map<String, Double> getStageMeanTimes();
+
+	/**
+	 * @return Maximum time per stage
+	 */
+	Map<String, Double> getStageMaxTimes();
+
+	/**
+	 * @return Approximate 99th percentile of time per stage
+	 */
+	Map<String, Double> getStage99thPercentileTimes();
+
+	/**
+	 * @return Ratio of compressed to uncompressed body size of all tokens, 1
+	 *         when there were no tokens
+	 */
+	double getCompressionRatio();
+
+	/**
+	 * @return Number of tokens which bodies have been compressed
+	 */
+	long getCompressedCount();
+
+	/**
+	 * @return Number of objectify calls served from token cache
+	 */
+	long getCacheHitCount();
+
+	/**
+	 * @return Number of objectify calls not found in token cache
+	 */
+	long getCacheMissCount();
+
+	/**
+	 * @return Ratio of cache hits to all cache lookups, 1 when there were no
+	 *         lookups
+	 */
+	double getCacheHitRate();
+
+	/**
+	 * Reset all statistics.
+	 */
+	void reset();
+}
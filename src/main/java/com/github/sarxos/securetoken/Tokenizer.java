@@ -1,119 +1,61 @@
 package com.github.sarxos.securetoken;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-import org.apache.commons.lang3.ArrayUtils;
-import org.bouncycastle.util.Strings;
-import org.bouncycastle.util.encoders.Base64;
-
-import com.github.sarxos.securetoken.annotation.TokenEntity;
-import com.github.sarxos.securetoken.annotation.TokenPart;
-import com.github.sarxos.securetoken.impl.CipherEngine;
 import com.github.sarxos.securetoken.impl.Converters;
-import com.github.sarxos.securetoken.impl.GZIP;
-import com.github.sarxos.securetoken.impl.Reflector;
 
 
+/**
+ * Static access to default tokenizer instance. Configuration set here
+ * applies to default instance only, tokenizers created with
+ * {@link #builder()} have configuration of their own.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see TokenEngine
+ */
 public class Tokenizer {
 
 	/**
-	 * Token part to field mapping.
-	 */
-	private static final Map<Class<?>, Field[]> MAPPING = new HashMap<Class<?>, Field[]>();
-
-	/**
-	 * Empty immutable String array.
-	 */
-	private static final String[] EMPTY_STRING_ARRAY = new String[0];
-
-	// /**
-	// * Token delimiter.
-	// */
-	// private static final String DEFAULT_DELIMITER = "#";
-
-	/**
-	 * Compression markers.
+	 * Default instance. It is immutable, so every change of configuration
+	 * replaces it.
 	 */
-	private static final byte[] CMP_MARKER = { 'c', 'm', 'p' };
+	private static volatile TokenEngine engine = new TokenEngine.Builder().build();
 
 	/**
-	 * Decompression markers.
+	 * Lock used to serialize changes of default instance.
 	 */
-	private static final byte[] DCP_MARKER = { 'd', 'c', 'p' };
+	private static final Object LOCK = new Object();
 
 	/**
-	 * Default cipher type.
-	 */
-	private static final CipherType DEFAULT_CIPHER = CipherType.AES;
-
-	/**
-	 * For given type returns only those fields which should become part of
-	 * token data.
+	 * Return builder of tokenizer instances, which have converters, codecs,
+	 * cache, armor, compression and cipher pool settings of their own, so
+	 * they can be tuned independently and do not affect each other or static
+	 * methods of this class.
 	 * 
-	 * @param clazz the type which should be searched against token parts
-	 * @return Array of fields which should be part of token
+	 * @return New builder with default configuration
 	 */
-	private static Field[] getParts(Class<?> clazz) {
-
-		Field[] parts = MAPPING.get(clazz);
-		if (parts != null) {
-			return parts;
-		}
-
-		Map<String, Field> convertable = new HashMap<String, Field>();
-		Class<?> c = clazz;
-
-		do {
-
-			Field[] fields = c.getDeclaredFields();
-			for (Field field : fields) {
-
-				Class<?> type = field.getType();
-				if (!Converters.canConvert(type)) {
-					throw new IllegalArgumentException(String.format("Only basic type can be a token part, %s detected", type));
-				}
-
-				TokenPart tp = field.getAnnotation(TokenPart.class);
-				if (tp != null) {
-
-					String name = tp.value();
-					if (convertable.get(name) != null) {
-						throw new RuntimeException("Two or more fields cannot be annotated with the same token part name");
-					}
-
-					field.setAccessible(true);
-
-					convertable.put(name, field);
-				}
-			}
-
-		} while ((c = c.getSuperclass()) != null);
-
-		parts = convertable.values().toArray(new Field[convertable.size()]);
-		MAPPING.put(clazz, parts);
-
-		return parts;
+	public static TokenEngine.Builder builder() {
+		return new TokenEngine.Builder();
 	}
 
-	private static boolean startsWith(byte[] source, byte[] match) {
-		if (match.length > source.length) {
-			return false;
-		}
-		for (int i = 0; i < match.length; i++) {
-			if (source[i] != match[i]) {
-				return false;
-			}
-		}
-		return true;
+	/**
+	 * @return Default instance used by static methods of this class
+	 */
+	public static TokenEngine getEngine() {
+		return engine;
 	}
 
 	public static String tokenize(Token tokenizable, String password) {
-		return tokenize(tokenizable, DEFAULT_CIPHER, password);
+		return engine.tokenize(tokenizable, password);
 	}
 
 	/**
@@ -125,100 +67,114 @@ public class Tokenizer {
 	 * @return Encrypted string representation of given tokenizable object
 	 */
 	public static String tokenize(Token tokenizable, CipherType type, String password) {
-
-		if (type == CipherType.NOOP) {
-			return tokenize0(tokenizable);
-		}
-
-		byte[] decrypted = Strings.toUTF8ByteArray(tokenize0(tokenizable));
-		byte[] compressed = GZIP.compress(decrypted);
-
-		byte[] mark = DCP_MARKER;
-
-		if (compressed.length < decrypted.length) {
-			mark = CMP_MARKER;
-			decrypted = compressed;
-		}
-
-		byte[] input = new byte[decrypted.length + mark.length];
-
-		System.arraycopy(mark, 0, input, 0, mark.length);
-		System.arraycopy(decrypted, 0, input, mark.length, decrypted.length);
-
-		byte[] encrypted = CipherEngine.encrypt(type, password, input);
-
-		return Strings.fromUTF8ByteArray(Base64.encode(encrypted));
+		return engine.tokenize(tokenizable, type, password);
 	}
 
-	private static TokenEntity getTokenEntity(Class<? extends Token> clazz) {
-		Class<?> c = clazz;
-		TokenEntity tf = null;
-		do {
-			tf = c.getAnnotation(TokenEntity.class);
-			if (tf == null) {
-				for (Class<?> i : c.getInterfaces()) {
-					tf = i.getAnnotation(TokenEntity.class);
-					if (tf != null) {
-						return tf;
-					}
-				}
-			} else {
-				return tf;
-			}
-		} while ((c = clazz.getSuperclass()) != null);
-		return null;
+	/**
+	 * Tokenize object and then encrypt it with previously derived secret.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Encrypted string representation of given tokenizable object
+	 * @see #secret(CipherType, String)
+	 */
+	public static String tokenize(Token tokenizable, SecretHandle secret) {
+		return engine.tokenize(tokenizable, secret);
 	}
 
 	/**
-	 * Tokenize object.
+	 * Tokenize object, encrypt it and return token as bytes. Text armors give
+	 * ASCII bytes of token string, {@link TokenArmor#RAW} gives encrypted
+	 * bytes themselves.
 	 * 
 	 * @param tokenizable the object to be tokenized
-	 * @return String representation of tokenized data
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Token bytes
+	 * @see #setArmor(TokenArmor)
 	 */
-	private static final String tokenize0(Token tokenizable) {
-
-		Class<? extends Token> clazz = tokenizable.getClass();
-		Constructor<? extends Token> ctor = Reflector.getConstructor(clazz);
-
-		if (ctor == null) {
-			throw new IllegalArgumentException(String.format("Default constructor missing in %s", clazz));
-		}
-
-		StringBuilder sb = new StringBuilder();
-
-		String delimiter = null;
-		String d = "";
-
-		TokenEntity tf = getTokenEntity(clazz);
-		delimiter = tf.delimiter();
-		if (delimiter.length() == 0) {
-			throw new IllegalArgumentException("Token delimiter cannot be empty");
-		}
-
-		Field[] parts = getParts(tokenizable.getClass());
-		for (Field part : parts) {
+	public static byte[] tokenizeToBytes(Token tokenizable, CipherType type, String password) {
+		return engine.tokenizeToBytes(tokenizable, type, password);
+	}
 
-			Object value = Reflector.getValue(part, tokenizable);
-			TokenPart tp = part.getAnnotation(TokenPart.class);
-			String string = Converters.toString(value);
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and return
+	 * token as bytes.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Token bytes
+	 * @see #tokenizeToBytes(Token, CipherType, String)
+	 */
+	public static byte[] tokenizeToBytes(Token tokenizable, SecretHandle secret) {
+		return engine.tokenizeToBytes(tokenizable, secret);
+	}
 
-			if (string.indexOf(delimiter) != -1) {
-				throw new IllegalArgumentException(String.format("Cannot build token because part '%s' contains delimiter string '%s'", string, delimiter));
-			}
+	/**
+	 * Tokenize object, encrypt it and put token bytes into buffer, which can be
+	 * direct one. Token is encrypted into pooled scratch array and armored
+	 * straight into buffer, no token array is created.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param out the buffer to put token bytes into
+	 * @return Number of bytes put into buffer
+	 * @throws BufferOverflowException when there is not enough space left in
+	 *             buffer, its position is not changed then
+	 * @see #tokenizeToBytes(Token, CipherType, String)
+	 */
+	public static int tokenize(Token tokenizable, CipherType type, String password, ByteBuffer out) {
+		return engine.tokenize(tokenizable, type, password, out);
+	}
 
-			sb.append(d);
-			sb.append(tp.value());
-			sb.append('=');
-			sb.append(string);
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and put token
+	 * bytes into buffer.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param out the buffer to put token bytes into
+	 * @return Number of bytes put into buffer
+	 * @throws BufferOverflowException when there is not enough space left in
+	 *             buffer, its position is not changed then
+	 * @see #tokenize(Token, CipherType, String, ByteBuffer)
+	 */
+	public static int tokenize(Token tokenizable, SecretHandle secret, ByteBuffer out) {
+		return engine.tokenize(tokenizable, secret, out);
+	}
 
-			d = delimiter;
-		}
+	/**
+	 * Tokenize object and encrypt it with primary key of given keyring. Token
+	 * carries id of the key, so it can be objectified after primary key has
+	 * been changed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param keyring the keyring
+	 * @return Encrypted string representation of given tokenizable object
+	 * @throws IllegalStateException when keyring is empty
+	 * @see #objectify(Class, String, TokenKeyring)
+	 */
+	public static String tokenize(Token tokenizable, TokenKeyring keyring) {
+		return engine.tokenize(tokenizable, keyring);
+	}
 
-		return sb.toString();
+	/**
+	 * Tokenize object, encrypt it with primary key of given keyring and return
+	 * token as bytes.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param keyring the keyring
+	 * @return Token bytes
+	 * @throws IllegalStateException when keyring is empty
+	 * @see #tokenize(Token, TokenKeyring)
+	 */
+	public static byte[] tokenizeToBytes(Token tokenizable, TokenKeyring keyring) {
+		return engine.tokenizeToBytes(tokenizable, keyring);
 	}
 
 	public static <T extends Token> T objectify(Class<T> clazz, String token, String password) {
-		return objectify(clazz, token, DEFAULT_CIPHER, password);
+		return engine.objectify(clazz, token, password);
 	}
 
 	/**
@@ -232,170 +188,503 @@ public class Tokenizer {
 	 * @return Object of given type
 	 */
 	public static <T extends Token> T objectify(Class<T> clazz, String token, CipherType type, String password) {
+		return engine.objectify(clazz, token, type, password);
+	}
 
-		if (type == CipherType.NOOP) {
-			return objectify0(clazz, token);
-		}
-
-		byte[] encrypted = Base64.decode(Strings.toUTF8ByteArray(token));
-		byte[] decrypted = CipherEngine.decrypt(type, password, encrypted);
-
-		byte[] output = null;
-
-		if (startsWith(decrypted, CMP_MARKER)) {
-			output = ArrayUtils.subarray(decrypted, CMP_MARKER.length, decrypted.length);
-			output = GZIP.uncompress(output);
-		} else {
-			output = ArrayUtils.subarray(decrypted, DCP_MARKER.length, decrypted.length);
-		}
+	/**
+	 * Objectify String first decrypting it with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #secret(CipherType, String)
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, String token, SecretHandle secret) {
+		return engine.objectify(clazz, token, secret);
+	}
 
-		return objectify0(clazz, Strings.fromUTF8ByteArray(output));
+	/**
+	 * Objectify token which is part of longer character sequence, e.g. header
+	 * value, with previously derived secret. Encrypted token is decoded
+	 * directly from given sequence, without copying it to string first.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the sequence containing token
+	 * @param from the index of the first token character
+	 * @param to the index after the last token character
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #secret(CipherType, String)
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, CharSequence token, int from, int to, SecretHandle secret) {
+		return engine.objectify(clazz, token, from, to, secret);
 	}
 
 	/**
-	 * Objectify string.
+	 * Objectify token bytes created with
+	 * {@link #tokenizeToBytes(Token, CipherType, String)}, in any armor.
+	 * Objects restored from bytes are not cached.
 	 * 
-	 * @param <T> the type to be created
-	 * @param clazz the class representing type to be created
-	 * @param token the token to be objectified
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
 	 * @return Object of given type
 	 */
-	private static final <T extends Token> T objectify0(Class<T> clazz, String token) {
+	public static <T extends Token> T objectify(Class<T> clazz, byte[] token, CipherType type, String password) {
+		return engine.objectify(clazz, token, type, password);
+	}
 
-		T object = Reflector.newInstance(clazz);
+	/**
+	 * Objectify token bytes with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #objectify(Class, byte[], CipherType, String)
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, byte[] token, SecretHandle secret) {
+		return engine.objectify(clazz, token, secret);
+	}
 
-		String delimiter = null;
+	/**
+	 * Objectify token created with {@link #tokenize(Token, TokenKeyring)}. Key
+	 * and cipher are taken from token header, so token is decrypted once, with
+	 * the key it has been created with.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param keyring the keyring
+	 * @return Object of given type
+	 * @throws IllegalArgumentException when token key is not in keyring
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, String token, TokenKeyring keyring) {
+		return engine.objectify(clazz, token, keyring);
+	}
 
-		TokenEntity tf = getTokenEntity(clazz);
-		delimiter = tf.delimiter();
-		if (delimiter.length() == 0) {
-			throw new IllegalArgumentException("Token delimiter cannot be empty");
-		}
+	/**
+	 * Objectify token bytes created with
+	 * {@link #tokenizeToBytes(Token, TokenKeyring)}, in any armor. Objects
+	 * restored from bytes are not cached.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token bytes
+	 * @param keyring the keyring
+	 * @return Object of given type
+	 * @throws IllegalArgumentException when token key is not in keyring
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, byte[] token, TokenKeyring keyring) {
+		return engine.objectify(clazz, token, keyring);
+	}
 
-		int i = 0;
+	/**
+	 * Objectify token bytes from buffer, which can be direct one, in any armor.
+	 * Token is read from buffer position to its limit and buffer is left at
+	 * its limit. Intermediate data is kept in pooled scratch arrays, and
+	 * {@link TokenArmor#RAW} tokens are decrypted straight from buffer, so
+	 * verifying token does not create heap copies of it. Objects restored from
+	 * buffers are not cached.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the buffer with token bytes
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, ByteBuffer token, CipherType type, String password) {
+		return engine.objectify(clazz, token, type, password);
+	}
 
-		Map<String, String> elements = new HashMap<String, String>();
-		for (String string : split(token, delimiter)) {
-			i = string.indexOf('=');
-			elements.put(string.substring(0, i), string.substring(i + 1));
-		}
+	/**
+	 * Objectify token bytes from buffer with previously derived secret.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the buffer with token bytes
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @see #objectify(Class, ByteBuffer, CipherType, String)
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, ByteBuffer token, SecretHandle secret) {
+		return engine.objectify(clazz, token, secret);
+	}
 
-		Field[] parts = getParts(clazz);
-		for (Field part : parts) {
+	/**
+	 * Tokenize object, encrypt it and write resulting token to given stream.
+	 * Token is compressed, encrypted and encoded while it is written, using
+	 * fixed size buffers, so memory use does not depend on token size. Stream
+	 * is not closed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param out the stream to write token to
+	 * @throws IOException when stream fails
+	 */
+	public static void tokenize(Token tokenizable, CipherType type, String password, OutputStream out) throws IOException {
+		engine.tokenize(tokenizable, type, password, out);
+	}
 
-			TokenPart tp = part.getAnnotation(TokenPart.class);
-			String key = tp.value();
-			String string = elements.get(key);
-			Object value = Converters.toObject(part.getType(), string);
+	/**
+	 * Tokenize object, encrypt it with previously derived secret and write
+	 * resulting token to given stream. Stream is not closed.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param out the stream to write token to
+	 * @throws IOException when stream fails
+	 * @see #tokenize(Token, CipherType, String, OutputStream)
+	 */
+	public static void tokenize(Token tokenizable, SecretHandle secret, OutputStream out) throws IOException {
+		engine.tokenize(tokenizable, secret, out);
+	}
 
-			Reflector.setValue(part, object, value);
-		}
+	/**
+	 * Read token from given stream, decrypt it and objectify. Token is
+	 * decoded, decrypted and uncompressed while it is read, using fixed size
+	 * buffers. Stream is read to its end, but it is not closed.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param in the stream to read token from
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Object of given type
+	 * @throws IOException when stream fails
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, InputStream in, CipherType type, String password) throws IOException {
+		return engine.objectify(clazz, in, type, password);
+	}
 
-		return object;
+	/**
+	 * Read token from given stream, decrypt it with previously derived secret
+	 * and objectify. Stream is not closed.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param in the stream to read token from
+	 * @param secret the secret to be used to decrypt
+	 * @return Object of given type
+	 * @throws IOException when stream fails
+	 * @see #objectify(Class, InputStream, CipherType, String)
+	 */
+	public static <T extends Token> T objectify(Class<T> clazz, InputStream in, SecretHandle secret) throws IOException {
+		return engine.objectify(clazz, in, secret);
 	}
 
 	/**
-	 * Performs the logic for the String split.
+	 * Tokenize and encrypt all objects in parallel, in common fork-join pool.
 	 * 
-	 * @param string the String to parse, may be null
-	 * @param separator the separate character
-	 * @return Array of Strings or null if null String input
+	 * @param tokenizables the objects to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Tokens in the order of objects, with failures of single objects
 	 */
-	private static String[] split(String string, String separator) {
+	public static BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, CipherType type, String password) {
+		return engine.tokenizeAll(tokenizables, type, password);
+	}
 
-		if (string == null) {
-			return null;
-		}
+	/**
+	 * Tokenize and encrypt all objects in parallel, in given fork-join pool.
+	 * 
+	 * @param tokenizables the objects to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @param pool the pool to run in
+	 * @return Tokens in the order of objects, with failures of single objects
+	 */
+	public static BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, CipherType type, String password, ForkJoinPool pool) {
+		return engine.tokenizeAll(tokenizables, type, password, pool);
+	}
 
-		int len = string.length();
-		if (len == 0) {
-			return EMPTY_STRING_ARRAY;
-		}
+	/**
+	 * Tokenize and encrypt all objects in parallel with previously derived
+	 * secret, in given fork-join pool.
+	 * 
+	 * @param tokenizables the objects to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param pool the pool to run in
+	 * @return Tokens in the order of objects, with failures of single objects
+	 */
+	public static BatchResult<String> tokenizeAll(Collection<? extends Token> tokenizables, SecretHandle secret, ForkJoinPool pool) {
+		return engine.tokenizeAll(tokenizables, secret, pool);
+	}
 
-		List<String> list = new ArrayList<String>();
+	/**
+	 * Decrypt and objectify all tokens in parallel, in common fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public static <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, CipherType type, String password) {
+		return engine.objectifyAll(clazz, tokens, type, password);
+	}
 
-		int i = 0;
-		int start = 0;
+	/**
+	 * Decrypt and objectify all tokens in parallel, in given fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @param pool the pool to run in
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public static <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, CipherType type, String password, ForkJoinPool pool) {
+		return engine.objectifyAll(clazz, tokens, type, password, pool);
+	}
 
-		boolean match = false;
-		boolean last = false;
+	/**
+	 * Decrypt and objectify all tokens in parallel with previously derived
+	 * secret, in given fork-join pool.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param tokens the tokens to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @param pool the pool to run in
+	 * @return Objects in the order of tokens, with failures of single tokens
+	 */
+	public static <T extends Token> BatchResult<T> objectifyAll(Class<T> clazz, List<String> tokens, SecretHandle secret, ForkJoinPool pool) {
+		return engine.objectifyAll(clazz, tokens, secret, pool);
+	}
 
-		if (separator == null) {
+	/**
+	 * Tokenize and encrypt object asynchronously, in default executor. Secret
+	 * is derived from password in the same task.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param type the cipher type
+	 * @param password the password to be used in encryption
+	 * @return Future completed with token or with failure
+	 * @see #setExecutor(Executor)
+	 */
+	public static CompletableFuture<String> tokenizeAsync(Token tokenizable, CipherType type, String password) {
+		return engine.tokenizeAsync(tokenizable, type, password);
+	}
 
-			// null separator means use whitespace
+	/**
+	 * Tokenize and encrypt object asynchronously with previously derived
+	 * secret, in default executor.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @return Future completed with token or with failure
+	 * @see #setExecutor(Executor)
+	 */
+	public static CompletableFuture<String> tokenizeAsync(Token tokenizable, SecretHandle secret) {
+		return engine.tokenizeAsync(tokenizable, secret);
+	}
 
-			while (i < len) {
+	/**
+	 * Tokenize and encrypt object asynchronously with previously derived
+	 * secret, in given executor.
+	 * 
+	 * @param tokenizable the object to be tokenized
+	 * @param secret the secret to be used in encryption
+	 * @param executor the executor to run in
+	 * @return Future completed with token or with failure
+	 */
+	public static CompletableFuture<String> tokenizeAsync(Token tokenizable, SecretHandle secret, Executor executor) {
+		return engine.tokenizeAsync(tokenizable, secret, executor);
+	}
 
-				if (Character.isWhitespace(string.charAt(i))) {
-					last = true;
-					list.add(string.substring(start, i));
-					match = false;
-					start = ++i;
-					continue;
-				}
+	/**
+	 * Decrypt and objectify token asynchronously, in default executor. Secret
+	 * is derived from password in the same task.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param type the cipher type to be used to decrypt
+	 * @param password the password to be used as cipher secret
+	 * @return Future completed with object or with failure
+	 * @see #setExecutor(Executor)
+	 */
+	public static <T extends Token> CompletableFuture<T> objectifyAsync(Class<T> clazz, String token, CipherType type, String password) {
+		return engine.objectifyAsync(clazz, token, type, password);
+	}
 
-				last = false;
-				match = true;
-				i++;
-			}
-		} else if (separator.length() == 1) {
+	/**
+	 * Decrypt and objectify token asynchronously with previously derived
+	 * secret, in default executor.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @return Future completed with object or with failure
+	 * @see #setExecutor(Executor)
+	 */
+	public static <T extends Token> CompletableFuture<T> objectifyAsync(Class<T> clazz, String token, SecretHandle secret) {
+		return engine.objectifyAsync(clazz, token, secret);
+	}
 
-			// optimise 1 character case
+	/**
+	 * Decrypt and objectify token asynchronously with previously derived
+	 * secret, in given executor.
+	 * 
+	 * @param <T> the type of class to be constructed
+	 * @param clazz the class representing type to be constructed
+	 * @param token the token to be decrypted and objectified
+	 * @param secret the secret to be used to decrypt
+	 * @param executor the executor to run in
+	 * @return Future completed with object or with failure
+	 */
+	public static <T extends Token> CompletableFuture<T> objectifyAsync(Class<T> clazz, String token, SecretHandle secret, Executor executor) {
+		return engine.objectifyAsync(clazz, token, secret, executor);
+	}
 
-			char sep = separator.charAt(0);
+	/**
+	 * Set default executor of asynchronous operations. Tokenization does not
+	 * hold any monitor while encrypting or decrypting, so it does not pin
+	 * virtual threads to their carriers.
+	 * 
+	 * @param executor the executor to be used, null to restore default one
+	 */
+	public static void setExecutor(Executor executor) {
+		synchronized (LOCK) {
+			engine = engine.toBuilder().executor(executor).build();
+		}
+	}
 
-			while (i < len) {
+	/**
+	 * @return Default executor of asynchronous operations
+	 */
+	public static Executor getExecutor() {
+		return engine.getExecutor();
+	}
 
-				if (string.charAt(i) == sep) {
-					last = true;
-					list.add(string.substring(start, i));
-					match = false;
-					start = ++i;
-					continue;
-				}
+	/**
+	 * Set minimum size of token body to be compressed. Compression of smaller
+	 * bodies rarely makes them shorter, so it is not attempted. Tokens which
+	 * are streamed are always compressed.
+	 * 
+	 * @param bytes the minimum body size in bytes, 0 to try compressing every
+	 *            token
+	 */
+	public static void setCompressionThreshold(int bytes) {
+		synchronized (LOCK) {
+			engine = engine.toBuilder().compressionThreshold(bytes).build();
+		}
+	}
 
-				last = false;
-				match = true;
-				i++;
-			}
+	/**
+	 * @return Minimum size of token body to be compressed, in bytes
+	 */
+	public static int getCompressionThreshold() {
+		return engine.getCompressionThreshold();
+	}
 
-		} else {
+	/**
+	 * Set cache of objects restored from token strings. Cache is disabled by
+	 * default. Tokens read from streams are never cached.
+	 * 
+	 * @param cache the cache to be used, null to disable caching
+	 */
+	public static void setCache(TokenCache cache) {
+		synchronized (LOCK) {
+			engine = engine.toBuilder().cache(cache).build();
+		}
+	}
 
-			// standard case
+	/**
+	 * @return Cache of objects restored from token strings, null if disabled
+	 */
+	public static TokenCache getCache() {
+		return engine.getCache();
+	}
 
-			while (i < len) {
+	/**
+	 * Set encoding of encrypted tokens. Tokens are objectified in the same
+	 * way whichever armor was used to create them. Streamed tokens are always
+	 * Base64 and {@link TokenArmor#RAW} tokens can be created only as bytes.
+	 * 
+	 * @param armor the armor to be used
+	 */
+	public static void setArmor(TokenArmor armor) {
+		synchronized (LOCK) {
+			engine = engine.toBuilder().armor(armor).build();
+		}
+	}
 
-				if (separator.indexOf(string.charAt(i)) >= 0) {
-					last = true;
-					list.add(string.substring(start, i));
-					match = false;
-					start = ++i;
-					continue;
-				}
+	/**
+	 * @return Encoding of encrypted tokens
+	 */
+	public static TokenArmor getArmor() {
+		return engine.getArmor();
+	}
 
-				last = false;
-				match = true;
-				i++;
-			}
+	/**
+	 * Set listener notified about every token operation, e.g.
+	 * {@link TokenStatistics}. There is no listener by default.
+	 * 
+	 * @param listener the listener to be used, null to remove it
+	 */
+	public static void setListener(TokenListener listener) {
+		synchronized (LOCK) {
+			engine = engine.toBuilder().listener(listener).build();
 		}
+	}
+
+	/**
+	 * @return Listener notified about token operations, null if there is none
+	 */
+	public static TokenListener getListener() {
+		return engine.getListener();
+	}
 
-		if (match || last) {
-			list.add(string.substring(start, i));
+	private static void clearCache() {
+		TokenCache c = engine.getCache();
+		if (c != null) {
+			c.clear();
 		}
+	}
 
-		return list.toArray(new String[list.size()]);
+	/**
+	 * Derive secret from password. Returned handle holds cipher key, IV and
+	 * cipher state, so it should be kept and passed to
+	 * {@link #tokenize(Token, SecretHandle)} and
+	 * {@link #objectify(Class, String, SecretHandle)} instead of password.
+	 * 
+	 * @param type the cipher type
+	 * @param password the password
+	 * @return Secret handle
+	 */
+	public static SecretHandle secret(CipherType type, String password) {
+		return engine.secret(type, password);
 	}
 
 	/**
 	 * Register converter to be used to translate strings to instances of
-	 * specific class.
+	 * specific class. Converters of other types are kept, but token codecs
+	 * are compiled again and token cache is cleared, so converters should be
+	 * registered at startup, before tokens are processed.
 	 * 
 	 * @param <C> the type of objects to be translated by given converter
 	 * @param clazz the class representing type which will be converted
 	 * @param converter the converter itself
 	 */
 	public static <C> void register(Class<C> clazz, Converter<C> converter) {
-		Converters.register(clazz, converter);
+		synchronized (LOCK) {
+			Converters.register(clazz, converter);
+			engine = engine.toBuilder().converters(Converters.getRegistry()).build();
+		}
+		clearCache();
 	}
 
 	/**
@@ -405,7 +694,11 @@ public class Tokenizer {
 	 * @param clazz the class representing type being converted
 	 */
 	public static <C> void unregister(Class<C> clazz) {
-		Converters.unregister(clazz);
+		synchronized (LOCK) {
+			Converters.unregister(clazz);
+			engine = engine.toBuilder().converters(Converters.getRegistry()).build();
+		}
+		clearCache();
 	}
 
 }
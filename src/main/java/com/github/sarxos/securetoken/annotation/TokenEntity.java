@@ -8,6 +8,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.TokenFormat;
 
 
 @Inherited
@@ -31,4 +32,11 @@ public @interface TokenEntity {
 	 * @return Cipher to be used
 	 */
 	CipherType cipher() default CipherType.NOOP;
+
+	/**
+	 * Format in which token parts are serialized, text by default.
+	 * 
+	 * @return Token format
+	 */
+	TokenFormat format() default TokenFormat.TEXT;
 }
@@ -12,5 +12,20 @@ import java.lang.annotation.Target;
 @Target({ ElementType.FIELD })
 public @interface TokenPart {
 
+	/**
+	 * Return part name used in text tokens.
+	 * 
+	 * @return Part name
+	 */
 	String value();
+
+	/**
+	 * Return positive number identifying this part in binary tokens. Tags
+	 * have to be unique within token class and should never be reused for
+	 * different part. Required when token is in binary format.
+	 * 
+	 * @return Part tag, 0 if not set
+	 * @see com.github.sarxos.securetoken.TokenFormat#BINARY
+	 */
+	int tag() default 0;
 }
@@ -0,0 +1,42 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Characters of ASCII bytes, so that they can be parsed in place. Indexes are
+ * the same as byte array indexes. Bytes over 127 are seen as characters over
+ * 127 too, so they never match any ASCII character.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public final class AsciiSequence implements CharSequence {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] bytes;
+
+	public AsciiSequence(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	@Override
+	public int length() {
+		return bytes.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) bytes[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(bytes, start, end - start, UTF8);
+	}
+
+	@Override
+	public String toString() {
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,513 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Base64 encoder writing directly to pre-sized arrays. Output length is
+ * computed up front, so encoding allocates nothing but its result, and there
+ * is no byte/char conversion on the way to string.
+ * <p>
+ * Decoder is shared by both alphabets: it accepts standard and URL-safe
+ * characters, with or without padding, skips whitespace and reads any
+ * {@link CharSequence} slice without copying it.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public final class Base64Codec {
+
+	/**
+	 * Standard alphabet with padding (RFC 4648 section 4).
+	 */
+	public static final Base64Codec STANDARD = new Base64Codec("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/", true, java.util.Base64.getEncoder());
+
+	/**
+	 * URL and filename safe alphabet without padding (RFC 4648 section 5).
+	 */
+	public static final Base64Codec URL = new Base64Codec("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", false, java.util.Base64.getUrlEncoder().withoutPadding());
+
+	private static final byte INVALID = -1;
+
+	private static final byte WHITESPACE = -2;
+
+	private static final byte PADDING = -3;
+
+	/**
+	 * Values of ASCII characters in both alphabets.
+	 */
+	private static final byte[] DECODE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE, INVALID);
+		for (Base64Codec codec : new Base64Codec[] { STANDARD, URL }) {
+			for (int i = 0; i < 64; i++) {
+				DECODE[codec.alphabet[i]] = (byte) i;
+			}
+		}
+		DECODE[' '] = WHITESPACE;
+		DECODE['\t'] = WHITESPACE;
+		DECODE['\r'] = WHITESPACE;
+		DECODE['\n'] = WHITESPACE;
+		DECODE['='] = PADDING;
+	}
+
+	private final byte[] alphabet;
+
+	private final boolean padding;
+
+	/**
+	 * JDK encoder with the same alphabet and padding, used for streams.
+	 */
+	private final java.util.Base64.Encoder encoder;
+
+	private Base64Codec(String alphabet, boolean padding, java.util.Base64.Encoder encoder) {
+		this.alphabet = alphabet.getBytes(StandardCharsets.US_ASCII);
+		this.padding = padding;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * @return True if encoded data is padded to multiple of 4 characters
+	 */
+	public boolean isPadding() {
+		return padding;
+	}
+
+	/**
+	 * Return exact number of characters given number of bytes is encoded to.
+	 *
+	 * @param length the number of bytes
+	 * @return Number of characters
+	 */
+	public int encodedLength(int length) {
+		if (padding) {
+			return (length + 2) / 3 * 4;
+		}
+		return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+	}
+
+	/**
+	 * Encode bytes into ASCII bytes.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @param dst the array to write to, it must have
+	 *            {@link #encodedLength(int)} bytes left
+	 * @param pos the position to start writing at
+	 * @return Number of bytes written
+	 */
+	public int encode(byte[] src, int off, int len, byte[] dst, int pos) {
+
+		byte[] a = alphabet;
+		int p = pos;
+		int end = off + len - len % 3;
+
+		for (int i = off; i < end; i += 3) {
+			int b = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | src[i + 2] & 0xFF;
+			dst[p++] = a[b >>> 18];
+			dst[p++] = a[b >>> 12 & 0x3F];
+			dst[p++] = a[b >>> 6 & 0x3F];
+			dst[p++] = a[b & 0x3F];
+		}
+
+		switch (len % 3) {
+			case 1: {
+				int b = src[end] & 0xFF;
+				dst[p++] = a[b >>> 2];
+				dst[p++] = a[b << 4 & 0x3F];
+				if (padding) {
+					dst[p++] = '=';
+					dst[p++] = '=';
+				}
+				break;
+			}
+			case 2: {
+				int b = (src[end] & 0xFF) << 8 | src[end + 1] & 0xFF;
+				dst[p++] = a[b >>> 10];
+				dst[p++] = a[b >>> 4 & 0x3F];
+				dst[p++] = a[b << 2 & 0x3F];
+				if (padding) {
+					dst[p++] = '=';
+				}
+				break;
+			}
+		}
+
+		return p - pos;
+	}
+
+	/**
+	 * Encode bytes into characters.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @param dst the array to write to, it must have
+	 *            {@link #encodedLength(int)} characters left
+	 * @param pos the position to start writing at
+	 * @return Number of characters written
+	 */
+	public int encode(byte[] src, int off, int len, char[] dst, int pos) {
+
+		byte[] a = alphabet;
+		int p = pos;
+		int end = off + len - len % 3;
+
+		for (int i = off; i < end; i += 3) {
+			int b = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | src[i + 2] & 0xFF;
+			dst[p++] = (char) a[b >>> 18];
+			dst[p++] = (char) a[b >>> 12 & 0x3F];
+			dst[p++] = (char) a[b >>> 6 & 0x3F];
+			dst[p++] = (char) a[b & 0x3F];
+		}
+
+		switch (len % 3) {
+			case 1: {
+				int b = src[end] & 0xFF;
+				dst[p++] = (char) a[b >>> 2];
+				dst[p++] = (char) a[b << 4 & 0x3F];
+				if (padding) {
+					dst[p++] = '=';
+					dst[p++] = '=';
+				}
+				break;
+			}
+			case 2: {
+				int b = (src[end] & 0xFF) << 8 | src[end + 1] & 0xFF;
+				dst[p++] = (char) a[b >>> 10];
+				dst[p++] = (char) a[b >>> 4 & 0x3F];
+				dst[p++] = (char) a[b << 2 & 0x3F];
+				if (padding) {
+					dst[p++] = '=';
+				}
+				break;
+			}
+		}
+
+		return p - pos;
+	}
+
+	/**
+	 * Encode bytes into buffer, which can be direct one, starting at its
+	 * position.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @param dst the buffer to write to, it must have
+	 *            {@link #encodedLength(int)} bytes remaining
+	 * @return Number of bytes written
+	 */
+	public int encode(byte[] src, int off, int len, ByteBuffer dst) {
+
+		byte[] a = alphabet;
+		int pos = dst.position();
+		int end = off + len - len % 3;
+
+		for (int i = off; i < end; i += 3) {
+			int b = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | src[i + 2] & 0xFF;
+			dst.put(a[b >>> 18]);
+			dst.put(a[b >>> 12 & 0x3F]);
+			dst.put(a[b >>> 6 & 0x3F]);
+			dst.put(a[b & 0x3F]);
+		}
+
+		switch (len % 3) {
+			case 1: {
+				int b = src[end] & 0xFF;
+				dst.put(a[b >>> 2]);
+				dst.put(a[b << 4 & 0x3F]);
+				if (padding) {
+					dst.put((byte) '=');
+					dst.put((byte) '=');
+				}
+				break;
+			}
+			case 2: {
+				int b = (src[end] & 0xFF) << 8 | src[end + 1] & 0xFF;
+				dst.put(a[b >>> 10]);
+				dst.put(a[b >>> 4 & 0x3F]);
+				dst.put(a[b << 2 & 0x3F]);
+				if (padding) {
+					dst.put((byte) '=');
+				}
+				break;
+			}
+		}
+
+		return dst.position() - pos;
+	}
+
+	/**
+	 * Encode bytes into string. ASCII bytes are written to array of exact
+	 * length and turned into string without charset decoding.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @return Encoded string
+	 */
+	public String encodeToString(byte[] src, int off, int len) {
+		byte[] dst = new byte[encodedLength(len)];
+		encode(src, off, len, dst, 0);
+		return new String(dst, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Skip trailing padding and whitespace.
+	 */
+	private static int trim(CharSequence src, int from, int to) {
+		while (to > from) {
+			char c = src.charAt(to - 1);
+			if (c >= 128 || DECODE[c] != PADDING && DECODE[c] != WHITESPACE) {
+				break;
+			}
+			to--;
+		}
+		return to;
+	}
+
+	/**
+	 * Return number of bytes given characters are decoded to. It is exact
+	 * unless they contain whitespace, in which case it is upper bound.
+	 *
+	 * @param src the encoded characters
+	 * @param from the first character
+	 * @param to the character after the last one
+	 * @return Number of bytes
+	 */
+	public static int decodedLength(CharSequence src, int from, int to) {
+		int n = trim(src, from, to) - from;
+		return n / 4 * 3 + (n % 4 == 0 ? 0 : n % 4 - 1);
+	}
+
+	/**
+	 * Decode characters in any of both alphabets.
+	 *
+	 * @param src the encoded characters
+	 * @param from the first character
+	 * @param to the character after the last one
+	 * @param dst the array to write to, it must have
+	 *            {@link #decodedLength(CharSequence, int, int)} bytes left
+	 * @param pos the position to start writing at
+	 * @return Number of bytes written
+	 * @throws IllegalArgumentException when characters are not valid Base64
+	 */
+	public static int decode(CharSequence src, int from, int to, byte[] dst, int pos) {
+
+		int end = trim(src, from, to);
+		int p = pos;
+		int bits = 0;
+		int n = 0;
+
+		for (int i = from; i < end; i++) {
+
+			char c = src.charAt(i);
+			int v = c < 128 ? DECODE[c] : INVALID;
+
+			if (v < 0) {
+				if (v == WHITESPACE) {
+					continue;
+				}
+				throw new IllegalArgumentException(String.format("Invalid Base64 character 0x%02x at %d", (int) c, i - from));
+			}
+
+			bits = bits << 6 | v;
+
+			if (++n == 4) {
+				dst[p++] = (byte) (bits >> 16);
+				dst[p++] = (byte) (bits >> 8);
+				dst[p++] = (byte) bits;
+				bits = 0;
+				n = 0;
+			}
+		}
+
+		switch (n) {
+			case 1:
+				throw new IllegalArgumentException("Truncated Base64 data");
+			case 2:
+				dst[p++] = (byte) (bits >> 4);
+				break;
+			case 3:
+				dst[p++] = (byte) (bits >> 10);
+				dst[p++] = (byte) (bits >> 2);
+				break;
+		}
+
+		return p - pos;
+	}
+
+	/**
+	 * Decode characters in any of both alphabets.
+	 *
+	 * @param src the encoded characters
+	 * @param from the first character
+	 * @param to the character after the last one
+	 * @return Decoded bytes
+	 * @throws IllegalArgumentException when characters are not valid Base64
+	 */
+	public static byte[] decode(CharSequence src, int from, int to) {
+		byte[] dst = new byte[decodedLength(src, from, to)];
+		int n = decode(src, from, to, dst, 0);
+		return n == dst.length ? dst : Arrays.copyOf(dst, n);
+	}
+
+	/**
+	 * Return stream encoding data written to it. Closing returned stream
+	 * writes the last characters and closes given one.
+	 *
+	 * @param out the stream to write encoded data to
+	 * @return Encoding stream
+	 */
+	public OutputStream encode(OutputStream out) {
+		return encoder.wrap(out);
+	}
+
+	/**
+	 * Return stream decoding Base64 read from given one, in any of both
+	 * alphabets. Closing returned stream closes given one.
+	 *
+	 * @param in the stream to read encoded data from
+	 * @return Decoding stream
+	 */
+	public static InputStream decode(InputStream in) {
+		return new DecodingInputStream(in);
+	}
+
+	/**
+	 * Decoding stream. It throws {@link IOException} on characters which are
+	 * not valid Base64.
+	 */
+	private static final class DecodingInputStream extends FilterInputStream {
+
+		private final byte[] buffer = new byte[4096];
+		private final byte[] decoded = new byte[3];
+		private int position = 0;
+		private int limit = 0;
+		private int decodedPosition = 0;
+		private int decodedLimit = 0;
+		private int bits = 0;
+		private int count = 0;
+		private boolean padded = false;
+		private boolean finished = false;
+
+		public DecodingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			int k = 0;
+
+			while (k < len) {
+
+				if (decodedPosition < decodedLimit) {
+					b[off + k++] = decoded[decodedPosition++];
+					continue;
+				}
+
+				if (finished) {
+					break;
+				}
+
+				if (position == limit) {
+					limit = in.read(buffer, 0, buffer.length);
+					position = 0;
+					if (limit == -1) {
+						limit = 0;
+						finish();
+						continue;
+					}
+				}
+
+				int c = buffer[position++] & 0xFF;
+				int v = c < 128 ? DECODE[c] : INVALID;
+
+				if (v == WHITESPACE) {
+					continue;
+				}
+				if (v == PADDING) {
+					padded = true;
+					continue;
+				}
+				if (v == INVALID || padded) {
+					throw new IOException(String.format("Invalid Base64 character 0x%02x", c));
+				}
+
+				bits = bits << 6 | v;
+
+				if (++count == 4) {
+					decoded[0] = (byte) (bits >> 16);
+					decoded[1] = (byte) (bits >> 8);
+					decoded[2] = (byte) bits;
+					decodedPosition = 0;
+					decodedLimit = 3;
+					bits = 0;
+					count = 0;
+				}
+			}
+
+			return k == 0 && len > 0 ? -1 : k;
+		}
+
+		private void finish() throws IOException {
+			finished = true;
+			decodedPosition = 0;
+			switch (count) {
+				case 0:
+					decodedLimit = 0;
+					break;
+				case 1:
+					throw new IOException("Truncated Base64 data");
+				case 2:
+					decoded[0] = (byte) (bits >> 4);
+					decodedLimit = 1;
+					break;
+				case 3:
+					decoded[0] = (byte) (bits >> 10);
+					decoded[1] = (byte) (bits >> 2);
+					decodedLimit = 2;
+					break;
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] b = new byte[512];
+			long skipped = 0;
+			while (skipped < n) {
+				int k = read(b, 0, (int) Math.min(b.length, n - skipped));
+				if (k == -1) {
+					break;
+				}
+				skipped += k;
+			}
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return decodedLimit - decodedPosition;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.sarxos.securetoken.BatchResult;
+
+
+/**
+ * Runs the same operation on many inputs in fork-join pool. Inputs are split
+ * into ranges which are processed by pool workers, so every worker reuses its
+ * own thread-confined cipher state.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class Batch {
+
+	/**
+	 * Operation to be run on every input.
+	 * 
+	 * @param <I> the input type
+	 * @param <R> the result type
+	 */
+	public static interface Operation<I, R> {
+
+		/**
+		 * @param input the input item
+		 * @return Result
+		 */
+		R apply(I input);
+	}
+
+	/**
+	 * Ranges smaller than this are not split further.
+	 */
+	private static final int THRESHOLD = 64;
+
+	private static final class Task<I, R> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<? extends I> inputs;
+		private final Operation<I, R> operation;
+		private final Object[] values;
+		private final RuntimeException[] errors;
+		private final int from;
+		private final int to;
+
+		public Task(List<? extends I> inputs, Operation<I, R> operation, Object[] values, RuntimeException[] errors, int from, int to) {
+			this.inputs = inputs;
+			this.operation = operation;
+			this.values = values;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+					new Task<I, R>(inputs, operation, values, errors, from, middle),
+					new Task<I, R>(inputs, operation, values, errors, middle, to));
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				try {
+					values[i] = operation.apply(inputs.get(i));
+				} catch (RuntimeException e) {
+					errors[i] = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run operation on all inputs.
+	 * 
+	 * @param <I> the input type
+	 * @param <R> the result type
+	 * @param inputs the inputs, should support fast random access
+	 * @param operation the operation
+	 * @param pool the pool to run operation in
+	 * @return Results in input order
+	 */
+	public static final <I, R> BatchResult<R> run(List<? extends I> inputs, Operation<I, R> operation, ForkJoinPool pool) {
+
+		int n = inputs.size();
+
+		Object[] values = new Object[n];
+		RuntimeException[] errors = new RuntimeException[n];
+
+		if (n > 0) {
+			pool.invoke(new Task<I, R>(inputs, operation, values, errors, 0, n));
+		}
+
+		return new BatchResult<R>(values, errors);
+	}
+}
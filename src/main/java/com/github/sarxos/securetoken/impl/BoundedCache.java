@@ -0,0 +1,328 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Concurrent cache with size limit, idle time and time to live eviction and
+ * hit / miss statistics. Lookups are lock-free. When cache grows over its limit, single
+ * thread evicts expired entries and then least recently used ones, down to 3/4
+ * of the limit, so eviction cost is amortized over many insertions.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * Computes value for key missing in cache.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	public static interface Loader<K, V> {
+
+		/**
+		 * @param key the key to compute value for
+		 * @return Value, never null
+		 */
+		V load(K key);
+	}
+
+	/**
+	 * Cached value with its creation and last access time.
+	 */
+	private static final class Entry<V> {
+
+		private final V value;
+		private final long created;
+		private volatile long accessed;
+
+		public Entry(V value, long now) {
+			this.value = value;
+			this.created = now;
+			this.accessed = now;
+		}
+	}
+
+	/**
+	 * Eviction candidate. Access time is copied, because entries can be
+	 * accessed while they are being sorted.
+	 */
+	private static final class Candidate<K, V> implements Comparable<Candidate<K, V>> {
+
+		private final K key;
+		private final Entry<V> entry;
+		private final long accessed;
+
+		public Candidate(K key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+			this.accessed = entry.accessed;
+		}
+
+		@Override
+		public int compareTo(Candidate<K, V> other) {
+			return Long.compare(accessed, other.accessed);
+		}
+	}
+
+	/**
+	 * Access time is not updated more often than this, so that threads reading
+	 * the same entry do not keep writing to the same memory.
+	 */
+	private static final long ACCESS_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+	private final ReentrantLock eviction = new ReentrantLock();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private volatile int maximumSize;
+	private volatile long expireAfterAccess;
+	private volatile long expireAfterWrite;
+
+	/**
+	 * Create cache.
+	 *
+	 * @param maximumSize the maximum number of entries
+	 * @param expireAfterAccess the idle time after which entry is evicted, 0
+	 *            to never expire idle entries
+	 * @param unit the time unit
+	 */
+	public BoundedCache(int maximumSize, long expireAfterAccess, TimeUnit unit) {
+		setMaximumSize(maximumSize);
+		setExpireAfterAccess(expireAfterAccess, unit);
+	}
+
+	/**
+	 * Return value for given key, computing it with loader if it is not
+	 * present or has expired. Two threads missing the same key at the same
+	 * time may both compute value, the last one wins.
+	 *
+	 * @param key the key
+	 * @param loader the loader to compute missing value
+	 * @return Value
+	 */
+	public V get(K key, Loader<K, V> loader) {
+
+		long now = System.nanoTime();
+
+		Entry<V> entry = entries.get(key);
+		if (entry != null) {
+			if (!isExpired(entry, now)) {
+				touch(entry, now);
+				hits.increment();
+				return entry.value;
+			}
+			if (entries.remove(key, entry)) {
+				evictions.increment();
+			}
+		}
+
+		misses.increment();
+
+		V value = loader.load(key);
+		put(key, value, now);
+
+		return value;
+	}
+
+	/**
+	 * Return value for given key, or null if there is no such value or it has
+	 * expired.
+	 *
+	 * @param key the key
+	 * @return Value or null
+	 */
+	public V getIfPresent(K key) {
+
+		long now = System.nanoTime();
+
+		Entry<V> entry = entries.get(key);
+		if (entry != null) {
+			if (!isExpired(entry, now)) {
+				touch(entry, now);
+				hits.increment();
+				return entry.value;
+			}
+			if (entries.remove(key, entry)) {
+				evictions.increment();
+			}
+		}
+
+		misses.increment();
+
+		return null;
+	}
+
+	/**
+	 * Put value in cache.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(K key, V value) {
+		put(key, value, System.nanoTime());
+	}
+
+	private void put(K key, V value, long now) {
+		entries.put(key, new Entry<V>(value, now));
+		if (entries.size() > maximumSize) {
+			evict(now);
+		}
+	}
+
+	/**
+	 * Remove value from cache.
+	 *
+	 * @param key the key
+	 */
+	public void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Remove all values.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	private static void touch(Entry<?> entry, long now) {
+		if (now - entry.accessed > ACCESS_RESOLUTION) {
+			entry.accessed = now;
+		}
+	}
+
+	private boolean isExpired(Entry<V> entry, long now) {
+		long access = expireAfterAccess;
+		long write = expireAfterWrite;
+		return access > 0 && now - entry.accessed > access || write > 0 && now - entry.created > write;
+	}
+
+	private void evict(long now) {
+
+		if (!eviction.tryLock()) {
+			return;
+		}
+
+		try {
+
+			List<Candidate<K, V>> live = new ArrayList<Candidate<K, V>>(entries.size());
+
+			for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+				if (isExpired(e.getValue(), now)) {
+					if (entries.remove(e.getKey(), e.getValue())) {
+						evictions.increment();
+					}
+				} else {
+					live.add(new Candidate<K, V>(e.getKey(), e.getValue()));
+				}
+			}
+
+			if (live.size() <= maximumSize) {
+				return;
+			}
+
+			// evict least recently used down to 3/4 of limit
+
+			Collections.sort(live);
+
+			int target = maximumSize - maximumSize / 4;
+
+			for (int i = 0, n = live.size() - target; i < n; i++) {
+				Candidate<K, V> c = live.get(i);
+				if (entries.remove(c.key, c.entry)) {
+					evictions.increment();
+				}
+			}
+
+		} finally {
+			eviction.unlock();
+		}
+	}
+
+	/**
+	 * @param maximumSize the maximum number of entries
+	 */
+	public void setMaximumSize(int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("Maximum cache size must be positive");
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @return Maximum number of entries
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @param time the idle time after which entry is evicted, 0 to never
+	 *            expire idle entries
+	 * @param unit the time unit
+	 */
+	public void setExpireAfterAccess(long time, TimeUnit unit) {
+		this.expireAfterAccess = unit.toNanos(time);
+	}
+
+	/**
+	 * @param time the time after which entry is evicted, counted from the
+	 *            moment it was put in cache, 0 to never expire entries
+	 * @param unit the time unit
+	 */
+	public void setExpireAfterWrite(long time, TimeUnit unit) {
+		this.expireAfterWrite = unit.toNanos(time);
+	}
+
+	/**
+	 * @return Number of entries in cache, including expired ones not evicted
+	 *         yet
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of lookups which found value in cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Number of lookups which did not find value in cache
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Number of evicted entries
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Ratio of hits to all lookups, 1 when there were no lookups
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 1.0 : (double) h / total;
+	}
+}
@@ -0,0 +1,50 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Characters of ASCII bytes in buffer, which can be direct one, read with
+ * absolute gets, so buffer position does not change. Indexes are relative to
+ * buffer position at creation time.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see AsciiSequence
+ */
+public final class BufferSequence implements CharSequence {
+
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int length;
+
+	public BufferSequence(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.offset = buffer.position();
+		this.length = buffer.remaining();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) buffer.get(offset + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(offset + start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
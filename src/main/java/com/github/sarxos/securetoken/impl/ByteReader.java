@@ -0,0 +1,95 @@
+package com.github.sarxos.securetoken.impl;
+
+/**
+ * Reads numbers written by {@link ByteWriter} from byte array slice.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public final class ByteReader {
+
+	private final byte[] buffer;
+	private final int limit;
+	private int position;
+
+	/**
+	 * @param buffer the bytes to read
+	 * @param offset the first byte to read
+	 * @param length the number of bytes to read
+	 */
+	public ByteReader(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	private void require(int n) {
+		if (limit - position < n) {
+			throw new IllegalArgumentException("Truncated binary token");
+		}
+	}
+
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	public int position() {
+		return position;
+	}
+
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	public void skip(int n) {
+		require(n);
+		position += n;
+	}
+
+	public long readVarint() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			require(1);
+			byte b = buffer[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint in binary token");
+	}
+
+	public long readSignedVarint() {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public int readFixed32() {
+		require(4);
+		int value = (buffer[position] & 0xFF)
+			| (buffer[position + 1] & 0xFF) << 8
+			| (buffer[position + 2] & 0xFF) << 16
+			| (buffer[position + 3] & 0xFF) << 24;
+		position += 4;
+		return value;
+	}
+
+	public long readFixed64() {
+		long lo = readFixed32() & 0xFFFFFFFFL;
+		long hi = readFixed32() & 0xFFFFFFFFL;
+		return lo | hi << 32;
+	}
+
+	/**
+	 * Read length prefix of length-delimited value and check that so many
+	 * bytes are available.
+	 * 
+	 * @return Length of the value which starts at current position
+	 */
+	public int readLength() {
+		long length = readVarint();
+		if (length < 0 || length > limit - position) {
+			throw new IllegalArgumentException("Truncated binary token");
+		}
+		return (int) length;
+	}
+}
@@ -0,0 +1,121 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * Growable byte buffer with methods to write variable and fixed length
+ * numbers, used by binary token format.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ */
+public final class ByteWriter {
+
+	private byte[] buffer;
+	private int size;
+
+	/**
+	 * @param capacity the initial capacity
+	 */
+	public ByteWriter(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+
+	private void ensure(int n) {
+		if (size + n > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + n));
+		}
+	}
+
+	public void write(int b) {
+		ensure(1);
+		buffer[size++] = (byte) b;
+	}
+
+	public void write(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	/**
+	 * Write unsigned variable length integer, 7 bits per byte, least
+	 * significant group first.
+	 * 
+	 * @param value the value to write
+	 */
+	public void writeVarint(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	/**
+	 * Write signed variable length integer, zig-zag encoded so that small
+	 * negative numbers take few bytes.
+	 * 
+	 * @param value the value to write
+	 */
+	public void writeSignedVarint(long value) {
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	public void writeFixed32(int value) {
+		ensure(4);
+		buffer[size++] = (byte) value;
+		buffer[size++] = (byte) (value >> 8);
+		buffer[size++] = (byte) (value >> 16);
+		buffer[size++] = (byte) (value >> 24);
+	}
+
+	public void writeFixed64(long value) {
+		writeFixed32((int) value);
+		writeFixed32((int) (value >> 32));
+	}
+
+	/**
+	 * Write bytes prefixed with their length.
+	 * 
+	 * @param bytes the bytes to write
+	 */
+	public void writeBytes(byte[] bytes) {
+		writeVarint(bytes.length);
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Discard written bytes, keeping the buffer.
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+	/**
+	 * Write bytes written so far to given stream.
+	 * 
+	 * @param out the stream
+	 * @throws IOException when stream fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, size);
+	}
+
+	/**
+	 * @return Number of bytes written
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Copy of written bytes
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+}
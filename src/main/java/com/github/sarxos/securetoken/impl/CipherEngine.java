@@ -1,19 +1,32 @@
 package com.github.sarxos.securetoken.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.AlgorithmParameterSpec;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -23,6 +36,7 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.Strings;
 
 import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.SecretHandle;
 
 
 public class CipherEngine {
@@ -31,111 +45,627 @@ public class CipherEngine {
 		setup();
 	}
 
-	private static final Map<String, Cipher> CIPHERS = new HashMap<String, Cipher>();
-	private static final Map<String, Key> KEYS = new HashMap<String, Key>();
-	private static final Map<String, IvParameterSpec> IVS = new HashMap<String, IvParameterSpec>();
+	/**
+	 * Encryption and decryption ciphers of one thread. For cipher types
+	 * without nonce they are pre-initialized with the same key and IV, for
+	 * other ones they are initialized with new nonce for every token. When
+	 * lightweight backend is used, only lightweight cipher is set. Pair keeps
+	 * backend it has been created by, so it is not used after provider has
+	 * been changed.
+	 */
+	private static final class CipherPair {
+
+		private final Backend backend;
+		private final Cipher encryptor;
+		private final Cipher decryptor;
+		private final Mac mac;
+		private final LightweightCipher lightweight;
+
+		public CipherPair(Backend backend, Cipher encryptor, Cipher decryptor, Mac mac) {
+			this.backend = backend;
+			this.encryptor = encryptor;
+			this.decryptor = decryptor;
+			this.mac = mac;
+			this.lightweight = null;
+		}
+
+		public CipherPair(Backend backend, LightweightCipher lightweight) {
+			this.backend = backend;
+			this.encryptor = null;
+			this.decryptor = null;
+			this.mac = null;
+			this.lightweight = lightweight;
+		}
+	}
+
+	/**
+	 * Cipher implementation used for given cipher type. JDK providers need
+	 * full transformation name and do not accept IV in ECB mode, while BC
+	 * resolves bare algorithm name to ECB with PKCS7 padding and ignores IV,
+	 * so both produce the same bytes. Cipher types with explicit
+	 * transformation use it with every provider. Lightweight backend uses BC
+	 * engines directly for byte arrays and BC provider for streams.
+	 */
+	private static final class Backend {
+
+		private final String name;
+		private final String provider;
+		private final String transformation;
+		private final boolean iv;
+		private final int gcmTag;
+		private final boolean lightweight;
+
+		public Backend(String provider, String transformation, boolean iv, int gcmTag) {
+			this(provider, provider, transformation, iv, gcmTag, false);
+		}
+
+		public Backend(String name, String provider, String transformation, boolean iv, int gcmTag, boolean lightweight) {
+			this.name = name;
+			this.provider = provider;
+			this.transformation = transformation;
+			this.iv = iv;
+			this.gcmTag = gcmTag;
+			this.lightweight = lightweight;
+		}
+
+		public Cipher newCipher() {
+			try {
+				return Cipher.getInstance(transformation, provider);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchPaddingException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchProviderException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public Cipher newCipher(int mode, Key key, byte[] param) {
+			Cipher cipher = newCipher();
+			init(cipher, mode, key, param);
+			return cipher;
+		}
+
+		public Mac newMac(String algorithm, Key key) {
+			try {
+				Mac mac = Mac.getInstance(algorithm, provider);
+				mac.init(key);
+				return mac;
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			} catch (NoSuchProviderException e) {
+				throw new RuntimeException(e);
+			} catch (InvalidKeyException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * Initialize cipher with IV or nonce. BC accepts GCM nonce as plain
+		 * IV and uses 128-bit tag, JDK needs GCM parameters.
+		 */
+		public void init(Cipher cipher, int mode, Key key, byte[] param) {
+			AlgorithmParameterSpec spec = null;
+			if (iv) {
+				if (gcmTag > 0 && !BC.equals(provider)) {
+					spec = new GCMParameterSpec(gcmTag << 3, param);
+				} else {
+					spec = new IvParameterSpec(param);
+				}
+			}
+			CipherEngine.init(cipher, mode, key, spec);
+		}
+	}
+
+	/**
+	 * Secrets cache key.
+	 */
+	private static final class SecretId {
+
+		private final CipherType type;
+		private final String password;
+
+		public SecretId(CipherType type, String password) {
+			this.type = type;
+			this.password = password;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + password.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SecretId)) {
+				return false;
+			}
+			SecretId other = (SecretId) obj;
+			return type == other.type && password.equals(other.password);
+		}
+	}
+
+	/**
+	 * Secret derived from password. Key and IV are computed once, ciphers are
+	 * created and initialized once per platform thread. Virtual threads are
+	 * usually created for single task, so they borrow ciphers from shared
+	 * lock-free pool instead.
+	 */
+	private static final class Secret implements SecretHandle {
+
+		private final CipherType type;
+		private final Key key;
+		private final Key macKey;
+		private final byte[] iv;
+
+		/**
+		 * Ciphers owned by current thread. Cipher is stateful, so sharing it
+		 * between threads would require locking, while thread-confined
+		 * instances can be used without any synchronization.
+		 */
+		private final ThreadLocal<CipherPair> ciphers = new ThreadLocal<CipherPair>();
+
+		/**
+		 * Ciphers not used by any virtual thread at the moment.
+		 */
+		private final ConcurrentLinkedQueue<CipherPair> pool = new ConcurrentLinkedQueue<CipherPair>();
+
+		/**
+		 * Number of ciphers in pool, queue size is not constant time.
+		 */
+		private final AtomicInteger pooled = new AtomicInteger();
+
+		/**
+		 * Maximum number of ciphers in pool.
+		 */
+		private final int poolSize;
+
+		public Secret(CipherType type, String password, int poolSize) {
+			this.type = type;
+			this.poolSize = poolSize;
+			if (type == CipherType.NOOP) {
+				this.key = null;
+				this.macKey = null;
+				this.iv = null;
+			} else if (type.getMacAlgorithm() != null) {
+				byte[] hmac = hmac(type, password);
+				int half = hmac.length / 2;
+				this.key = new SecretKeySpec(hmac, 0, half, type.getAlgorithm());
+				this.macKey = new SecretKeySpec(hmac, half, hmac.length - half, type.getMacAlgorithm());
+				this.iv = null;
+			} else {
+				byte[] hmac = hmac(type, password);
+				this.key = new SecretKeySpec(hmac, type.getAlgorithm());
+				this.macKey = null;
+				this.iv = type.getNonceSize() > 0 ? null : hmac;
+			}
+		}
+
+		@Override
+		public CipherType getType() {
+			return type;
+		}
+
+		/**
+		 * Return ciphers to be used by current thread. When thread is virtual,
+		 * they have to be given back with {@link #release(CipherPair)}.
+		 * Ciphers created by backend which is no longer used for cipher type
+		 * are replaced.
+		 */
+		private CipherPair borrow() {
+
+			Backend backend = backend(type);
+
+			if (Threads.isVirtual(Thread.currentThread())) {
+				CipherPair pair = pool.poll();
+				if (pair == null) {
+					return newCiphers(backend);
+				}
+				pooled.decrementAndGet();
+				return pair.backend == backend ? pair : newCiphers(backend);
+			}
+
+			CipherPair pair = ciphers.get();
+			if (pair == null || pair.backend != backend) {
+				ciphers.set(pair = newCiphers(backend));
+			}
+
+			return pair;
+		}
+
+		/**
+		 * Give back ciphers borrowed by virtual thread, ciphers over pool
+		 * size are dropped.
+		 */
+		private void release(CipherPair pair) {
+			if (Threads.isVirtual(Thread.currentThread())) {
+				if (pooled.incrementAndGet() <= poolSize) {
+					pool.offer(pair);
+				} else {
+					pooled.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Drop ciphers which may be in inconsistent state after failure.
+		 * Borrowed ones are simply not released.
+		 */
+		private void discard() {
+			ciphers.remove();
+		}
+
+		private CipherPair newCiphers(Backend backend) {
+
+			CipherPair pair = null;
+
+			if (backend.lightweight) {
+				byte[] k = key.getEncoded();
+				byte[] m = macKey == null ? null : macKey.getEncoded();
+				pair = new CipherPair(backend, new LightweightCipher(type, k, m));
+			} else if (type.getNonceSize() > 0) {
+				Mac mac = macKey == null ? null : backend.newMac(type.getMacAlgorithm(), macKey);
+				pair = new CipherPair(backend, backend.newCipher(), backend.newCipher(), mac);
+			} else {
+				Cipher encryptor = backend.newCipher(Cipher.ENCRYPT_MODE, key, iv);
+				Cipher decryptor = backend.newCipher(Cipher.DECRYPT_MODE, key, iv);
+				pair = new CipherPair(backend, encryptor, decryptor, null);
+			}
+
+			return pair;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[%s]", getClass().getSimpleName(), type);
+		}
+	}
+
+	/**
+	 * Secrets derived from type and password pairs, cached with their
+	 * ciphers. Tokenizers which should not share ciphers and cache limits
+	 * with others can have store of their own.
+	 */
+	public static final class SecretStore {
+
+		private final BoundedCache<SecretId, Secret> secrets;
+
+		private final BoundedCache.Loader<SecretId, Secret> derive;
+
+		private final int poolSize;
+
+		/**
+		 * @param size the maximum number of cached secrets
+		 * @param poolSize the maximum number of ciphers pooled for virtual
+		 *            threads per secret
+		 */
+		public SecretStore(int size, final int poolSize) {
+
+			if (size <= 0 || poolSize < 0) {
+				throw new IllegalArgumentException(String.format("Invalid secret store size %d or cipher pool size %d", size, poolSize));
+			}
+
+			this.secrets = new BoundedCache<SecretId, Secret>(size, DEFAULT_SECRETS_IDLE, TimeUnit.MINUTES);
+			this.poolSize = poolSize;
+			this.derive = new BoundedCache.Loader<SecretId, Secret>() {
+
+				@Override
+				public Secret load(SecretId id) {
+					return new Secret(id.type, id.password, poolSize);
+				}
+			};
+		}
+
+		/**
+		 * Return secret derived from password, from cache when it has been
+		 * derived before.
+		 *
+		 * @param type the cipher type
+		 * @param password the password
+		 * @return Secret handle
+		 */
+		public SecretHandle get(CipherType type, String password) {
+			if (type == null || password == null) {
+				throw new IllegalArgumentException("Cipher type and password cannot be null");
+			}
+			return secrets.get(new SecretId(type, password), derive);
+		}
+
+		/**
+		 * @return Cache of derived secrets
+		 */
+		public BoundedCache<?, ?> getCache() {
+			return secrets;
+		}
+
+		/**
+		 * @return Maximum number of ciphers pooled per secret
+		 */
+		public int getPoolSize() {
+			return poolSize;
+		}
+	}
+
+	/**
+	 * Default maximum number of ciphers pooled for virtual threads per secret.
+	 */
+	public static final int DEFAULT_POOL_SIZE = Math.max(16, Runtime.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Default maximum number of cached secrets.
+	 */
+	public static final int DEFAULT_SECRETS_SIZE = 1024;
+
+	/**
+	 * Default time (in minutes) after which unused secret is evicted.
+	 */
+	private static final long DEFAULT_SECRETS_IDLE = 60;
+
+	/**
+	 * Secrets shared by all tokenizers without store of their own.
+	 */
+	private static final SecretStore SECRETS = new SecretStore(DEFAULT_SECRETS_SIZE, DEFAULT_POOL_SIZE);
+
+	/**
+	 * Largest block size of supported ciphers, the most padding can add.
+	 */
+	private static final int MAX_BLOCK_SIZE = 16;
+
+	/**
+	 * Source of token nonces.
+	 */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Provider name which selects JDK provider when it supports the algorithm
+	 * and produces the same tokens as BC, and BC otherwise.
+	 */
+	public static final String AUTO = "auto";
+
+	/**
+	 * BouncyCastle provider name.
+	 */
+	public static final String BC = "BC";
+
+	/**
+	 * Name of backend which uses BC lightweight engines directly, without
+	 * JCE, for tokens created as byte arrays or strings.
+	 */
+	public static final String LIGHTWEIGHT = "lightweight";
+
+	/**
+	 * JDK provider tried in automatic mode. It uses AES-NI instructions when
+	 * they are available.
+	 */
+	private static final String JDK = "SunJCE";
+
+	/**
+	 * Backends indexed by cipher type ordinal. Array is replaced, never
+	 * modified, when provider changes.
+	 */
+	private static volatile Backend[] backends;
 
 	private static final void setup() {
-		if (Security.getProvider("BC") == null) {
+		if (Security.getProvider(BC) == null) {
 			try {
 				Security.addProvider(new BouncyCastleProvider());
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		}
+		Backend[] bs = new Backend[CipherType.values().length];
+		for (CipherType type : CipherType.values()) {
+			if (type != CipherType.NOOP) {
+				bs[type.ordinal()] = resolve(type, AUTO);
+			}
+		}
+		backends = bs;
 	}
 
-	private static final Cipher getCipher(CipherType type, String password) {
+	private static final Backend backend(CipherType type) {
+		return backends[type.ordinal()];
+	}
 
-		String key = type.getAlgorithm() + ":" + password;
+	/**
+	 * Create backend for given provider name.
+	 */
+	private static final Backend resolve(CipherType type, String provider) {
 
-		Cipher cipher = CIPHERS.get(key);
-		if (cipher != null) {
-			return cipher;
+		boolean explicit = !type.getTransformation().equals(type.getAlgorithm());
+		int gcmTag = type.getMacAlgorithm() == null ? type.getTagSize() : 0;
+
+		Backend bc = new Backend(BC, type.getTransformation(), true, gcmTag);
+
+		if (BC.equals(provider)) {
+			return bc;
 		}
 
-		String algorithm = type.getAlgorithm();
-		try {
-			cipher = Cipher.getInstance(algorithm, "BC");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		} catch (NoSuchPaddingException e) {
-			throw new RuntimeException(e);
-		} catch (NoSuchProviderException e) {
-			throw new RuntimeException(e);
+		if (LIGHTWEIGHT.equals(provider)) {
+			Backend backend = new Backend(LIGHTWEIGHT, BC, type.getTransformation(), true, gcmTag, true);
+			if (!LightweightCipher.supports(type) || !verify(type, backend, bc)) {
+				throw new IllegalArgumentException(String.format("Lightweight engine does not support %s or does not produce the same tokens as BC", type));
+			}
+			return backend;
+		}
+
+		boolean auto = AUTO.equals(provider);
+		String name = auto ? JDK : provider;
+
+		if (Security.getProvider(name) == null) {
+			if (auto) {
+				return bc;
+			}
+			throw new IllegalArgumentException(String.format("Security provider %s not found", name));
 		}
 
-		CIPHERS.put(key, cipher);
+		Backend backend = null;
+		if (explicit) {
+			backend = new Backend(name, type.getTransformation(), true, gcmTag);
+		} else {
+			backend = new Backend(name, type.getAlgorithm() + "/ECB/PKCS5Padding", false, 0);
+		}
+
+		if (!verify(type, backend, bc)) {
+			if (auto) {
+				return bc;
+			}
+			throw new IllegalArgumentException(String.format("Security provider %s does not support %s or does not produce the same tokens as BC", name, type));
+		}
 
-		return cipher;
+		return backend;
 	}
 
-	private static final Key getKey(CipherType type, String password) {
+	/**
+	 * Check if backend encrypts sample data to the same bytes as BC does and
+	 * if both can decrypt each other's output.
+	 */
+	private static final boolean verify(CipherType type, Backend backend, Backend bc) {
 
-		String kkey = type.getAlgorithm() + ":" + password;
+		byte[] bytes = new byte[type.getDigest().getDigestSize()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i * 31 + 7);
+		}
 
-		Key key = KEYS.get(kkey);
-		if (key != null) {
-			return key;
+		byte[] data = new byte[37];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 13 - 100);
 		}
 
-		key = new SecretKeySpec(hmac(type, password), type.getAlgorithm());
+		int size = type.getMacAlgorithm() == null ? bytes.length : bytes.length / 2;
+
+		Key key = new SecretKeySpec(bytes, 0, size, type.getAlgorithm());
+		byte[] iv = type.getNonceSize() > 0 ? Arrays.copyOf(bytes, type.getNonceSize()) : bytes;
 
-		KEYS.put(kkey, key);
+		try {
 
-		return key;
+			byte[] expected = process(bc.newCipher(Cipher.ENCRYPT_MODE, key, iv), data);
+
+			if (backend.lightweight) {
+				LightweightCipher cipher = new LightweightCipher(type, key.getEncoded(), Arrays.copyOfRange(bytes, size, bytes.length));
+				byte[] sealed = cipher.encrypt(data, iv);
+				int n = type.getNonceSize();
+				byte[] actual = Arrays.copyOfRange(sealed, n, n + expected.length);
+				return Arrays.equals(expected, actual) && Arrays.equals(data, cipher.decrypt(sealed));
+			}
+
+			byte[] actual = process(backend.newCipher(Cipher.ENCRYPT_MODE, key, iv), data);
+			return Arrays.equals(expected, actual) && Arrays.equals(data, process(backend.newCipher(Cipher.DECRYPT_MODE, key, iv), expected));
+		} catch (RuntimeException e) {
+			return false;
+		}
 	}
 
-	private static final IvParameterSpec getIV(CipherType type, String password) {
+	/**
+	 * Set security provider used for given cipher type. It can be
+	 * {@link #AUTO} (default), {@link #BC}, {@link #LIGHTWEIGHT} or name of
+	 * other registered provider. Provider other than BC is checked when it is
+	 * set, it has to produce exactly the same tokens as BC does. Ciphers
+	 * already created for derived secrets are replaced when they are used
+	 * next time, so secret handles do not have to be derived again.
+	 *
+	 * @param type the cipher type
+	 * @param provider the provider name
+	 * @throws IllegalArgumentException when provider does not exist or its
+	 *             output differs from BC one
+	 */
+	public static final void setProvider(CipherType type, String provider) {
+
+		if (type == null || type == CipherType.NOOP || provider == null) {
+			throw new IllegalArgumentException("Cipher type and provider cannot be null and cipher type cannot be NOOP");
+		}
 
-		String key = type.getAlgorithm() + ":" + password;
+		Backend backend = resolve(type, provider);
 
-		IvParameterSpec ivspec = IVS.get(key);
-		if (ivspec != null) {
-			return ivspec;
+		synchronized (CipherEngine.class) {
+			Backend[] bs = backends.clone();
+			bs[type.ordinal()] = backend;
+			backends = bs;
 		}
+	}
 
-		ivspec = new IvParameterSpec(hmac(type, password));
+	/**
+	 * Return name of security provider used for given cipher type.
+	 *
+	 * @param type the cipher type
+	 * @return Provider name, null for no-operation cipher
+	 */
+	public static final String getProvider(CipherType type) {
+		Backend backend = backend(type);
+		return backend == null ? null : backend.name;
+	}
 
-		IVS.put(key, ivspec);
+	/**
+	 * Return secret derived from given password for given cipher type.
+	 * Secrets are cached, so subsequent calls with the same arguments return
+	 * the same handle.
+	 *
+	 * @param type the cipher type
+	 * @param password the password
+	 * @return Secret handle
+	 */
+	public static final SecretHandle getSecret(CipherType type, String password) {
+		return SECRETS.get(type, password);
+	}
 
-		return ivspec;
+	/**
+	 * Return cache of derived secrets, e.g. to change its limits or read its
+	 * statistics.
+	 *
+	 * @return Secrets cache
+	 */
+	public static final BoundedCache<?, ?> getSecretCache() {
+		return SECRETS.getCache();
+	}
+
+	/**
+	 * @return Store of secrets shared by tokenizers
+	 */
+	public static final SecretStore getSecretStore() {
+		return SECRETS;
+	}
+
+	private static final Secret secret(SecretHandle handle) {
+		if (handle instanceof Secret) {
+			return (Secret) handle;
+		}
+		throw new IllegalArgumentException(String.format("Unsupported secret handle %s", handle));
 	}
 
 	/**
 	 * Calculate RFC2104 HMAC of SHA1.
-	 * 
+	 *
 	 * @param string the string to be used as input
 	 * @return 8 bytes array
 	 */
 	private static final byte[] hmac(CipherType type, String string) {
 
-		Digest digest = type.getDigest();
+		Digest digest = type.newDigest();
 
 		byte[] hmac = new byte[digest.getDigestSize()];
 		byte[] data = Strings.toUTF8ByteArray(string);
 
-		synchronized(digest) {
-			HMac h = new HMac(digest);
-			h.update(data, 0, data.length);
-			h.doFinal(hmac, 0);
-			digest.reset();
-		}
+		HMac h = new HMac(digest);
+		h.update(data, 0, data.length);
+		h.doFinal(hmac, 0);
 
 		return hmac;
 	}
 
 	/**
 	 * Initialize cipher in specific mode.
-	 * 
+	 *
 	 * @param cipher the cipher to be initialized
 	 * @param mode the mode to put cipher in
 	 * @param key the key to be used
-	 * @param param the algorithm parameter to be used
+	 * @param param the algorithm parameter to be used, may be null
 	 */
 	private static final void init(Cipher cipher, int mode, Key key, AlgorithmParameterSpec param) {
 		try {
-			cipher.init(mode, key, param);
+			if (param == null) {
+				cipher.init(mode, key);
+			} else {
+				cipher.init(mode, key, param);
+			}
 		} catch (InvalidKeyException e) {
 			throw new RuntimeException(String.format("Invalid key in %s", cipher.getAlgorithm()), e);
 		} catch (InvalidAlgorithmParameterException e) {
@@ -145,7 +675,7 @@ public class CipherEngine {
 
 	/**
 	 * Let cipher process data.
-	 * 
+	 *
 	 * @param cipher the cipher to be used
 	 * @param data the data to be processed
 	 * @return Processed data
@@ -160,42 +690,447 @@ public class CipherEngine {
 		}
 	}
 
+	private static final byte[] nonce(CipherType type) {
+		byte[] nonce = new byte[type.getNonceSize()];
+		RANDOM.nextBytes(nonce);
+		return nonce;
+	}
+
+	/**
+	 * Encrypt data with random nonce. Result is nonce, ciphertext and
+	 * authentication tag.
+	 */
+	private static final byte[] seal(Secret secret, CipherPair pair, byte[] data) {
+		CipherType type = secret.type;
+		byte[] sealed = new byte[type.getNonceSize() + data.length + type.getTagSize()];
+		seal(secret, pair, data, 0, data.length, sealed, 0);
+		return sealed;
+	}
+
+	/**
+	 * Encrypt part of array with random nonce into given array.
+	 *
+	 * @return Number of bytes written
+	 */
+	private static final int seal(Secret secret, CipherPair pair, byte[] data, int offset, int length, byte[] out, int outOffset) {
+
+		CipherType type = secret.type;
+
+		int n = type.getNonceSize();
+		byte[] nonce = nonce(type);
+
+		System.arraycopy(nonce, 0, out, outOffset, n);
+
+		pair.backend.init(pair.encryptor, Cipher.ENCRYPT_MODE, secret.key, nonce);
+
+		try {
+			int k = pair.encryptor.doFinal(data, offset, length, out, outOffset + n);
+			if (pair.mac != null) {
+				pair.mac.update(out, outOffset, n + k);
+				System.arraycopy(pair.mac.doFinal(), 0, out, outOffset + n + k, type.getTagSize());
+				k += type.getTagSize();
+			}
+			return n + k;
+		} catch (ShortBufferException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalBlockSizeException e) {
+			throw new RuntimeException(e);
+		} catch (BadPaddingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Verify and decrypt data created by
+	 * {@link #seal(Secret, CipherPair, byte[])}.
+	 */
+	private static final byte[] open(Secret secret, CipherPair pair, byte[] sealed) {
+
+		CipherType type = secret.type;
+
+		int n = type.getNonceSize();
+		int t = type.getTagSize();
+
+		if (sealed.length < n + t) {
+			throw new IllegalArgumentException("Token is too short");
+		}
+
+		byte[] nonce = Arrays.copyOf(sealed, n);
+
+		try {
+
+			if (pair.mac == null) {
+				pair.backend.init(pair.decryptor, Cipher.DECRYPT_MODE, secret.key, nonce);
+				return pair.decryptor.doFinal(sealed, n, sealed.length - n);
+			}
+
+			int end = sealed.length - t;
+
+			pair.mac.update(sealed, 0, end);
+
+			byte[] tag = Arrays.copyOf(pair.mac.doFinal(), t);
+			if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(sealed, end, sealed.length))) {
+				throw new IllegalArgumentException("Token authentication failed");
+			}
+
+			pair.backend.init(pair.decryptor, Cipher.DECRYPT_MODE, secret.key, nonce);
+			return pair.decryptor.doFinal(sealed, n, end - n);
+
+		} catch (IllegalBlockSizeException e) {
+			throw new RuntimeException(e);
+		} catch (BadPaddingException e) {
+			// AEADBadTagException, older BC reports it as plain bad padding
+			throw new IllegalArgumentException("Token authentication failed", e);
+		}
+	}
+
 	/**
 	 * Encrypt data.
-	 * 
+	 *
 	 * @param type the cipher type to use
+	 * @param password the password to derive secret from
 	 * @param decrypted the data to be encrypted
 	 * @return Encrypted data
 	 */
 	public static final byte[] encrypt(CipherType type, String password, byte[] decrypted) {
+		return encrypt(getSecret(type, password), decrypted);
+	}
+
+	/**
+	 * Encrypt data.
+	 *
+	 * @param handle the secret to be used
+	 * @param decrypted the data to be encrypted
+	 * @return Encrypted data
+	 */
+	public static final byte[] encrypt(SecretHandle handle, byte[] decrypted) {
+		Secret secret = secret(handle);
+		CipherPair pair = secret.borrow();
+		byte[] result = null;
+		try {
+			if (pair.lightweight != null) {
+				result = pair.lightweight.encrypt(decrypted, secret.type.getNonceSize() > 0 ? nonce(secret.type) : null);
+			} else if (secret.type.getNonceSize() > 0) {
+				result = seal(secret, pair, decrypted);
+			} else {
+				result = process(pair.encryptor, decrypted);
+			}
+		} catch (RuntimeException e) {
+			secret.discard();
+			throw e;
+		}
+		secret.release(pair);
+		return result;
+	}
 
-		Cipher cipher = getCipher(type, password);
-		Key key = getKey(type, password);
-		IvParameterSpec iv = getIV(type, password);
+	/**
+	 * Encrypt part of array into given array, e.g. pooled scratch one.
+	 *
+	 * @param handle the secret to be used
+	 * @param data the array with data to be encrypted
+	 * @param offset the first byte to be encrypted
+	 * @param length the number of bytes to be encrypted
+	 * @param out the array to write encrypted data to, it has to have room
+	 *            for {@link #getEncryptedLength(CipherType, int)} bytes
+	 * @param outOffset the position of the first encrypted byte in output
+	 * @return Number of bytes written
+	 */
+	public static final int encrypt(SecretHandle handle, byte[] data, int offset, int length, byte[] out, int outOffset) {
+		Secret secret = secret(handle);
+		CipherPair pair = secret.borrow();
+		int result = 0;
+		try {
+			if (pair.lightweight != null) {
+				result = pair.lightweight.encrypt(data, offset, length, secret.type.getNonceSize() > 0 ? nonce(secret.type) : null, out, outOffset);
+			} else if (secret.type.getNonceSize() > 0) {
+				result = seal(secret, pair, data, offset, length, out, outOffset);
+			} else {
+				result = pair.encryptor.doFinal(data, offset, length, out, outOffset);
+			}
+		} catch (ShortBufferException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (IllegalBlockSizeException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (BadPaddingException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (RuntimeException e) {
+			secret.discard();
+			throw e;
+		}
+		secret.release(pair);
+		return result;
+	}
 
-		synchronized (cipher) {
-			init(cipher, Cipher.ENCRYPT_MODE, key, iv);
-			return process(cipher, decrypted);
+	/**
+	 * Return maximum number of bytes given number of bytes is encrypted to,
+	 * with nonce, tag and padding.
+	 *
+	 * @param type the cipher type
+	 * @param length the number of bytes to be encrypted
+	 * @return Maximum encrypted length
+	 */
+	public static final int getEncryptedLength(CipherType type, int length) {
+		if (type == CipherType.NOOP) {
+			return length;
 		}
+		return type.getNonceSize() + length + type.getTagSize() + MAX_BLOCK_SIZE;
 	}
 
 	/**
 	 * Decrypt data.
-	 * 
+	 *
 	 * @param type the cipher type to be used
+	 * @param password the password to derive secret from
 	 * @param encrypted the data to be decrypted
 	 * @return Decrypted data
 	 */
 	public static final byte[] decrypt(CipherType type, String password, byte[] encrypted) {
+		return decrypt(getSecret(type, password), encrypted);
+	}
+
+	/**
+	 * Decrypt data. Authenticated cipher types throw
+	 * {@link IllegalArgumentException} when data has been modified.
+	 *
+	 * @param handle the secret to be used
+	 * @param encrypted the data to be decrypted
+	 * @return Decrypted data
+	 */
+	public static final byte[] decrypt(SecretHandle handle, byte[] encrypted) {
+		Secret secret = secret(handle);
+		CipherPair pair = secret.borrow();
+		byte[] result = null;
+		try {
+			if (pair.lightweight != null) {
+				result = pair.lightweight.decrypt(encrypted);
+			} else if (secret.type.getNonceSize() > 0) {
+				result = open(secret, pair, encrypted);
+			} else {
+				result = process(pair.decryptor, encrypted);
+			}
+		} catch (RuntimeException e) {
+			secret.discard();
+			throw e;
+		}
+		secret.release(pair);
+		return result;
+	}
+
+	/**
+	 * Decrypt data from one buffer to another, they can be direct ones. JCE
+	 * ciphers work on buffers directly, lightweight ones on scratch array.
+	 * Input buffer is read to its limit and output one is advanced by number
+	 * of decrypted bytes. Decrypted data is never longer than encrypted one.
+	 *
+	 * @param handle the secret to be used
+	 * @param in the buffer with data to be decrypted
+	 * @param out the buffer to write decrypted data to
+	 * @return Number of decrypted bytes
+	 * @throws IllegalArgumentException when authenticated data has been
+	 *             modified
+	 */
+	public static final int decrypt(SecretHandle handle, ByteBuffer in, ByteBuffer out) {
+		Secret secret = secret(handle);
+		CipherPair pair = secret.borrow();
+		int result = 0;
+		try {
+			if (pair.lightweight != null) {
+				result = decrypt(pair.lightweight, in, out);
+			} else if (secret.type.getNonceSize() > 0) {
+				result = open(secret, pair, in, out);
+			} else {
+				result = pair.decryptor.doFinal(in, out);
+			}
+		} catch (ShortBufferException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (IllegalBlockSizeException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (BadPaddingException e) {
+			secret.discard();
+			throw new RuntimeException(e);
+		} catch (RuntimeException e) {
+			secret.discard();
+			throw e;
+		}
+		secret.release(pair);
+		return result;
+	}
+
+	/**
+	 * Decrypt buffer with lightweight cipher. Arrays of heap buffers are used
+	 * directly, data of direct ones goes through pooled scratch arrays.
+	 */
+	private static final int decrypt(LightweightCipher cipher, ByteBuffer in, ByteBuffer out) {
+
+		int n = in.remaining();
+
+		byte[] input = null;
+		byte[] output = null;
+
+		try {
+
+			byte[] data = null;
+			int offset = 0;
+
+			if (in.hasArray()) {
+				data = in.array();
+				offset = in.arrayOffset() + in.position();
+			} else {
+				data = input = ScratchBuffers.acquire(n);
+				in.duplicate().get(input, 0, n);
+			}
+
+			int k = 0;
+
+			if (out.hasArray() && out.remaining() >= n) {
+				k = cipher.decrypt(data, offset, n, out.array(), out.arrayOffset() + out.position());
+				out.position(out.position() + k);
+			} else {
+				output = ScratchBuffers.acquire(n);
+				k = cipher.decrypt(data, offset, n, output, 0);
+				out.put(output, 0, k);
+			}
+
+			in.position(in.limit());
+
+			return k;
+
+		} finally {
+			ScratchBuffers.release(input);
+			ScratchBuffers.release(output);
+		}
+	}
+
+	/**
+	 * Verify and decrypt data created by
+	 * {@link #seal(Secret, CipherPair, byte[])} from buffer.
+	 */
+	private static final int open(Secret secret, CipherPair pair, ByteBuffer in, ByteBuffer out) throws ShortBufferException, IllegalBlockSizeException {
+
+		CipherType type = secret.type;
+
+		int n = type.getNonceSize();
+		int t = type.getTagSize();
+
+		if (in.remaining() < n + t) {
+			throw new IllegalArgumentException("Token is too short");
+		}
+
+		byte[] nonce = new byte[n];
+
+		try {
+
+			if (pair.mac == null) {
+				in.get(nonce);
+				pair.backend.init(pair.decryptor, Cipher.DECRYPT_MODE, secret.key, nonce);
+				return pair.decryptor.doFinal(in, out);
+			}
+
+			int end = in.limit() - t;
+
+			ByteBuffer signed = in.duplicate();
+			signed.limit(end);
+			pair.mac.update(signed);
+
+			byte[] tag = new byte[t];
+			ByteBuffer received = in.duplicate();
+			received.position(end);
+			received.get(tag);
+
+			if (!MessageDigest.isEqual(Arrays.copyOf(pair.mac.doFinal(), t), tag)) {
+				throw new IllegalArgumentException("Token authentication failed");
+			}
+
+			in.get(nonce);
+			in.limit(end);
+			pair.backend.init(pair.decryptor, Cipher.DECRYPT_MODE, secret.key, nonce);
+			int k = pair.decryptor.doFinal(in, out);
+			in.limit(end + t);
+			in.position(end + t);
+
+			return k;
+
+		} catch (BadPaddingException e) {
+			// AEADBadTagException, older BC reports it as plain bad padding
+			throw new IllegalArgumentException("Token authentication failed", e);
+		}
+	}
 
-		Cipher cipher = getCipher(type, password);
-		Key key = getKey(type, password);
-		IvParameterSpec iv = getIV(type, password);
+	/**
+	 * Return stream encrypting data written to it. Stream gets its own cipher,
+	 * because it can be used for longer time and interleaved with other
+	 * operations on the same thread. Closing returned stream writes final
+	 * block, and authentication tag if there is one, and closes given one.
+	 *
+	 * @param handle the secret to be used
+	 * @param out the stream encrypted data will be written to
+	 * @return Encrypting stream
+	 * @throws IOException when nonce cannot be written
+	 */
+	public static final OutputStream encrypt(SecretHandle handle, OutputStream out) throws IOException {
+
+		Secret secret = secret(handle);
+		CipherType type = secret.type;
+		Backend backend = backend(type);
+
+		if (type.getNonceSize() == 0) {
+			return new CipherOutputStream(out, backend.newCipher(Cipher.ENCRYPT_MODE, secret.key, secret.iv));
+		}
+
+		byte[] nonce = nonce(type);
 
-		synchronized (cipher) {
-			init(cipher, Cipher.DECRYPT_MODE, key, iv);
-			return process(cipher, encrypted);
+		if (secret.macKey != null) {
+			out = Streams.sign(out, backend.newMac(type.getMacAlgorithm(), secret.macKey), type.getTagSize());
 		}
+
+		out.write(nonce);
+
+		return new CipherOutputStream(out, backend.newCipher(Cipher.ENCRYPT_MODE, secret.key, nonce));
+	}
+
+	/**
+	 * Return stream decrypting data read from given one. Stream gets its own
+	 * cipher, the same way as in {@link #encrypt(SecretHandle, OutputStream)}.
+	 * Authenticated streams are read to the end when closed, so that tag is
+	 * always verified, and they throw {@link IOException} when data has been
+	 * modified.
+	 *
+	 * @param handle the secret to be used
+	 * @param in the stream encrypted data will be read from
+	 * @return Decrypting stream
+	 * @throws IOException when nonce cannot be read
+	 */
+	public static final InputStream decrypt(SecretHandle handle, InputStream in) throws IOException {
+
+		Secret secret = secret(handle);
+		CipherType type = secret.type;
+		Backend backend = backend(type);
+
+		if (type.getNonceSize() == 0) {
+			return new CipherInputStream(in, backend.newCipher(Cipher.DECRYPT_MODE, secret.key, secret.iv));
+		}
+
+		Mac mac = null;
+		if (secret.macKey != null) {
+			mac = backend.newMac(type.getMacAlgorithm(), secret.macKey);
+			in = Streams.verify(in, mac, type.getTagSize());
+		}
+
+		byte[] nonce = new byte[type.getNonceSize()];
+		for (int i = 0; i < nonce.length;) {
+			int k = in.read(nonce, i, nonce.length - i);
+			if (k == -1) {
+				throw new IOException("Token is too short");
+			}
+			i += k;
+		}
+
+		return Streams.drainOnClose(new CipherInputStream(in, backend.newCipher(Cipher.DECRYPT_MODE, secret.key, nonce)));
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,53 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.IOException;
+
+import com.github.sarxos.securetoken.Converter;
+import com.github.sarxos.securetoken.ExtendedConverter;
+
+
+/**
+ * Adapts plain converter to extended one. Strings are still created, but
+ * codec can handle all converters the same way.
+ * 
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the type of converted objects
+ */
+public final class ConverterAdapter<T> implements ExtendedConverter<T> {
+
+	private final Converter<T> converter;
+
+	/**
+	 * @param converter the converter to be adapted
+	 */
+	public ConverterAdapter(Converter<T> converter) {
+		this.converter = converter;
+	}
+
+	@Override
+	public T toObject(String string) {
+		return converter.toObject(string);
+	}
+
+	@Override
+	public String toString(T object) {
+		return converter.toString(object);
+	}
+
+	@Override
+	public void appendTo(T object, Appendable out) throws IOException {
+		out.append(converter.toString(object));
+	}
+
+	@Override
+	public T parse(CharSequence chars, int from, int to) {
+		return converter.toObject(chars.subSequence(from, to).toString());
+	}
+
+	/**
+	 * @return Adapted converter
+	 */
+	public Converter<T> getConverter() {
+		return converter;
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sarxos.securetoken.BooleanConverter;
+import com.github.sarxos.securetoken.Converter;
+import com.github.sarxos.securetoken.DoubleConverter;
+import com.github.sarxos.securetoken.ExtendedConverter;
+import com.github.sarxos.securetoken.IntConverter;
+import com.github.sarxos.securetoken.LongConverter;
+
+
+/**
+ * Immutable set of converters bound to types. Registration creates new
+ * registry, so lookups never see map being modified and registry can be
+ * shared between threads and tokenizers without locks. Bindings are created
+ * once per registered converter and shared by registries created from this
+ * one, only the binding of changed type is new. Lookups go through class
+ * value of the registry.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @see Converters#getRegistry()
+ */
+public final class ConverterRegistry {
+
+	/**
+	 * Converters resolved for one type.
+	 */
+	private static final class Binding {
+
+		private final Converter<Object> converter;
+
+		private final ExtendedConverter<Object> extended;
+
+		private final Object primitive;
+
+		@SuppressWarnings("unchecked")
+		private Binding(Converter<?> converter) {
+
+			this.converter = (Converter<Object>) converter;
+
+			if (converter instanceof ExtendedConverter) {
+				this.extended = (ExtendedConverter<Object>) converter;
+			} else {
+				this.extended = new ConverterAdapter<Object>(this.converter);
+			}
+
+			if (converter instanceof Converters.PrimitiveProvider) {
+				this.primitive = ((Converters.PrimitiveProvider) converter).getPrimitiveConverter();
+			} else if (converter instanceof IntConverter || converter instanceof LongConverter || converter instanceof DoubleConverter || converter instanceof BooleanConverter) {
+				this.primitive = converter;
+			} else {
+				this.primitive = null;
+			}
+		}
+	}
+
+	/**
+	 * Mapping from primitive to boxing type.
+	 */
+	private static final Map<Class<?>, Class<?>> PRIMITIVES_MAPPING = new HashMap<Class<?>, Class<?>>();
+
+	static {
+		PRIMITIVES_MAPPING.put(boolean.class, Boolean.class);
+		PRIMITIVES_MAPPING.put(char.class, Character.class);
+		PRIMITIVES_MAPPING.put(byte.class, Byte.class);
+		PRIMITIVES_MAPPING.put(short.class, Short.class);
+		PRIMITIVES_MAPPING.put(int.class, Integer.class);
+		PRIMITIVES_MAPPING.put(long.class, Long.class);
+		PRIMITIVES_MAPPING.put(float.class, Float.class);
+		PRIMITIVES_MAPPING.put(double.class, Double.class);
+	}
+
+	/**
+	 * Bindings of registered types, never modified.
+	 */
+	private final Map<Class<?>, Binding> registered;
+
+	private final ClassValue<Binding> bindings = new ClassValue<Binding>() {
+
+		@Override
+		protected Binding computeValue(Class<?> type) {
+			return registered.get(type);
+		}
+	};
+
+	/**
+	 * Create registry without converters.
+	 */
+	ConverterRegistry() {
+		this(new HashMap<Class<?>, Binding>());
+	}
+
+	private ConverterRegistry(Map<Class<?>, Binding> registered) {
+		this.registered = registered;
+	}
+
+	/**
+	 * Return registry with converter bound to given class, in addition to the
+	 * converters of this one. Converter of primitive type is bound to its
+	 * boxing type as well.
+	 *
+	 * @param <C> the generic type to be registered
+	 * @param clazz the class representing given type
+	 * @param converter the converter to be registered
+	 * @return New registry
+	 */
+	public <C> ConverterRegistry with(Class<C> clazz, Converter<C> converter) {
+		if (clazz == null || converter == null) {
+			throw new IllegalArgumentException("Class and converter cannot be null");
+		}
+		Binding binding = new Binding(converter);
+		Map<Class<?>, Binding> copy = new HashMap<Class<?>, Binding>(registered);
+		copy.put(clazz, binding);
+		if (clazz.isPrimitive()) {
+			copy.put(PRIMITIVES_MAPPING.get(clazz), binding);
+		}
+		return new ConverterRegistry(copy);
+	}
+
+	/**
+	 * Return registry without converter bound to given class.
+	 *
+	 * @param clazz the class which should be unregistered
+	 * @return New registry
+	 */
+	public ConverterRegistry without(Class<?> clazz) {
+		Map<Class<?>, Binding> copy = new HashMap<Class<?>, Binding>(registered);
+		copy.remove(clazz);
+		if (clazz.isPrimitive()) {
+			copy.remove(PRIMITIVES_MAPPING.get(clazz));
+		}
+		return new ConverterRegistry(copy);
+	}
+
+	private Binding binding(Class<?> type) {
+		Binding binding = bindings.get(type);
+		if (binding == null) {
+			throw new IllegalArgumentException(String.format("Translator for %s not found", type));
+		}
+		return binding;
+	}
+
+	/**
+	 * Return true if specific type can be converted from and to string.
+	 *
+	 * @param type the type to be checked
+	 * @return True if object of given type can be converted, false otherwise
+	 */
+	public boolean canConvert(Class<?> type) {
+		return bindings.get(type) != null;
+	}
+
+	/**
+	 * Return converter bound to given type.
+	 *
+	 * @param <C> the type of objects translated by converter
+	 * @param type the type to get converter for
+	 * @return Converter for given type
+	 * @throws IllegalArgumentException when there is no converter for given type
+	 */
+	@SuppressWarnings("unchecked")
+	public <C> Converter<C> getConverter(Class<?> type) {
+		return (Converter<C>) binding(type).converter;
+	}
+
+	/**
+	 * Return converter bound to given type, as extended converter. Plain
+	 * converters are wrapped in adapter which appends and parses through
+	 * strings.
+	 *
+	 * @param <C> the type of objects translated by converter
+	 * @param type the type to get converter for
+	 * @return Extended converter for given type
+	 * @throws IllegalArgumentException when there is no converter for given type
+	 */
+	@SuppressWarnings("unchecked")
+	public <C> ExtendedConverter<C> getExtendedConverter(Class<?> type) {
+		return (ExtendedConverter<C>) binding(type).extended;
+	}
+
+	/**
+	 * Return boxing-free converter for given type.
+	 *
+	 * @param type the type to get converter for
+	 * @return Primitive converter or null if there is none
+	 * @see Converters#getPrimitiveConverter(Class)
+	 */
+	public Object getPrimitiveConverter(Class<?> type) {
+		Binding binding = bindings.get(type);
+		return binding == null ? null : binding.primitive;
+	}
+
+	/**
+	 * Convert object to string.
+	 *
+	 * @param object the object to be converted
+	 * @return String representation of given object
+	 */
+	public String toString(Object object) {
+		return binding(object.getClass()).converter.toString(object);
+	}
+
+	/**
+	 * Convert string to object.
+	 *
+	 * @param clazz the type of object to be created
+	 * @param string the string to be converted to specific object
+	 * @return Object of the class given in the argument
+	 */
+	public Object toObject(Class<?> clazz, String string) {
+		return binding(clazz).converter.toObject(string);
+	}
+}
@@ -1,16 +1,33 @@
 package com.github.sarxos.securetoken.impl;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
 
+import com.github.sarxos.securetoken.BooleanConverter;
 import com.github.sarxos.securetoken.Converter;
+import com.github.sarxos.securetoken.DoubleConverter;
+import com.github.sarxos.securetoken.ExtendedConverter;
+import com.github.sarxos.securetoken.IntConverter;
+import com.github.sarxos.securetoken.LongConverter;
 
 
 public class Converters {
 
-	private static final class StringConverter implements Converter<String> {
+	/**
+	 * Built-in converter with boxing-free companion for primitive parts. It
+	 * cannot implement primitive interface itself, because its parse method
+	 * returns boxed value.
+	 */
+	static interface PrimitiveProvider {
+
+		/**
+		 * @return Primitive converter
+		 */
+		Object getPrimitiveConverter();
+	}
+
+	private static final class StringConverter implements ExtendedConverter<String> {
 
 		@Override
 		public String toObject(String string) {
@@ -21,9 +38,32 @@ public class Converters {
 		public String toString(String object) {
 			return object;
 		}
+
+		@Override
+		public void appendTo(String object, Appendable out) throws IOException {
+			out.append(object);
+		}
+
+		@Override
+		public String parse(CharSequence chars, int from, int to) {
+			return chars.subSequence(from, to).toString();
+		}
 	}
 
-	private static final class BooleanConverter implements Converter<Boolean> {
+	private static final class DefaultBooleanConverter implements ExtendedConverter<Boolean>, PrimitiveProvider {
+
+		private final BooleanConverter primitive = new BooleanConverter() {
+
+			@Override
+			public boolean parse(CharSequence chars, int from, int to) {
+				return parseBoolean(chars, from, to);
+			}
+
+			@Override
+			public void append(boolean value, StringBuilder sb) {
+				sb.append(value);
+			}
+		};
 
 		@Override
 		public Boolean toObject(String string) {
@@ -34,9 +74,24 @@ public class Converters {
 		public String toString(Boolean object) {
 			return Boolean.toString(object);
 		}
+
+		@Override
+		public void appendTo(Boolean object, Appendable out) throws IOException {
+			out.append(object.booleanValue() ? "true" : "false");
+		}
+
+		@Override
+		public Boolean parse(CharSequence chars, int from, int to) {
+			return parseBoolean(chars, from, to);
+		}
+
+		@Override
+		public Object getPrimitiveConverter() {
+			return primitive;
+		}
 	}
 
-	private static final class CharacterConverter implements Converter<Character> {
+	private static final class CharacterConverter implements ExtendedConverter<Character> {
 
 		@Override
 		public Character toObject(String string) {
@@ -47,9 +102,22 @@ public class Converters {
 		public String toString(Character object) {
 			return Character.toString(object);
 		}
+
+		@Override
+		public void appendTo(Character object, Appendable out) throws IOException {
+			out.append(object.charValue());
+		}
+
+		@Override
+		public Character parse(CharSequence chars, int from, int to) {
+			if (from >= to) {
+				throw new StringIndexOutOfBoundsException("Empty character part");
+			}
+			return Character.valueOf(chars.charAt(from));
+		}
 	}
 
-	private static final class ByteConverter implements Converter<Byte> {
+	private static final class ByteConverter implements ExtendedConverter<Byte> {
 
 		@Override
 		public Byte toObject(String string) {
@@ -60,9 +128,19 @@ public class Converters {
 		public String toString(Byte object) {
 			return Byte.toString(object);
 		}
+
+		@Override
+		public void appendTo(Byte object, Appendable out) throws IOException {
+			append(object.longValue(), out);
+		}
+
+		@Override
+		public Byte parse(CharSequence chars, int from, int to) {
+			return (byte) parseLong(chars, from, to, Byte.MIN_VALUE, Byte.MAX_VALUE);
+		}
 	}
 
-	private static final class ShortConverter implements Converter<Short> {
+	private static final class ShortConverter implements ExtendedConverter<Short> {
 
 		@Override
 		public Short toObject(String string) {
@@ -73,9 +151,32 @@ public class Converters {
 		public String toString(Short object) {
 			return Short.toString(object);
 		}
+
+		@Override
+		public void appendTo(Short object, Appendable out) throws IOException {
+			append(object.longValue(), out);
+		}
+
+		@Override
+		public Short parse(CharSequence chars, int from, int to) {
+			return (short) parseLong(chars, from, to, Short.MIN_VALUE, Short.MAX_VALUE);
+		}
 	}
 
-	private static final class IntegerConverter implements Converter<Integer> {
+	private static final class DefaultIntegerConverter implements ExtendedConverter<Integer>, PrimitiveProvider {
+
+		private final IntConverter primitive = new IntConverter() {
+
+			@Override
+			public int parse(CharSequence chars, int from, int to) {
+				return (int) parseLong(chars, from, to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			}
+
+			@Override
+			public void append(int value, StringBuilder sb) {
+				sb.append(value);
+			}
+		};
 
 		@Override
 		public Integer toObject(String string) {
@@ -86,9 +187,37 @@ public class Converters {
 		public String toString(Integer object) {
 			return Integer.toString(object);
 		}
+
+		@Override
+		public void appendTo(Integer object, Appendable out) throws IOException {
+			append(object.longValue(), out);
+		}
+
+		@Override
+		public Integer parse(CharSequence chars, int from, int to) {
+			return primitive.parse(chars, from, to);
+		}
+
+		@Override
+		public Object getPrimitiveConverter() {
+			return primitive;
+		}
 	}
 
-	private static final class LongConverter implements Converter<Long> {
+	private static final class DefaultLongConverter implements ExtendedConverter<Long>, PrimitiveProvider {
+
+		private final LongConverter primitive = new LongConverter() {
+
+			@Override
+			public long parse(CharSequence chars, int from, int to) {
+				return parseLong(chars, from, to, Long.MIN_VALUE, Long.MAX_VALUE);
+			}
+
+			@Override
+			public void append(long value, StringBuilder sb) {
+				sb.append(value);
+			}
+		};
 
 		@Override
 		public Long toObject(String string) {
@@ -99,9 +228,24 @@ public class Converters {
 		public String toString(Long object) {
 			return Long.toString(object);
 		}
+
+		@Override
+		public void appendTo(Long object, Appendable out) throws IOException {
+			append(object.longValue(), out);
+		}
+
+		@Override
+		public Long parse(CharSequence chars, int from, int to) {
+			return primitive.parse(chars, from, to);
+		}
+
+		@Override
+		public Object getPrimitiveConverter() {
+			return primitive;
+		}
 	}
 
-	private static final class FloatConverter implements Converter<Float> {
+	private static final class FloatConverter implements ExtendedConverter<Float> {
 
 		@Override
 		public Float toObject(String string) {
@@ -112,9 +256,36 @@ public class Converters {
 		public String toString(Float object) {
 			return Float.toString(object);
 		}
+
+		@Override
+		public void appendTo(Float object, Appendable out) throws IOException {
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(object.floatValue());
+			} else {
+				out.append(Float.toString(object));
+			}
+		}
+
+		@Override
+		public Float parse(CharSequence chars, int from, int to) {
+			return Float.parseFloat(chars.subSequence(from, to).toString());
+		}
 	}
 
-	private static final class DoubleConverter implements Converter<Double> {
+	private static final class DefaultDoubleConverter implements ExtendedConverter<Double>, PrimitiveProvider {
+
+		private final DoubleConverter primitive = new DoubleConverter() {
+
+			@Override
+			public double parse(CharSequence chars, int from, int to) {
+				return parseDouble(chars, from, to);
+			}
+
+			@Override
+			public void append(double value, StringBuilder sb) {
+				sb.append(value);
+			}
+		};
 
 		@Override
 		public Double toObject(String string) {
@@ -125,9 +296,28 @@ public class Converters {
 		public String toString(Double object) {
 			return Double.toString(object);
 		}
+
+		@Override
+		public void appendTo(Double object, Appendable out) throws IOException {
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(object.doubleValue());
+			} else {
+				out.append(Double.toString(object));
+			}
+		}
+
+		@Override
+		public Double parse(CharSequence chars, int from, int to) {
+			return parseDouble(chars, from, to);
+		}
+
+		@Override
+		public Object getPrimitiveConverter() {
+			return primitive;
+		}
 	}
 
-	private static final class VoidConverter implements Converter<Void> {
+	private static final class VoidConverter implements ExtendedConverter<Void> {
 
 		@Override
 		public Void toObject(String string) {
@@ -138,9 +328,19 @@ public class Converters {
 		public String toString(Void object) {
 			return "";
 		}
+
+		@Override
+		public void appendTo(Void object, Appendable out) {
+			// nothing to append
+		}
+
+		@Override
+		public Void parse(CharSequence chars, int from, int to) {
+			return null;
+		}
 	}
 
-	private static final class BigDecimalConverter implements Converter<BigDecimal> {
+	private static final class BigDecimalConverter implements ExtendedConverter<BigDecimal> {
 
 		@Override
 		public BigDecimal toObject(String string) {
@@ -151,9 +351,23 @@ public class Converters {
 		public String toString(BigDecimal object) {
 			return object.toEngineeringString();
 		}
+
+		@Override
+		public void appendTo(BigDecimal object, Appendable out) throws IOException {
+			out.append(object.toEngineeringString());
+		}
+
+		@Override
+		public BigDecimal parse(CharSequence chars, int from, int to) {
+			int n = to - from;
+			if (n > 0 && n <= 18 && isDigits(chars, from, to)) {
+				return BigDecimal.valueOf(parseLong(chars, from, to, Long.MIN_VALUE, Long.MAX_VALUE));
+			}
+			return new BigDecimal(chars.subSequence(from, to).toString());
+		}
 	}
 
-	private static final class BigIntegerConverter implements Converter<BigInteger> {
+	private static final class BigIntegerConverter implements ExtendedConverter<BigInteger> {
 
 		@Override
 		public BigInteger toObject(String string) {
@@ -164,55 +378,237 @@ public class Converters {
 		public String toString(BigInteger object) {
 			return object.toString();
 		}
+
+		@Override
+		public void appendTo(BigInteger object, Appendable out) throws IOException {
+			out.append(object.toString());
+		}
+
+		@Override
+		public BigInteger parse(CharSequence chars, int from, int to) {
+			int n = to - from;
+			if (n > 0 && n <= 18 && isDigits(chars, from, to)) {
+				return BigInteger.valueOf(parseLong(chars, from, to, Long.MIN_VALUE, Long.MAX_VALUE));
+			}
+			return new BigInteger(chars.subSequence(from, to).toString());
+		}
 	}
 
 	/**
-	 * Mapping from primitive to boxing type.
+	 * Append decimal number, without temporary string when appending to
+	 * string builder.
 	 */
-	private static final Map<Class<?>, Class<?>> PRIMITIVES_MAPPING = new HashMap<Class<?>, Class<?>>();
+	private static void append(long value, Appendable out) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+		} else {
+			out.append(Long.toString(value));
+		}
+	}
 
 	/**
-	 * Converters mapping.
+	 * @return True if there are only ASCII digits between given indexes,
+	 *         optionally preceded by minus sign
 	 */
-	private static final Map<Class<?>, Converter<?>> CONVERTERS = new HashMap<Class<?>, Converter<?>>();
+	private static boolean isDigits(CharSequence chars, int from, int to) {
+		int i = from;
+		if (chars.charAt(i) == '-' && to - from > 1) {
+			i++;
+		}
+		for (; i < to; i++) {
+			char c = chars.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
 
 	/**
-	 * Is reactor initialized.
+	 * Exact powers of ten, used to parse short decimal numbers.
 	 */
-	private static boolean initialized = false;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+	};
+
+	private static NumberFormatException numberFormat(CharSequence chars, int from, int to) {
+		return new NumberFormatException(String.format("For input string: \"%s\"", chars.subSequence(from, to)));
+	}
 
 	/**
-	 * Initialize converters.
+	 * Parse decimal long the same way as {@link Long#parseLong(String)}.
 	 */
-	private static void init() {
-
-		if (initialized) {
-			return;
-		}
-
-		PRIMITIVES_MAPPING.put(boolean.class, Boolean.class);
-		PRIMITIVES_MAPPING.put(char.class, Character.class);
-		PRIMITIVES_MAPPING.put(byte.class, Byte.class);
-		PRIMITIVES_MAPPING.put(short.class, Short.class);
-		PRIMITIVES_MAPPING.put(int.class, Integer.class);
-		PRIMITIVES_MAPPING.put(long.class, Long.class);
-		PRIMITIVES_MAPPING.put(float.class, Float.class);
-		PRIMITIVES_MAPPING.put(double.class, Double.class);
-
-		register(String.class, new StringConverter());
-		register(boolean.class, new BooleanConverter());
-		register(char.class, new CharacterConverter());
-		register(byte.class, new ByteConverter());
-		register(short.class, new ShortConverter());
-		register(int.class, new IntegerConverter());
-		register(long.class, new LongConverter());
-		register(float.class, new FloatConverter());
-		register(double.class, new DoubleConverter());
-		register(Void.class, new VoidConverter());
-		register(BigDecimal.class, new BigDecimalConverter());
-		register(BigInteger.class, new BigIntegerConverter());
-
-		initialized = true;
+	private static long parseLong(CharSequence chars, int from, int to) {
+
+		if (from >= to) {
+			throw numberFormat(chars, from, to);
+		}
+
+		int i = from;
+		boolean negative = false;
+
+		char c = chars.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			if (++i == to) {
+				throw numberFormat(chars, from, to);
+			}
+		}
+
+		// accumulate negatively, because minimum value has no positive
+		// counterpart
+
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+
+		for (; i < to; i++) {
+			int digit = chars.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value < limit / 10) {
+				throw numberFormat(chars, from, to);
+			}
+			value *= 10;
+			if (value < limit + digit) {
+				throw numberFormat(chars, from, to);
+			}
+			value -= digit;
+		}
+
+		return negative ? value : -value;
+	}
+
+	/**
+	 * Parse decimal long and check if it fits in given range.
+	 */
+	private static long parseLong(CharSequence chars, int from, int to, long min, long max) {
+		long value = parseLong(chars, from, to);
+		if (value < min || value > max) {
+			throw numberFormat(chars, from, to);
+		}
+		return value;
+	}
+
+	/**
+	 * Parse double. Plain decimal numbers with up to 15 digits and small
+	 * exponent are computed exactly from long mantissa, others are passed to
+	 * {@link Double#parseDouble(String)}.
+	 */
+	private static double parseDouble(CharSequence chars, int from, int to) {
+
+		int i = from;
+		boolean negative = false;
+
+		if (i < to && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+			negative = chars.charAt(i++) == '-';
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean dot = false;
+		int start = i;
+
+		for (; i < to; i++) {
+			char c = chars.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (mantissa != 0 || c != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (dot) {
+					scale++;
+				}
+				if (digits > 15) {
+					break;
+				}
+			} else if (c == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+
+		int exponent = 0;
+
+		if (i < to && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E') && digits <= 15) {
+			int e = i + 1;
+			boolean en = false;
+			if (e < to && (chars.charAt(e) == '-' || chars.charAt(e) == '+')) {
+				en = chars.charAt(e++) == '-';
+			}
+			int ed = e;
+			for (; e < to && e - ed < 4; e++) {
+				char c = chars.charAt(e);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				exponent = exponent * 10 + (c - '0');
+			}
+			if (e > ed) {
+				exponent = en ? -exponent : exponent;
+				i = e;
+			}
+		}
+
+		int power = exponent - scale;
+		boolean valid = i == to && i > start && (i - start > 1 || !dot);
+
+		if (valid && digits <= 15 && power >= -22 && power <= 22) {
+			double value = mantissa;
+			value = power < 0 ? value / POWERS_OF_TEN[-power] : value * POWERS_OF_TEN[power];
+			return negative ? -value : value;
+		}
+
+		return Double.parseDouble(chars.subSequence(from, to).toString());
+	}
+
+	/**
+	 * Parse boolean the same way as {@link Boolean#parseBoolean(String)}.
+	 */
+	private static boolean parseBoolean(CharSequence chars, int from, int to) {
+		if (to - from != 4) {
+			return false;
+		}
+		String t = "true";
+		for (int i = 0; i < 4; i++) {
+			if (Character.toLowerCase(chars.charAt(from + i)) != t.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Current registry, with built-in converters and the ones registered
+	 * globally.
+	 */
+	private static volatile ConverterRegistry registry = new ConverterRegistry()
+		.with(String.class, new StringConverter())
+		.with(boolean.class, new DefaultBooleanConverter())
+		.with(char.class, new CharacterConverter())
+		.with(byte.class, new ByteConverter())
+		.with(short.class, new ShortConverter())
+		.with(int.class, new DefaultIntegerConverter())
+		.with(long.class, new DefaultLongConverter())
+		.with(float.class, new FloatConverter())
+		.with(double.class, new DefaultDoubleConverter())
+		.with(Void.class, new VoidConverter())
+		.with(BigDecimal.class, new BigDecimalConverter())
+		.with(BigInteger.class, new BigIntegerConverter());
+
+	/**
+	 * Lock used to serialize registry updates. Lookups do not use it.
+	 */
+	private static final Object LOCK = new Object();
+
+	/**
+	 * Return current global registry. It is immutable, converters registered
+	 * later are not visible in it.
+	 * 
+	 * @return Converter registry
+	 */
+	public static ConverterRegistry getRegistry() {
+		return registry;
 	}
 
 	/**
@@ -223,9 +619,8 @@ public class Converters {
 	 * @param converter the converter to be registered
 	 */
 	public static <C> void register(Class<C> clazz, Converter<C> converter) {
-		CONVERTERS.put(clazz, converter);
-		if (clazz.isPrimitive()) {
-			CONVERTERS.put(PRIMITIVES_MAPPING.get(clazz), converter);
+		synchronized (LOCK) {
+			registry = registry.with(clazz, converter);
 		}
 	}
 
@@ -236,9 +631,8 @@ public class Converters {
 	 * @param clazz the class which should be unregistered
 	 */
 	public static <C> void unregister(Class<C> clazz) {
-		CONVERTERS.remove(clazz);
-		if (clazz.isPrimitive()) {
-			CONVERTERS.remove(PRIMITIVES_MAPPING.get(clazz));
+		synchronized (LOCK) {
+			registry = registry.without(clazz);
 		}
 	}
 
@@ -249,8 +643,46 @@ public class Converters {
 	 * @return True if object of given type can be converted, false otherwise
 	 */
 	public static boolean canConvert(Class<?> type) {
-		init();
-		return CONVERTERS.get(type) != null;
+		return registry.canConvert(type);
+	}
+
+	/**
+	 * Return converter registered for given type.
+	 * 
+	 * @param <C> the type of objects translated by converter
+	 * @param type the type to get converter for
+	 * @return Converter for given type
+	 * @throws IllegalArgumentException when there is no converter for given type
+	 */
+	public static <C> Converter<C> getConverter(Class<?> type) {
+		return registry.getConverter(type);
+	}
+
+	/**
+	 * Return converter registered for given type, as extended converter. Plain
+	 * converters are wrapped in adapter which appends and parses through
+	 * strings.
+	 * 
+	 * @param <C> the type of objects translated by converter
+	 * @param type the type to get converter for
+	 * @return Extended converter for given type
+	 * @throws IllegalArgumentException when there is no converter for given type
+	 */
+	public static <C> ExtendedConverter<C> getExtendedConverter(Class<?> type) {
+		return registry.getExtendedConverter(type);
+	}
+
+	/**
+	 * Return boxing-free converter for given type. This is either built-in
+	 * primitive converter or registered converter itself, when it implements
+	 * one of {@link IntConverter}, {@link LongConverter},
+	 * {@link DoubleConverter} or {@link BooleanConverter}.
+	 * 
+	 * @param type the type to get converter for
+	 * @return Primitive converter or null if there is none
+	 */
+	public static Object getPrimitiveConverter(Class<?> type) {
+		return registry.getPrimitiveConverter(type);
 	}
 
 	/**
@@ -260,19 +692,7 @@ public class Converters {
 	 * @return String representation of given object
 	 */
 	public static final String toString(Object object) {
-
-		init();
-
-		Class<?> clazz = object.getClass();
-
-		@SuppressWarnings("unchecked")
-		Converter<Object> cnv = (Converter<Object>) CONVERTERS.get(clazz);
-
-		if (cnv == null) {
-			throw new IllegalArgumentException(String.format("Translator for %s not found", clazz));
-		}
-
-		return cnv.toString(object);
+		return registry.toString(object);
 	}
 
 	/**
@@ -283,15 +703,7 @@ public class Converters {
 	 * @return Object of the class given in the argument
 	 */
 	public static final Object toObject(Class<?> clazz, String string) {
-
-		init();
-
-		Converter<?> cnv = CONVERTERS.get(clazz);
-		if (cnv == null) {
-			throw new IllegalArgumentException(String.format("Translator for %s not found", clazz));
-		}
-
-		return cnv.toObject(string);
+		return registry.toObject(clazz, string);
 	}
 
 }
@@ -0,0 +1,252 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Raw deflate compression (no GZIP or ZLIB header and trailer). Every thread
+ * keeps one deflater and one inflater, which are reset after use, so native
+ * compression context is not allocated for every token. Nested use on the
+ * same thread gets new instance, which is then kept or ended. Virtual threads
+ * use shared lock-free pool instead of thread-local instances.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class Deflate {
+
+	/**
+	 * Deflater owned by current thread, null when it is in use.
+	 */
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>();
+
+	/**
+	 * Inflater owned by current thread, null when it is in use.
+	 */
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>();
+
+	/**
+	 * Maximum number of deflaters and inflaters pooled for virtual threads.
+	 */
+	private static final int POOL_SIZE = Math.max(16, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final ConcurrentLinkedQueue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<Deflater>();
+
+	private static final ConcurrentLinkedQueue<Inflater> INFLATERS = new ConcurrentLinkedQueue<Inflater>();
+
+	private static final AtomicInteger DEFLATERS_POOLED = new AtomicInteger();
+
+	private static final AtomicInteger INFLATERS_POOLED = new AtomicInteger();
+
+	private static final Deflater borrowDeflater() {
+		if (Threads.isVirtual(Thread.currentThread())) {
+			Deflater deflater = DEFLATERS.poll();
+			if (deflater == null) {
+				return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			}
+			DEFLATERS_POOLED.decrementAndGet();
+			return deflater;
+		}
+		Deflater deflater = DEFLATER.get();
+		if (deflater == null) {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		DEFLATER.set(null);
+		return deflater;
+	}
+
+	private static final void release(Deflater deflater) {
+		if (Threads.isVirtual(Thread.currentThread())) {
+			if (DEFLATERS_POOLED.incrementAndGet() <= POOL_SIZE) {
+				deflater.reset();
+				DEFLATERS.offer(deflater);
+			} else {
+				DEFLATERS_POOLED.decrementAndGet();
+				deflater.end();
+			}
+		} else if (DEFLATER.get() == null) {
+			deflater.reset();
+			DEFLATER.set(deflater);
+		} else {
+			deflater.end();
+		}
+	}
+
+	private static final Inflater borrowInflater() {
+		if (Threads.isVirtual(Thread.currentThread())) {
+			Inflater inflater = INFLATERS.poll();
+			if (inflater == null) {
+				return new Inflater(true);
+			}
+			INFLATERS_POOLED.decrementAndGet();
+			return inflater;
+		}
+		Inflater inflater = INFLATER.get();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		INFLATER.set(null);
+		return inflater;
+	}
+
+	private static final void release(Inflater inflater) {
+		if (Threads.isVirtual(Thread.currentThread())) {
+			if (INFLATERS_POOLED.incrementAndGet() <= POOL_SIZE) {
+				inflater.reset();
+				INFLATERS.offer(inflater);
+			} else {
+				INFLATERS_POOLED.decrementAndGet();
+				inflater.end();
+			}
+		} else if (INFLATER.get() == null) {
+			inflater.reset();
+			INFLATER.set(inflater);
+		} else {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Compress bytes.
+	 *
+	 * @param bytes the bytes to be compressed
+	 * @param offset the first byte to be compressed
+	 * @param length the number of bytes to be compressed
+	 * @return Array of compressed bytes
+	 */
+	public static final byte[] compress(byte[] bytes, int offset, int length) {
+
+		Deflater deflater = borrowDeflater();
+
+		try {
+
+			deflater.setInput(bytes, offset, length);
+			deflater.finish();
+
+			byte[] output = new byte[length + 16];
+			int n = 0;
+
+			while (!deflater.finished()) {
+				if (n == output.length) {
+					output = Arrays.copyOf(output, output.length << 1);
+				}
+				n += deflater.deflate(output, n, output.length - n);
+			}
+
+			return Arrays.copyOf(output, n);
+
+		} finally {
+			release(deflater);
+		}
+	}
+
+	/**
+	 * Uncompress bytes.
+	 *
+	 * @param bytes the bytes to be uncompressed
+	 * @param offset the first byte to be uncompressed
+	 * @param length the number of bytes to be uncompressed
+	 * @return Array of uncompressed bytes
+	 */
+	public static final byte[] uncompress(byte[] bytes, int offset, int length) {
+
+		Inflater inflater = borrowInflater();
+
+		try {
+
+			inflater.setInput(bytes, offset, length);
+
+			byte[] output = new byte[Math.max(64, length << 2)];
+			int n = 0;
+
+			while (!inflater.finished()) {
+				if (n == output.length) {
+					output = Arrays.copyOf(output, output.length << 1);
+				}
+				int k = inflater.inflate(output, n, output.length - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Truncated compressed token");
+				}
+				n += k;
+			}
+
+			return Arrays.copyOf(output, n);
+
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Malformed compressed token", e);
+		} finally {
+			release(inflater);
+		}
+	}
+
+	/**
+	 * Return stream compressing data written to it. Closing returned stream
+	 * finishes compression and closes given one.
+	 *
+	 * @param out the stream compressed data will be written to
+	 * @param size the buffer size
+	 * @return Compressing stream
+	 */
+	public static final OutputStream compress(OutputStream out, int size) {
+
+		final Deflater deflater = borrowDeflater();
+
+		return new DeflaterOutputStream(out, deflater, size) {
+
+			private boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					super.close();
+				} finally {
+					release(deflater);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Return stream uncompressing data read from given one. Closing returned
+	 * stream closes given one.
+	 *
+	 * @param in the stream compressed data will be read from
+	 * @param size the buffer size
+	 * @return Uncompressing stream
+	 */
+	public static final InputStream uncompress(InputStream in, int size) {
+
+		final Inflater inflater = borrowInflater();
+
+		return new InflaterInputStream(in, inflater, size) {
+
+			private boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					super.close();
+				} finally {
+					release(inflater);
+				}
+			}
+		};
+	}
+}
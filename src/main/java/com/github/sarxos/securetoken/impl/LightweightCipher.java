@@ -0,0 +1,288 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.BlowfishEngine;
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.engines.DESEngine;
+import org.bouncycastle.crypto.engines.IDEAEngine;
+import org.bouncycastle.crypto.engines.NoekeonEngine;
+import org.bouncycastle.crypto.engines.SEEDEngine;
+import org.bouncycastle.crypto.engines.SerpentEngine;
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import com.github.sarxos.securetoken.CipherType;
+
+
+/**
+ * Cipher working directly on BouncyCastle lightweight engines, without JCE.
+ * There is no provider lookup and no key checks, and ECB ciphers are
+ * initialized once, so key schedule is computed only once per instance.
+ * Instances are not thread-safe, every thread should have its own one.
+ * <p>
+ * Tokens are exactly the same as ones created with BC provider: bare algorithm
+ * names use ECB mode with PKCS7 padding, GCM uses 128-bit tag and CTR is
+ * followed by truncated HMAC-SHA256 of nonce and ciphertext.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+final class LightweightCipher {
+
+	private final CipherType type;
+
+	private final KeyParameter key;
+
+	private final BufferedBlockCipher encryptor;
+
+	private final BufferedBlockCipher decryptor;
+
+	private final GCMBlockCipher gcm;
+
+	private final HMac mac;
+
+	/**
+	 * Full MAC of the last token, only part of it is used as tag.
+	 */
+	private final byte[] tag;
+
+	/**
+	 * @param type the cipher type
+	 * @param key the cipher key
+	 * @param macKey the MAC key, null if cipher type has no MAC
+	 */
+	public LightweightCipher(CipherType type, byte[] key, byte[] macKey) {
+
+		this.type = type;
+		this.key = new KeyParameter(key);
+
+		if (type.getMacAlgorithm() != null) {
+			this.encryptor = new BufferedBlockCipher(new SICBlockCipher(engine(type)));
+			this.decryptor = new BufferedBlockCipher(new SICBlockCipher(engine(type)));
+			this.gcm = null;
+			this.mac = new HMac(new SHA256Digest());
+			this.mac.init(new KeyParameter(macKey));
+			this.tag = new byte[mac.getMacSize()];
+		} else if (type.getNonceSize() > 0) {
+			this.encryptor = null;
+			this.decryptor = null;
+			this.gcm = new GCMBlockCipher(engine(type));
+			this.mac = null;
+			this.tag = null;
+		} else {
+			this.encryptor = new PaddedBufferedBlockCipher(engine(type));
+			this.decryptor = new PaddedBufferedBlockCipher(engine(type));
+			this.encryptor.init(true, this.key);
+			this.decryptor.init(false, this.key);
+			this.gcm = null;
+			this.mac = null;
+			this.tag = null;
+		}
+	}
+
+	/**
+	 * @param type the cipher type
+	 * @return True if cipher type is supported
+	 */
+	public static boolean supports(CipherType type) {
+		return type != CipherType.NOOP && engine(type) != null;
+	}
+
+	private static BlockCipher engine(CipherType type) {
+		switch (type) {
+			case DES:
+				return new DESEngine();
+			case AES:
+			case AES_GCM:
+			case AES_CTR_HMAC:
+				return new AESFastEngine();
+			case SEED:
+				return new SEEDEngine();
+			case IDEA:
+				return new IDEAEngine();
+			case NOEKEON:
+				return new NoekeonEngine();
+			case TWOFISH:
+				return new TwofishEngine();
+			case BLOWFISH:
+				return new BlowfishEngine();
+			case CAMELIA:
+				return new CamelliaEngine();
+			case SERPENT:
+				return new SerpentEngine();
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Return maximum number of bytes written by encryption of given number of
+	 * bytes.
+	 *
+	 * @param length the number of bytes to be encrypted
+	 * @return Maximum encrypted size, with nonce and tag
+	 */
+	public int getOutputSize(int length) {
+		if (encryptor != null && mac == null) {
+			return encryptor.getOutputSize(length);
+		}
+		return type.getNonceSize() + length + type.getTagSize();
+	}
+
+	/**
+	 * Encrypt data.
+	 *
+	 * @param data the data to be encrypted
+	 * @param nonce the nonce, ignored by cipher types without nonce
+	 * @return Encrypted data, preceded by nonce and followed by tag if cipher
+	 *         type has them
+	 */
+	public byte[] encrypt(byte[] data, byte[] nonce) {
+		byte[] out = new byte[getOutputSize(data.length)];
+		int n = encrypt(data, 0, data.length, nonce, out, 0);
+		return n == out.length ? out : Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Encrypt part of array into given array.
+	 *
+	 * @param data the array with data to be encrypted
+	 * @param offset the first byte to be encrypted
+	 * @param length the number of bytes to be encrypted
+	 * @param nonce the nonce, ignored by cipher types without nonce
+	 * @param out the array to write encrypted data to, it has to have room
+	 *            for {@link #getOutputSize(int)} bytes
+	 * @param outOffset the position of the first encrypted byte in output
+	 * @return Number of bytes written, with nonce and tag if cipher type has
+	 *         them
+	 */
+	public int encrypt(byte[] data, int offset, int length, byte[] nonce, byte[] out, int outOffset) {
+		try {
+
+			if (gcm != null) {
+				int n = nonce.length;
+				System.arraycopy(nonce, 0, out, outOffset, n);
+				gcm.init(true, new AEADParameters(key, type.getTagSize() << 3, nonce, null));
+				int k = gcm.processBytes(data, offset, length, out, outOffset + n);
+				k += gcm.doFinal(out, outOffset + n + k);
+				return n + k;
+			}
+
+			if (mac != null) {
+				int n = nonce.length;
+				System.arraycopy(nonce, 0, out, outOffset, n);
+				encryptor.init(true, new ParametersWithIV(key, nonce));
+				int k = encryptor.processBytes(data, offset, length, out, outOffset + n);
+				k += encryptor.doFinal(out, outOffset + n + k);
+				mac.update(out, outOffset, n + k);
+				mac.doFinal(tag, 0);
+				System.arraycopy(tag, 0, out, outOffset + n + k, type.getTagSize());
+				return n + k + type.getTagSize();
+			}
+
+			int k = encryptor.processBytes(data, offset, length, out, outOffset);
+			return k + encryptor.doFinal(out, outOffset + k);
+
+		} catch (InvalidCipherTextException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Decrypt data.
+	 *
+	 * @param data the data to be decrypted
+	 * @return Decrypted data
+	 * @throws IllegalArgumentException when authenticated data has been
+	 *             modified
+	 */
+	public byte[] decrypt(byte[] data) {
+		return decrypt(data, 0, data.length);
+	}
+
+	/**
+	 * Decrypt part of array.
+	 *
+	 * @param data the array with data to be decrypted
+	 * @param offset the first byte to be decrypted
+	 * @param length the number of bytes to be decrypted
+	 * @return Decrypted data
+	 * @throws IllegalArgumentException when authenticated data has been
+	 *             modified
+	 */
+	public byte[] decrypt(byte[] data, int offset, int length) {
+		int padded = encryptor != null && mac == null ? length : length - type.getNonceSize() - type.getTagSize();
+		byte[] out = new byte[Math.max(padded, 0)];
+		int k = decrypt(data, offset, length, out, 0);
+		return k == out.length ? out : Arrays.copyOf(out, k);
+	}
+
+	/**
+	 * Decrypt part of array into given array. Decrypted data is never longer
+	 * than encrypted one.
+	 *
+	 * @param data the array with data to be decrypted
+	 * @param offset the first byte to be decrypted
+	 * @param length the number of bytes to be decrypted
+	 * @param out the array to write decrypted data to, it has to have room
+	 *            for given number of bytes
+	 * @param outOffset the position of the first decrypted byte in output
+	 * @return Number of bytes written
+	 * @throws IllegalArgumentException when authenticated data has been
+	 *             modified
+	 */
+	public int decrypt(byte[] data, int offset, int length, byte[] out, int outOffset) {
+
+		int n = type.getNonceSize();
+		int t = type.getTagSize();
+
+		if (length < n + t) {
+			throw new IllegalArgumentException("Token is too short");
+		}
+
+		try {
+
+			if (gcm != null) {
+				gcm.init(false, new ParametersWithIV(key, data, offset, n));
+				int k = gcm.processBytes(data, offset + n, length - n, out, outOffset);
+				return k + gcm.doFinal(out, outOffset + k);
+			}
+
+			if (mac != null) {
+				int end = offset + length - t;
+				mac.update(data, offset, end - offset);
+				mac.doFinal(tag, 0);
+				int diff = 0;
+				for (int i = 0; i < t; i++) {
+					diff |= tag[i] ^ data[end + i];
+				}
+				if (diff != 0) {
+					throw new IllegalArgumentException("Token authentication failed");
+				}
+				decryptor.init(false, new ParametersWithIV(key, data, offset, n));
+				int k = decryptor.processBytes(data, offset + n, end - offset - n, out, outOffset);
+				return k + decryptor.doFinal(out, outOffset + k);
+			}
+
+			int k = decryptor.processBytes(data, offset, length, out, outOffset);
+			return k + decryptor.doFinal(out, outOffset + k);
+
+		} catch (InvalidCipherTextException e) {
+			if (gcm != null) {
+				throw new IllegalArgumentException("Token authentication failed", e);
+			}
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.TokenAccessor;
+import com.github.sarxos.securetoken.TokenFormat;
+import com.github.sarxos.securetoken.annotation.TokenPart;
+
+
+/**
+ * Token accessor used for classes without generated one. Fields and
+ * constructor are resolved once into method handles.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the token type
+ */
+public final class ReflectiveAccessor<T extends Token> extends TokenAccessor<T> {
+
+	/**
+	 * Getter signature.
+	 */
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	/**
+	 * Setter signature.
+	 */
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/**
+	 * Constructor signature.
+	 */
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+	/**
+	 * Default constructor of type ()Object.
+	 */
+	private final MethodHandle constructor;
+
+	/**
+	 * Field getters of type (Object)Object.
+	 */
+	private final MethodHandle[] getters;
+
+	/**
+	 * Field setters of type (Object,Object)void.
+	 */
+	private final MethodHandle[] setters;
+
+	/**
+	 * Getters of primitive int, long, double and boolean fields, of type
+	 * (Object)field type, null for other fields.
+	 */
+	private final MethodHandle[] primitiveGetters;
+
+	/**
+	 * Setters of primitive int, long, double and boolean fields, of type
+	 * (Object,field type)void, null for other fields.
+	 */
+	private final MethodHandle[] primitiveSetters;
+
+	/**
+	 * Create reflective accessor.
+	 *
+	 * @param type the token class
+	 * @param fields the fields annotated as token parts
+	 * @param delimiter the token delimiter
+	 */
+	public ReflectiveAccessor(Class<T> type, Field[] fields, String delimiter) {
+		this(type, fields, delimiter, TokenFormat.TEXT);
+	}
+
+	/**
+	 * Create reflective accessor.
+	 *
+	 * @param type the token class
+	 * @param fields the fields annotated as token parts
+	 * @param delimiter the token delimiter
+	 * @param format the token format
+	 */
+	public ReflectiveAccessor(Class<T> type, Field[] fields, String delimiter, TokenFormat format) {
+		this(type, fields, delimiter, format, Reflector.getConstructor(type));
+	}
+
+	/**
+	 * Create reflective accessor from token class metadata.
+	 *
+	 * @param metadata the token class metadata
+	 */
+	public ReflectiveAccessor(TokenMetadata<T> metadata) {
+		this(metadata.getType(), metadata.getParts(), metadata.getDelimiter(), metadata.getFormat(), metadata.getConstructor());
+	}
+
+	private ReflectiveAccessor(Class<T> type, Field[] fields, String delimiter, TokenFormat format, Constructor<T> ctor) {
+
+		super(type, delimiter, format, names(fields), tags(fields), types(fields));
+
+		if (ctor == null) {
+			throw new IllegalArgumentException(String.format("Default constructor missing in %s", type));
+		}
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		this.getters = new MethodHandle[fields.length];
+		this.setters = new MethodHandle[fields.length];
+		this.primitiveGetters = new MethodHandle[fields.length];
+		this.primitiveSetters = new MethodHandle[fields.length];
+
+		try {
+
+			this.constructor = lookup.unreflectConstructor(ctor).asType(CONSTRUCTOR_TYPE);
+
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				field.setAccessible(true);
+				MethodHandle getter = lookup.unreflectGetter(field);
+				MethodHandle setter = lookup.unreflectSetter(field);
+				getters[i] = getter.asType(GETTER_TYPE);
+				setters[i] = setter.asType(SETTER_TYPE);
+				Class<?> ft = field.getType();
+				if (ft == int.class || ft == long.class || ft == double.class || ft == boolean.class) {
+					primitiveGetters[i] = getter.asType(MethodType.methodType(ft, Object.class));
+					primitiveSetters[i] = setter.asType(MethodType.methodType(void.class, Object.class, ft));
+				}
+			}
+
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String[] names(Field[] fields) {
+		String[] names = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getAnnotation(TokenPart.class).value();
+		}
+		return names;
+	}
+
+	private static int[] tags(Field[] fields) {
+		int[] tags = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			tags[i] = fields[i].getAnnotation(TokenPart.class).tag();
+		}
+		return tags;
+	}
+
+	private static Class<?>[] types(Field[] fields) {
+		Class<?>[] types = new Class<?>[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			types[i] = fields[i].getType();
+		}
+		return types;
+	}
+
+	@Override
+	public T newInstance() {
+		try {
+			return getType().cast(constructor.invokeExact());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Object get(T token, int part) {
+		try {
+			return (Object) getters[part].invokeExact((Object) token);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void set(T token, int part, Object value) {
+		try {
+			setters[part].invokeExact((Object) token, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int getInt(T token, int part) {
+		try {
+			return (int) primitiveGetters[part].invokeExact((Object) token);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setInt(T token, int part, int value) {
+		try {
+			primitiveSetters[part].invokeExact((Object) token, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public long getLong(T token, int part) {
+		try {
+			return (long) primitiveGetters[part].invokeExact((Object) token);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setLong(T token, int part, long value) {
+		try {
+			primitiveSetters[part].invokeExact((Object) token, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public double getDouble(T token, int part) {
+		try {
+			return (double) primitiveGetters[part].invokeExact((Object) token);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setDouble(T token, int part, double value) {
+		try {
+			primitiveSetters[part].invokeExact((Object) token, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public boolean getBoolean(T token, int part) {
+		try {
+			return (boolean) primitiveGetters[part].invokeExact((Object) token);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setBoolean(T token, int part, boolean value) {
+		try {
+			primitiveSetters[part].invokeExact((Object) token, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pool of scratch arrays for intermediate token data, so that tokens read from
+ * buffers do not allocate new arrays for every stage. Every thread keeps few
+ * arrays of its own, virtual threads share lock-free pool. Arrays over
+ * {@link #MAX_POOLED_SIZE} are not kept, so one huge token does not make
+ * thread hold huge array forever.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class ScratchBuffers {
+
+	/**
+	 * Size of the largest array which is kept after use.
+	 */
+	public static final int MAX_POOLED_SIZE = 64 * 1024;
+
+	/**
+	 * Size of the smallest array created.
+	 */
+	private static final int MIN_SIZE = 512;
+
+	/**
+	 * Number of arrays kept by every platform thread, enough for all stages of
+	 * one token.
+	 */
+	private static final int THREAD_SLOTS = 3;
+
+	/**
+	 * Maximum number of arrays shared by virtual threads.
+	 */
+	private static final int POOL_SIZE = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+	/**
+	 * Arrays owned by current thread, null slots are in use or not created.
+	 */
+	private static final ThreadLocal<byte[][]> SLOTS = new ThreadLocal<byte[][]>() {
+
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[THREAD_SLOTS][];
+		}
+	};
+
+	private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+
+	private static final AtomicInteger POOLED = new AtomicInteger();
+
+	/**
+	 * Return array of at least given size. It has to be given back with
+	 * {@link #release(byte[])} and must not be used afterwards.
+	 *
+	 * @param size the minimum array size
+	 * @return Array, its content is undefined
+	 */
+	public static final byte[] acquire(int size) {
+
+		if (Threads.isVirtual(Thread.currentThread())) {
+			byte[] array = POOL.poll();
+			if (array != null) {
+				POOLED.decrementAndGet();
+				if (array.length >= size) {
+					return array;
+				}
+			}
+			return allocate(size);
+		}
+
+		byte[][] slots = SLOTS.get();
+		for (int i = 0; i < slots.length; i++) {
+			byte[] array = slots[i];
+			if (array != null && array.length >= size) {
+				slots[i] = null;
+				return array;
+			}
+		}
+
+		return allocate(size);
+	}
+
+	private static byte[] allocate(int size) {
+		int n = MIN_SIZE;
+		while (n < size && n < MAX_POOLED_SIZE) {
+			n <<= 1;
+		}
+		return new byte[Math.max(n, size)];
+	}
+
+	/**
+	 * Give array back to pool.
+	 *
+	 * @param array the array acquired before, may be null
+	 */
+	public static final void release(byte[] array) {
+
+		if (array == null || array.length > MAX_POOLED_SIZE) {
+			return;
+		}
+
+		if (Threads.isVirtual(Thread.currentThread())) {
+			if (POOLED.incrementAndGet() <= POOL_SIZE) {
+				POOL.offer(array);
+			} else {
+				POOLED.decrementAndGet();
+			}
+			return;
+		}
+
+		byte[][] slots = SLOTS.get();
+		int smallest = -1;
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] == null) {
+				slots[i] = array;
+				return;
+			}
+			if (smallest == -1 || slots[i].length < slots[smallest].length) {
+				smallest = i;
+			}
+		}
+
+		if (slots[smallest].length < array.length) {
+			slots[smallest] = array;
+		}
+	}
+}
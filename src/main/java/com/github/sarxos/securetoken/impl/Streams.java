@@ -0,0 +1,244 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+
+
+/**
+ * Stream utilities.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class Streams {
+
+	/**
+	 * Return stream which does not close given one. It is used to close whole
+	 * chain of filter streams (which finishes compression, encryption and
+	 * encoding) while leaving stream passed by caller open.
+	 *
+	 * @param out the stream to be protected
+	 * @return Stream which only flushes on close
+	 */
+	public static final OutputStream shield(OutputStream out) {
+		return new FilterOutputStream(out) {
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.flush();
+			}
+		};
+	}
+
+	/**
+	 * Return stream which does not close given one.
+	 *
+	 * @param in the stream to be protected
+	 * @return Stream which does nothing on close
+	 */
+	public static final InputStream shield(InputStream in) {
+		return new FilterInputStream(in) {
+
+			@Override
+			public void close() throws IOException {
+				// leave stream open
+			}
+		};
+	}
+
+	/**
+	 * Return stream which passes data to given one and calculates its MAC.
+	 * Closing returned stream writes MAC, truncated to given size, and closes
+	 * given stream.
+	 *
+	 * @param out the stream to be signed
+	 * @param mac the initialized MAC
+	 * @param size the MAC size to be written
+	 * @return Signing stream
+	 */
+	public static final OutputStream sign(OutputStream out, final Mac mac, final int size) {
+		return new FilterOutputStream(out) {
+
+			private boolean closed = false;
+
+			@Override
+			public void write(int b) throws IOException {
+				mac.update((byte) b);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				mac.update(b, off, len);
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					out.write(mac.doFinal(), 0, size);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Stream which holds back last bytes of data read from source, and
+	 * compares them with MAC of preceding bytes when source ends.
+	 */
+	private static final class VerifyingInputStream extends FilterInputStream {
+
+		private final Mac mac;
+		private final int size;
+		private final byte[] buffer;
+
+		private int pos = 0;
+		private int lim = 0;
+		private boolean eof = false;
+		private boolean verified = false;
+
+		public VerifyingInputStream(InputStream in, Mac mac, int size) {
+			super(in);
+			this.mac = mac;
+			this.size = size;
+			this.buffer = new byte[4096 + size];
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			if (len == 0) {
+				return 0;
+			}
+
+			while (lim - pos <= size && !eof) {
+				fill();
+			}
+
+			int n = Math.min(len, lim - pos - size);
+			if (n <= 0) {
+				verify();
+				return -1;
+			}
+
+			System.arraycopy(buffer, pos, b, off, n);
+			mac.update(b, off, n);
+			pos += n;
+
+			return n;
+		}
+
+		private void fill() throws IOException {
+			if (pos > 0) {
+				System.arraycopy(buffer, pos, buffer, 0, lim - pos);
+				lim -= pos;
+				pos = 0;
+			}
+			int k = in.read(buffer, lim, buffer.length - lim);
+			if (k == -1) {
+				eof = true;
+			} else {
+				lim += k;
+			}
+		}
+
+		private void verify() throws IOException {
+			if (verified) {
+				return;
+			}
+			verified = true;
+			if (lim - pos < size) {
+				throw new IOException("Token is too short");
+			}
+			byte[] tag = Arrays.copyOf(mac.doFinal(), size);
+			if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(buffer, pos, pos + size))) {
+				throw new IOException("Token authentication failed");
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] b = new byte[(int) Math.min(n, 512)];
+			long skipped = 0;
+			while (skipped < n) {
+				int k = read(b, 0, (int) Math.min(n - skipped, b.length));
+				if (k == -1) {
+					break;
+				}
+				skipped += k;
+			}
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return Math.max(0, lim - pos - size);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/**
+	 * Return stream which reads data from given one, except MAC at its end,
+	 * which is compared with MAC of data when given stream ends.
+	 *
+	 * @param in the stream with data followed by MAC
+	 * @param mac the initialized MAC
+	 * @param size the MAC size
+	 * @return Verifying stream, it throws {@link IOException} at the end of
+	 *         data if MAC is invalid
+	 */
+	public static final InputStream verify(InputStream in, Mac mac, int size) {
+		return new VerifyingInputStream(in, mac, size);
+	}
+
+	/**
+	 * Return stream which reads given one to its end before closing it, so
+	 * that any trailing checks are done even if reader stops early.
+	 *
+	 * @param in the stream to be drained on close
+	 * @return Draining stream
+	 */
+	public static final InputStream drainOnClose(InputStream in) {
+		return new FilterInputStream(in) {
+
+			@Override
+			public void close() throws IOException {
+				try {
+					byte[] b = new byte[512];
+					while (in.read(b) != -1) {
+						// drain
+					}
+				} finally {
+					in.close();
+				}
+			}
+		};
+	}
+}
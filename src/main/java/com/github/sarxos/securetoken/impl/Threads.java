@@ -0,0 +1,92 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Access to virtual threads on JVMs which have them. Library is compiled for
+ * older Java, so they are looked up reflectively, once.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public class Threads {
+
+	/**
+	 * Thread.isVirtual() of type (Thread)boolean, null if not available.
+	 */
+	private static final MethodHandle IS_VIRTUAL = lookup(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), null if not available.
+	 */
+	private static final MethodHandle NEW_VIRTUAL_EXECUTOR = lookupStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+
+	private static MethodHandle lookup(Class<?> type, String name, MethodType mt) {
+		try {
+			return MethodHandles.publicLookup().findVirtual(type, name, mt);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	private static MethodHandle lookupStatic(Class<?> type, String name, MethodType mt) {
+		try {
+			return MethodHandles.publicLookup().findStatic(type, name, mt);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return True if virtual threads are supported by this JVM
+	 */
+	public static final boolean isVirtualSupported() {
+		return NEW_VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * Return true if given thread is virtual. Thread-local caches do not work
+	 * for virtual threads, because they are usually created for single task.
+	 *
+	 * @param thread the thread to be checked
+	 * @return True if thread is virtual
+	 */
+	public static final boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Create executor which starts new virtual thread for every task.
+	 *
+	 * @return Executor or null if virtual threads are not supported
+	 */
+	public static final ExecutorService newVirtualExecutor() {
+		if (NEW_VIRTUAL_EXECUTOR == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invokeExact();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,1117 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sarxos.securetoken.BooleanConverter;
+import com.github.sarxos.securetoken.DoubleConverter;
+import com.github.sarxos.securetoken.ExtendedConverter;
+import com.github.sarxos.securetoken.IntConverter;
+import com.github.sarxos.securetoken.LongConverter;
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.TokenAccessor;
+import com.github.sarxos.securetoken.TokenFormat;
+
+
+/**
+ * Compiled token codec. It is built once per token class and caches part
+ * names, part accessor, converters and delimiter, so no reflective lookups are
+ * done when token is created from object or object is restored from token.
+ * Codec writes and reads both text and binary token format.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the token type
+ */
+public final class TokenCodec<T extends Token> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Size of char buffer used when token is read from stream.
+	 */
+	private static final int BUFFER_SIZE = 1024;
+
+	// binary wire types
+
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_FIXED64 = 1;
+	private static final int WIRE_LENGTH = 2;
+	private static final int WIRE_FIXED32 = 5;
+
+	/**
+	 * Maximum part tag, so that tag and wire type fit in positive int.
+	 */
+	private static final int MAX_TAG = (1 << 28) - 1;
+
+	// primitive part types
+
+	private static final int PRIMITIVE_NONE = 0;
+	private static final int PRIMITIVE_INT = 1;
+	private static final int PRIMITIVE_LONG = 2;
+	private static final int PRIMITIVE_DOUBLE = 3;
+	private static final int PRIMITIVE_BOOLEAN = 4;
+
+	// binary part kinds
+
+	private static final int KIND_BOOLEAN = 0;
+	private static final int KIND_INTEGER = 1;
+	private static final int KIND_CHAR = 2;
+	private static final int KIND_FLOAT = 3;
+	private static final int KIND_DOUBLE = 4;
+	private static final int KIND_STRING = 5;
+	private static final int KIND_BIG_INTEGER = 6;
+	private static final int KIND_BIG_DECIMAL = 7;
+	private static final int KIND_CONVERTER = 8;
+
+	/**
+	 * Token parts accessor.
+	 */
+	private final TokenAccessor<T> accessor;
+
+	/**
+	 * Token delimiter.
+	 */
+	private final String delimiter;
+
+	/**
+	 * Part names.
+	 */
+	private final String[] names;
+
+	/**
+	 * Converters bound with part types.
+	 */
+	private final ExtendedConverter<Object>[] converters;
+
+	/**
+	 * Part name to part index mapping.
+	 */
+	private final Map<String, Integer> indexes;
+
+	/**
+	 * Delimiter encoded in UTF-8.
+	 */
+	private final byte[] delimiterBytes;
+
+	/**
+	 * Part names followed by = char, encoded in UTF-8.
+	 */
+	private final byte[][] prefixes;
+
+	/**
+	 * Part names followed by = char.
+	 */
+	private final String[] textPrefixes;
+
+	/**
+	 * Primitive types of parts, read and written without boxing.
+	 */
+	private final int[] primitives;
+
+	/**
+	 * Primitive converters bound to primitive parts, null when converter
+	 * registered for part type does not implement primitive interface.
+	 */
+	private final Object[] direct;
+
+	/**
+	 * Part binary kinds.
+	 */
+	private final int[] kinds;
+
+	/**
+	 * Part binary keys, tag and wire type.
+	 */
+	private final int[] keys;
+
+	/**
+	 * Part tags in ascending order, null if tags are not set.
+	 */
+	private final int[] sortedTags;
+
+	/**
+	 * Part indexes in the order of sorted tags.
+	 */
+	private final int[] tagIndexes;
+
+	/**
+	 * Compile codec for given token accessor, with global converters.
+	 *
+	 * @param accessor the token parts accessor
+	 */
+	public TokenCodec(TokenAccessor<T> accessor) {
+		this(accessor, Converters.getRegistry());
+	}
+
+	/**
+	 * Compile codec for given token accessor, with converters from given
+	 * registry.
+	 *
+	 * @param accessor the token parts accessor
+	 * @param registry the converters of token parts
+	 * @throws IllegalArgumentException when registry has no converter for one
+	 *             of token parts
+	 */
+	public TokenCodec(TokenAccessor<T> accessor, ConverterRegistry registry) {
+
+		String delimiter = accessor.getDelimiter();
+		if (delimiter == null || delimiter.length() == 0) {
+			throw new IllegalArgumentException("Token delimiter cannot be empty");
+		}
+
+		int n = accessor.getPartCount();
+
+		this.accessor = accessor;
+		this.delimiter = delimiter;
+		this.names = new String[n];
+		this.converters = newConverters(n);
+		this.indexes = new HashMap<String, Integer>();
+		this.delimiterBytes = delimiter.getBytes(UTF8);
+		this.prefixes = new byte[n][];
+		this.textPrefixes = new String[n];
+		this.primitives = new int[n];
+		this.direct = new Object[n];
+
+		this.kinds = new int[n];
+		this.keys = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			if (!registry.canConvert(accessor.getPartType(i))) {
+				throw new IllegalArgumentException(String.format("Only basic type can be a token part, %s detected", accessor.getPartType(i)));
+			}
+			names[i] = accessor.getPartName(i);
+			converters[i] = registry.getExtendedConverter(accessor.getPartType(i));
+			indexes.put(names[i], i);
+			textPrefixes[i] = names[i] + '=';
+			prefixes[i] = textPrefixes[i].getBytes(UTF8);
+			primitives[i] = primitive(accessor.getPartType(i));
+			direct[i] = direct(primitives[i], registry.getPrimitiveConverter(accessor.getPartType(i)));
+			kinds[i] = kind(accessor.getPartType(i));
+			keys[i] = accessor.getPartTag(i) << 3 | wire(kinds[i]);
+		}
+
+		long[] tags = new long[n];
+		for (int i = 0; i < n; i++) {
+			tags[i] = (long) accessor.getPartTag(i) << 32 | i;
+		}
+
+		Arrays.sort(tags);
+
+		boolean valid = true;
+		for (int i = 0; i < n; i++) {
+			int tag = (int) (tags[i] >> 32);
+			if (tag <= 0 || tag > MAX_TAG || (i > 0 && tag == (int) (tags[i - 1] >> 32))) {
+				valid = false;
+			}
+		}
+
+		if (valid) {
+			this.sortedTags = new int[n];
+			this.tagIndexes = new int[n];
+			for (int i = 0; i < n; i++) {
+				sortedTags[i] = (int) (tags[i] >> 32);
+				tagIndexes[i] = (int) tags[i];
+			}
+		} else if (accessor.getFormat() == TokenFormat.BINARY) {
+			throw new IllegalArgumentException(String.format("Binary token %s requires unique positive tag on every part", accessor.getType()));
+		} else {
+			this.sortedTags = null;
+			this.tagIndexes = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ExtendedConverter<Object>[] newConverters(int n) {
+		return (ExtendedConverter<Object>[]) new ExtendedConverter<?>[n];
+	}
+
+	private static int primitive(Class<?> type) {
+		if (type == int.class) {
+			return PRIMITIVE_INT;
+		}
+		if (type == long.class) {
+			return PRIMITIVE_LONG;
+		}
+		if (type == double.class) {
+			return PRIMITIVE_DOUBLE;
+		}
+		if (type == boolean.class) {
+			return PRIMITIVE_BOOLEAN;
+		}
+		return PRIMITIVE_NONE;
+	}
+
+	private static Object direct(int primitive, Object converter) {
+		switch (primitive) {
+			case PRIMITIVE_INT:
+				return converter instanceof IntConverter ? converter : null;
+			case PRIMITIVE_LONG:
+				return converter instanceof LongConverter ? converter : null;
+			case PRIMITIVE_DOUBLE:
+				return converter instanceof DoubleConverter ? converter : null;
+			case PRIMITIVE_BOOLEAN:
+				return converter instanceof BooleanConverter ? converter : null;
+			default:
+				return null;
+		}
+	}
+
+	private static int kind(Class<?> type) {
+		if (type == boolean.class || type == Boolean.class) {
+			return KIND_BOOLEAN;
+		}
+		if (type == int.class || type == Integer.class || type == long.class || type == Long.class) {
+			return KIND_INTEGER;
+		}
+		if (type == short.class || type == Short.class || type == byte.class || type == Byte.class) {
+			return KIND_INTEGER;
+		}
+		if (type == char.class || type == Character.class) {
+			return KIND_CHAR;
+		}
+		if (type == float.class || type == Float.class) {
+			return KIND_FLOAT;
+		}
+		if (type == double.class || type == Double.class) {
+			return KIND_DOUBLE;
+		}
+		if (type == String.class) {
+			return KIND_STRING;
+		}
+		if (type == BigInteger.class) {
+			return KIND_BIG_INTEGER;
+		}
+		if (type == BigDecimal.class) {
+			return KIND_BIG_DECIMAL;
+		}
+		return KIND_CONVERTER;
+	}
+
+	private static int wire(int kind) {
+		switch (kind) {
+			case KIND_BOOLEAN:
+			case KIND_INTEGER:
+			case KIND_CHAR:
+				return WIRE_VARINT;
+			case KIND_FLOAT:
+				return WIRE_FIXED32;
+			case KIND_DOUBLE:
+				return WIRE_FIXED64;
+			default:
+				return WIRE_LENGTH;
+		}
+	}
+
+	/**
+	 * @return Token class
+	 */
+	public Class<T> getType() {
+		return accessor.getType();
+	}
+
+	/**
+	 * @return Token format
+	 */
+	public TokenFormat getFormat() {
+		return accessor.getFormat();
+	}
+
+	/**
+	 * @return Token delimiter
+	 */
+	public String getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * Create shallow copy of token object. Parts are copied with accessor,
+	 * primitive ones without boxing, so this is much cheaper than decoding
+	 * token again.
+	 *
+	 * @param token the object to be copied
+	 * @return New object with the same part values
+	 */
+	public T copy(T token) {
+
+		T copy = accessor.newInstance();
+
+		for (int i = 0; i < names.length; i++) {
+			switch (primitives[i]) {
+				case PRIMITIVE_INT:
+					accessor.setInt(copy, i, accessor.getInt(token, i));
+					break;
+				case PRIMITIVE_LONG:
+					accessor.setLong(copy, i, accessor.getLong(token, i));
+					break;
+				case PRIMITIVE_DOUBLE:
+					accessor.setDouble(copy, i, accessor.getDouble(token, i));
+					break;
+				case PRIMITIVE_BOOLEAN:
+					accessor.setBoolean(copy, i, accessor.getBoolean(token, i));
+					break;
+				default:
+					accessor.set(copy, i, accessor.get(token, i));
+					break;
+			}
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Convert object to token string.
+	 *
+	 * @param token the object to be tokenized
+	 * @return String representation of tokenized data
+	 */
+	public String encode(T token) {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < names.length; i++) {
+
+			if (i > 0) {
+				sb.append(delimiter);
+			}
+
+			sb.append(textPrefixes[i]);
+
+			int start = sb.length();
+
+			if (direct[i] == null) {
+				try {
+					converters[i].appendTo(value(token, i), sb);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				append(token, i, sb);
+			}
+
+			if (sb.indexOf(delimiter, start) != -1) {
+				throw new IllegalArgumentException(String.format("Cannot build token because part '%s' contains delimiter string '%s'", sb.substring(start), delimiter));
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private void append(T token, int i, StringBuilder sb) {
+		switch (primitives[i]) {
+			case PRIMITIVE_INT:
+				((IntConverter) direct[i]).append(accessor.getInt(token, i), sb);
+				break;
+			case PRIMITIVE_LONG:
+				((LongConverter) direct[i]).append(accessor.getLong(token, i), sb);
+				break;
+			case PRIMITIVE_DOUBLE:
+				((DoubleConverter) direct[i]).append(accessor.getDouble(token, i), sb);
+				break;
+			default:
+				((BooleanConverter) direct[i]).append(accessor.getBoolean(token, i), sb);
+				break;
+		}
+	}
+
+	/**
+	 * Parse part value from characters between given indexes and write it to
+	 * object, without boxing when primitive converter is bound to part.
+	 */
+	private void parse(T object, int i, CharSequence chars, int from, int to) {
+
+		if (direct[i] == null) {
+			accessor.set(object, i, converters[i].parse(chars, from, to));
+			return;
+		}
+
+		switch (primitives[i]) {
+			case PRIMITIVE_INT:
+				accessor.setInt(object, i, ((IntConverter) direct[i]).parse(chars, from, to));
+				break;
+			case PRIMITIVE_LONG:
+				accessor.setLong(object, i, ((LongConverter) direct[i]).parse(chars, from, to));
+				break;
+			case PRIMITIVE_DOUBLE:
+				accessor.setDouble(object, i, ((DoubleConverter) direct[i]).parse(chars, from, to));
+				break;
+			default:
+				accessor.setBoolean(object, i, ((BooleanConverter) direct[i]).parse(chars, from, to));
+				break;
+		}
+	}
+
+	/**
+	 * Write token string to given writer. Only one part value is held in
+	 * memory at a time.
+	 *
+	 * @param token the object to be tokenized
+	 * @param out the writer to write token string to
+	 * @throws IOException when writer fails
+	 */
+	public void encode(T token, Writer out) throws IOException {
+		for (int i = 0; i < names.length; i++) {
+
+			String string = part(token, i);
+
+			if (i > 0) {
+				out.write(delimiter);
+			}
+
+			out.write(names[i]);
+			out.write('=');
+			out.write(string);
+		}
+	}
+
+	private Object value(T token, int i) {
+		Object value = accessor.get(token, i);
+		if (value == null) {
+			throw new IllegalArgumentException(String.format("Cannot build token because part '%s' is null", names[i]));
+		}
+		return value;
+	}
+
+	private String part(T token, int i) {
+
+		String string = converters[i].toString(value(token, i));
+
+		if (string.indexOf(delimiter) != -1) {
+			throw new IllegalArgumentException(String.format("Cannot build token because part '%s' contains delimiter string '%s'", string, delimiter));
+		}
+
+		return string;
+	}
+
+	/**
+	 * Restore object from token string.
+	 *
+	 * @param token the token string
+	 * @return Object restored from token
+	 */
+	public T decode(String token) {
+
+		T object = accessor.newInstance();
+		boolean[] found = new boolean[names.length];
+
+		int length = token.length();
+		int start = 0;
+		int next = 0;
+
+		while (start < length) {
+
+			int end = token.indexOf(delimiter, start);
+			if (end == -1) {
+				end = length;
+			}
+
+			if (end > start) {
+
+				int index = -1;
+				for (int k = 0; k < names.length; k++) {
+					int i = next + k < names.length ? next + k : next + k - names.length;
+					String prefix = textPrefixes[i];
+					if (end - start >= prefix.length() && token.startsWith(prefix, start)) {
+						index = i;
+						break;
+					}
+				}
+
+				if (index == -1) {
+					int eq = token.indexOf('=', start);
+					if (eq == -1 || eq > end) {
+						throw new IllegalArgumentException(String.format("Malformed token part '%s'", token.substring(start, end)));
+					}
+				} else {
+					parse(object, index, token, start + textPrefixes[index].length(), end);
+					found[index] = true;
+					next = index + 1 < names.length ? index + 1 : 0;
+				}
+			}
+
+			start = end + delimiter.length();
+		}
+
+		return complete(object, found);
+	}
+
+	/**
+	 * Set parts which were missing in token.
+	 */
+	private T complete(T object, boolean[] found) {
+		for (int i = 0; i < names.length; i++) {
+			if (!found[i]) {
+				accessor.set(object, i, converters[i].toObject(null));
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * Restore object from token string read from given reader. Only one part
+	 * is held in memory at a time.
+	 *
+	 * @param in the reader to read token string from
+	 * @return Object restored from token
+	 * @throws IOException when reader fails
+	 */
+	public T decode(Reader in) throws IOException {
+
+		String[] values = new String[names.length];
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[BUFFER_SIZE];
+
+		int d = delimiter.length();
+		int n = 0;
+
+		while ((n = in.read(buffer)) != -1) {
+			for (int k = 0; k < n; k++) {
+
+				sb.append(buffer[k]);
+
+				if (buffer[k] == delimiter.charAt(d - 1) && endsWithDelimiter(sb)) {
+					String segment = sb.substring(0, sb.length() - d);
+					put(values, segment, 0, segment.length());
+					sb.setLength(0);
+				}
+			}
+		}
+
+		String segment = sb.toString();
+		put(values, segment, 0, segment.length());
+
+		return build(values);
+	}
+
+	/**
+	 * Restore object from token string encoded in UTF-8. Bytes are scanned in
+	 * place: parts are found by offsets, part names are compared with
+	 * precomputed name bytes and only value of every part is decoded to
+	 * string passed to converter.
+	 *
+	 * @param bytes the buffer with token string
+	 * @param offset the first byte of token string
+	 * @param length the token string length in bytes
+	 * @return Object restored from token
+	 */
+	public T decode(byte[] bytes, int offset, int length) {
+
+		T object = accessor.newInstance();
+		boolean[] found = new boolean[names.length];
+		AsciiSequence ascii = null;
+
+		int limit = offset + length;
+		int start = offset;
+		int next = 0;
+
+		while (start < limit) {
+
+			int end = indexOf(bytes, start, limit);
+
+			if (end > start) {
+
+				// parts are usually in the order they were written
+
+				int index = -1;
+				for (int k = 0; k < names.length; k++) {
+					int i = next + k < names.length ? next + k : next + k - names.length;
+					if (startsWith(bytes, start, end, prefixes[i])) {
+						index = i;
+						break;
+					}
+				}
+
+				if (index == -1) {
+					checkPart(bytes, start, end);
+				} else {
+					int from = start + prefixes[index].length;
+					if (isAscii(bytes, from, end)) {
+						if (ascii == null) {
+							ascii = new AsciiSequence(bytes);
+						}
+						parse(object, index, ascii, from, end);
+					} else {
+						String string = new String(bytes, from, end - from, UTF8);
+						parse(object, index, string, 0, string.length());
+					}
+					found[index] = true;
+					next = index + 1 < names.length ? index + 1 : 0;
+				}
+			}
+
+			start = end + delimiterBytes.length;
+		}
+
+		return complete(object, found);
+	}
+
+	private static boolean isAscii(byte[] bytes, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Offset of the first delimiter found, or limit if there is none
+	 */
+	private int indexOf(byte[] bytes, int from, int limit) {
+		byte first = delimiterBytes[0];
+		int last = limit - delimiterBytes.length;
+		for (int i = from; i <= last; i++) {
+			if (bytes[i] == first && startsWith(bytes, i, limit, delimiterBytes)) {
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	private static boolean startsWith(byte[] bytes, int from, int limit, byte[] prefix) {
+		if (limit - from < prefix.length) {
+			return false;
+		}
+		for (int k = 0; k < prefix.length; k++) {
+			if (bytes[from + k] != prefix[k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Unknown parts are skipped, but they still have to be name=value pairs.
+	 */
+	private static void checkPart(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '=') {
+				return;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Malformed token part '%s'", new String(bytes, start, end - start, UTF8)));
+	}
+
+	private boolean endsWithDelimiter(StringBuilder sb) {
+		int d = delimiter.length();
+		int offset = sb.length() - d;
+		if (offset < 0) {
+			return false;
+		}
+		for (int k = 0; k < d; k++) {
+			if (sb.charAt(offset + k) != delimiter.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Store value of name=value pair found between start and end index.
+	 */
+	private void put(String[] values, String token, int start, int end) {
+
+		if (end <= start) {
+			return;
+		}
+
+		int eq = token.indexOf('=', start);
+		if (eq == -1 || eq > end) {
+			throw new IllegalArgumentException(String.format("Malformed token part '%s'", token.substring(start, end)));
+		}
+
+		Integer index = indexes.get(token.substring(start, eq));
+		if (index != null) {
+			values[index] = token.substring(eq + 1, end);
+		}
+	}
+
+	private T build(String[] values) {
+
+		T object = accessor.newInstance();
+
+		for (int i = 0; i < names.length; i++) {
+			accessor.set(object, i, converters[i].toObject(values[i]));
+		}
+
+		return object;
+	}
+
+	private void checkBinary() {
+		if (sortedTags == null) {
+			throw new IllegalStateException(String.format("Parts of %s have no unique tags required by binary token", getType()));
+		}
+	}
+
+	/**
+	 * Convert object to binary token.
+	 *
+	 * @param token the object to be tokenized
+	 * @return Binary representation of tokenized data
+	 */
+	public byte[] encodeBinary(T token) {
+
+		checkBinary();
+
+		ByteWriter w = new ByteWriter(16 * names.length);
+
+		for (int i = 0; i < names.length; i++) {
+			write(w, i, token);
+		}
+
+		return w.toByteArray();
+	}
+
+	/**
+	 * Write binary token to given stream. Only one part is held in memory at
+	 * a time.
+	 *
+	 * @param token the object to be tokenized
+	 * @param out the stream to write binary token to
+	 * @throws IOException when stream fails
+	 */
+	public void encodeBinary(T token, OutputStream out) throws IOException {
+
+		checkBinary();
+
+		ByteWriter w = new ByteWriter(64);
+
+		for (int i = 0; i < names.length; i++) {
+			w.reset();
+			write(w, i, token);
+			w.writeTo(out);
+		}
+	}
+
+	private void write(ByteWriter w, int i, T token) {
+
+		switch (primitives[i]) {
+			case PRIMITIVE_INT:
+				w.writeVarint(keys[i]);
+				w.writeSignedVarint(accessor.getInt(token, i));
+				return;
+			case PRIMITIVE_LONG:
+				w.writeVarint(keys[i]);
+				w.writeSignedVarint(accessor.getLong(token, i));
+				return;
+			case PRIMITIVE_DOUBLE:
+				w.writeVarint(keys[i]);
+				w.writeFixed64(Double.doubleToLongBits(accessor.getDouble(token, i)));
+				return;
+			case PRIMITIVE_BOOLEAN:
+				w.writeVarint(keys[i]);
+				w.write(accessor.getBoolean(token, i) ? 1 : 0);
+				return;
+		}
+
+		Object value = value(token, i);
+
+		w.writeVarint(keys[i]);
+
+		switch (kinds[i]) {
+			case KIND_BOOLEAN:
+				w.write(((Boolean) value).booleanValue() ? 1 : 0);
+				break;
+			case KIND_INTEGER:
+				w.writeSignedVarint(((Number) value).longValue());
+				break;
+			case KIND_CHAR:
+				w.writeVarint(((Character) value).charValue());
+				break;
+			case KIND_FLOAT:
+				w.writeFixed32(Float.floatToIntBits((Float) value));
+				break;
+			case KIND_DOUBLE:
+				w.writeFixed64(Double.doubleToLongBits((Double) value));
+				break;
+			case KIND_STRING:
+				w.writeBytes(((String) value).getBytes(UTF8));
+				break;
+			case KIND_BIG_INTEGER:
+				w.writeBytes(((BigInteger) value).toByteArray());
+				break;
+			case KIND_BIG_DECIMAL:
+				BigDecimal decimal = (BigDecimal) value;
+				byte[] unscaled = decimal.unscaledValue().toByteArray();
+				ByteWriter d = new ByteWriter(unscaled.length + 5);
+				d.writeSignedVarint(decimal.scale());
+				d.write(unscaled, 0, unscaled.length);
+				w.writeBytes(d.toByteArray());
+				break;
+			default:
+				w.writeBytes(converters[i].toString(value).getBytes(UTF8));
+				break;
+		}
+	}
+
+	/**
+	 * Restore object from binary token. Parts missing in token are set the
+	 * same way as in text token.
+	 *
+	 * @param bytes the buffer with binary token
+	 * @param offset the first byte of token
+	 * @param length the token length
+	 * @return Object restored from token
+	 */
+	public T decodeBinary(byte[] bytes, int offset, int length) {
+
+		checkBinary();
+
+		ByteReader r = new ByteReader(bytes, offset, length);
+		T object = accessor.newInstance();
+		boolean[] parts = new boolean[names.length];
+
+		while (r.hasRemaining()) {
+
+			long key = r.readVarint();
+			int wire = (int) (key & 0x07);
+			long tag = key >>> 3;
+
+			int found = tag > MAX_TAG ? -1 : Arrays.binarySearch(sortedTags, (int) tag);
+			if (found < 0) {
+				skip(r, wire);
+				continue;
+			}
+
+			int i = tagIndexes[found];
+
+			if (wire != (keys[i] & 0x07)) {
+				throw new IllegalArgumentException(String.format("Wrong wire type %d of part '%s'", wire, names[i]));
+			}
+
+			switch (wire) {
+				case WIRE_VARINT:
+					number(object, i, r.readVarint());
+					break;
+				case WIRE_FIXED32:
+					accessor.set(object, i, Float.intBitsToFloat(r.readFixed32()));
+					break;
+				case WIRE_FIXED64:
+					real(object, i, r.readFixed64());
+					break;
+				default:
+					int n = r.readLength();
+					int start = r.position();
+					r.skip(n);
+					accessor.set(object, i, slice(i, bytes, start, n));
+					break;
+			}
+
+			parts[i] = true;
+		}
+
+		return complete(object, parts);
+	}
+
+	/**
+	 * Restore object from binary token read from given stream. Only one part
+	 * is held in memory at a time.
+	 *
+	 * @param in the stream to read binary token from
+	 * @return Object restored from token
+	 * @throws IOException when stream fails
+	 */
+	public T decodeBinary(InputStream in) throws IOException {
+
+		checkBinary();
+
+		T object = accessor.newInstance();
+		boolean[] parts = new boolean[names.length];
+		byte[] scratch = new byte[8];
+
+		int first = 0;
+
+		while ((first = in.read()) != -1) {
+
+			long key = readVarint(in, first);
+			int wire = (int) (key & 0x07);
+			long tag = key >>> 3;
+
+			int found = tag > MAX_TAG ? -1 : Arrays.binarySearch(sortedTags, (int) tag);
+			if (found < 0) {
+				skip(in, wire, scratch);
+				continue;
+			}
+
+			int i = tagIndexes[found];
+
+			if (wire != (keys[i] & 0x07)) {
+				throw new IllegalArgumentException(String.format("Wrong wire type %d of part '%s'", wire, names[i]));
+			}
+
+			switch (wire) {
+				case WIRE_VARINT:
+					number(object, i, readVarint(in, read(in)));
+					break;
+				case WIRE_FIXED32:
+					readFully(in, scratch, 4);
+					accessor.set(object, i, Float.intBitsToFloat(new ByteReader(scratch, 0, 4).readFixed32()));
+					break;
+				case WIRE_FIXED64:
+					readFully(in, scratch, 8);
+					real(object, i, new ByteReader(scratch, 0, 8).readFixed64());
+					break;
+				default:
+					byte[] bytes = new byte[readLength(in)];
+					readFully(in, bytes, bytes.length);
+					accessor.set(object, i, slice(i, bytes, 0, bytes.length));
+					break;
+			}
+
+			parts[i] = true;
+		}
+
+		return complete(object, parts);
+	}
+
+	private void number(T object, int part, long value) {
+
+		long signed = (value >>> 1) ^ -(value & 1);
+
+		switch (primitives[part]) {
+			case PRIMITIVE_INT:
+				accessor.setInt(object, part, (int) signed);
+				return;
+			case PRIMITIVE_LONG:
+				accessor.setLong(object, part, signed);
+				return;
+			case PRIMITIVE_BOOLEAN:
+				accessor.setBoolean(object, part, value != 0);
+				return;
+		}
+
+		switch (kinds[part]) {
+			case KIND_BOOLEAN:
+				accessor.set(object, part, value != 0);
+				break;
+			case KIND_CHAR:
+				accessor.set(object, part, (char) value);
+				break;
+			default:
+				accessor.set(object, part, narrow(accessor.getPartType(part), signed));
+				break;
+		}
+	}
+
+	private void real(T object, int part, long bits) {
+		if (primitives[part] == PRIMITIVE_DOUBLE) {
+			accessor.setDouble(object, part, Double.longBitsToDouble(bits));
+		} else {
+			accessor.set(object, part, Double.longBitsToDouble(bits));
+		}
+	}
+
+	private static int read(InputStream in) throws IOException {
+		int b = in.read();
+		if (b == -1) {
+			throw new IllegalArgumentException("Truncated binary token");
+		}
+		return b;
+	}
+
+	private static long readVarint(InputStream in, int first) throws IOException {
+		long value = first & 0x7F;
+		int b = first;
+		for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+			if (shift >= 64) {
+				throw new IllegalArgumentException("Malformed varint in binary token");
+			}
+			b = read(in);
+			value |= (long) (b & 0x7F) << shift;
+		}
+		return value;
+	}
+
+	private static int readLength(InputStream in) throws IOException {
+		long length = readVarint(in, read(in));
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Truncated binary token");
+		}
+		return (int) length;
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+		for (int n = 0, k = 0; n < length; n += k) {
+			if ((k = in.read(bytes, n, length - n)) == -1) {
+				throw new IllegalArgumentException("Truncated binary token");
+			}
+		}
+	}
+
+	private static void skip(InputStream in, int wire, byte[] scratch) throws IOException {
+		switch (wire) {
+			case WIRE_VARINT:
+				readVarint(in, read(in));
+				break;
+			case WIRE_FIXED64:
+				readFully(in, scratch, 8);
+				break;
+			case WIRE_LENGTH:
+				for (long n = readLength(in); n > 0; n--) {
+					read(in);
+				}
+				break;
+			case WIRE_FIXED32:
+				readFully(in, scratch, 4);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown wire type %d", wire));
+		}
+	}
+
+	private Object slice(int part, byte[] bytes, int offset, int length) {
+		switch (kinds[part]) {
+			case KIND_STRING:
+				return new String(bytes, offset, length, UTF8);
+			case KIND_BIG_INTEGER:
+				return new BigInteger(Arrays.copyOfRange(bytes, offset, offset + length));
+			case KIND_BIG_DECIMAL:
+				ByteReader d = new ByteReader(bytes, offset, length);
+				int scale = (int) d.readSignedVarint();
+				int start = d.position();
+				return new BigDecimal(new BigInteger(Arrays.copyOfRange(bytes, start, offset + length)), scale);
+			default:
+				return converters[part].toObject(new String(bytes, offset, length, UTF8));
+		}
+	}
+
+	private static Object narrow(Class<?> type, long value) {
+		if (type == int.class || type == Integer.class) {
+			return (int) value;
+		}
+		if (type == long.class || type == Long.class) {
+			return value;
+		}
+		if (type == short.class || type == Short.class) {
+			return (short) value;
+		}
+		return (byte) value;
+	}
+
+	private static void skip(ByteReader r, int wire) {
+		switch (wire) {
+			case WIRE_VARINT:
+				r.readVarint();
+				break;
+			case WIRE_FIXED64:
+				r.skip(8);
+				break;
+			case WIRE_LENGTH:
+				r.skip(r.readLength());
+				break;
+			case WIRE_FIXED32:
+				r.skip(4);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown wire type %d", wire));
+		}
+	}
+}
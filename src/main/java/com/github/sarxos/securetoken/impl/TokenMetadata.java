@@ -0,0 +1,183 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.TokenFormat;
+import com.github.sarxos.securetoken.annotation.TokenEntity;
+import com.github.sarxos.securetoken.annotation.TokenPart;
+
+
+/**
+ * Immutable description of token class: its parts, delimiter, format, cipher
+ * and constructor. It is computed once per class and kept in class value, so
+ * it is read without locks and is collected together with class loader of the
+ * token class.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ * @param <T> the token type
+ */
+public final class TokenMetadata<T extends Token> {
+
+	/**
+	 * Default token delimiter, used when class is not annotated.
+	 */
+	private static final String DEFAULT_DELIMITER = "#";
+
+	/**
+	 * Metadata computed for token classes.
+	 */
+	private static final ClassValue<TokenMetadata<?>> METADATA = new ClassValue<TokenMetadata<?>>() {
+
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected TokenMetadata<?> computeValue(Class<?> type) {
+			return new TokenMetadata(type.asSubclass(Token.class));
+		}
+	};
+
+	/**
+	 * Parts are ordered by part name, so order does not depend on the order
+	 * in which fields are returned by reflection.
+	 */
+	private static final Comparator<Field> PART_ORDER = new Comparator<Field>() {
+
+		@Override
+		public int compare(Field a, Field b) {
+			return a.getAnnotation(TokenPart.class).value().compareTo(b.getAnnotation(TokenPart.class).value());
+		}
+	};
+
+	private final Class<T> type;
+
+	private final Field[] parts;
+
+	private final String delimiter;
+
+	private final TokenFormat format;
+
+	private final CipherType cipher;
+
+	private final Constructor<T> constructor;
+
+	private TokenMetadata(Class<T> type) {
+
+		TokenEntity entity = getTokenEntity(type);
+
+		this.type = type;
+		this.parts = getParts(type);
+		this.delimiter = entity == null ? DEFAULT_DELIMITER : entity.delimiter();
+		this.format = entity == null ? TokenFormat.TEXT : entity.format();
+		this.cipher = entity == null ? CipherType.NOOP : entity.cipher();
+		this.constructor = Reflector.getConstructor(type);
+	}
+
+	/**
+	 * Return metadata of given token class.
+	 *
+	 * @param <T> the token type
+	 * @param type the token class
+	 * @return Token metadata
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Token> TokenMetadata<T> of(Class<T> type) {
+		return (TokenMetadata<T>) METADATA.get(type);
+	}
+
+	/**
+	 * Find token entity annotation on class, its superclasses or interfaces
+	 * they implement.
+	 */
+	private static TokenEntity getTokenEntity(Class<?> clazz) {
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			TokenEntity entity = c.getAnnotation(TokenEntity.class);
+			if (entity != null) {
+				return entity;
+			}
+			for (Class<?> i : c.getInterfaces()) {
+				entity = i.getAnnotation(TokenEntity.class);
+				if (entity != null) {
+					return entity;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return non-static fields annotated as token parts, declared in given
+	 * class and its superclasses.
+	 */
+	private static Field[] getParts(Class<?> clazz) {
+
+		Map<String, Field> parts = new HashMap<String, Field>();
+
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+
+				TokenPart tp = field.getAnnotation(TokenPart.class);
+				if (tp == null || Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+
+				if (parts.put(tp.value(), field) != null) {
+					throw new IllegalArgumentException(String.format("Two or more fields in %s are annotated with token part name '%s'", clazz, tp.value()));
+				}
+			}
+		}
+
+		Field[] fields = parts.values().toArray(new Field[parts.size()]);
+		Arrays.sort(fields, PART_ORDER);
+
+		return fields;
+	}
+
+	/**
+	 * @return Token class
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return Fields annotated as token parts, ordered by part name
+	 */
+	public Field[] getParts() {
+		return parts.clone();
+	}
+
+	/**
+	 * @return Token delimiter
+	 */
+	public String getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @return Token format
+	 */
+	public TokenFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return Cipher declared in token entity annotation
+	 */
+	public CipherType getCipher() {
+		return cipher;
+	}
+
+	/**
+	 * @return Public default constructor
+	 */
+	public Constructor<T> getConstructor() {
+		return constructor;
+	}
+}
@@ -0,0 +1,226 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Z85 encoding (ZeroMQ RFC 32), every 4 bytes become 5 characters, so it adds
+ * 25% to data instead of 33% added by Base64. Alphabet has no quotes, comma,
+ * semicolon, backslash or whitespace, so encoded data can be used in cookie
+ * values. Data which length is not multiple of 4 is allowed, the last 1 to 3
+ * bytes are written as 2 to 4 characters, the same way as in Ascii85.
+ *
+ * @author Bartosz Firyn (bfiryn)
+ */
+public final class Z85Codec {
+
+	private static final byte[] ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.-:+=^!/*?&<>()[]{}@%$#".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] DECODE = new byte[128];
+
+	/**
+	 * Powers of 85, from the most significant digit in group.
+	 */
+	private static final long[] POWERS = { 85L * 85 * 85 * 85, 85 * 85 * 85, 85 * 85, 85, 1 };
+
+	static {
+		Arrays.fill(DECODE, (byte) -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			DECODE[ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private Z85Codec() {
+	}
+
+	/**
+	 * Return exact number of characters given number of bytes is encoded to.
+	 *
+	 * @param length the number of bytes
+	 * @return Number of characters
+	 */
+	public static int encodedLength(int length) {
+		return length / 4 * 5 + (length % 4 == 0 ? 0 : length % 4 + 1);
+	}
+
+	/**
+	 * Encode bytes into ASCII bytes.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @param dst the array to write to, it must have
+	 *            {@link #encodedLength(int)} bytes left
+	 * @param pos the position to start writing at
+	 * @return Number of bytes written
+	 */
+	public static int encode(byte[] src, int off, int len, byte[] dst, int pos) {
+
+		int p = pos;
+		int end = off + len - len % 4;
+
+		for (int i = off; i < end; i += 4) {
+			long v = ((src[i] & 0xFF) << 24 | (src[i + 1] & 0xFF) << 16 | (src[i + 2] & 0xFF) << 8 | src[i + 3] & 0xFF) & 0xFFFFFFFFL;
+			for (int k = 4; k >= 0; k--) {
+				dst[p + k] = ALPHABET[(int) (v % 85)];
+				v /= 85;
+			}
+			p += 5;
+		}
+
+		int r = len % 4;
+		if (r > 0) {
+			long v = 0;
+			for (int k = 0; k < 4; k++) {
+				v = v << 8 | (k < r ? src[end + k] & 0xFF : 0);
+			}
+			for (int k = 0; k <= r; k++) {
+				dst[p++] = ALPHABET[(int) (v / POWERS[k] % 85)];
+			}
+		}
+
+		return p - pos;
+	}
+
+	/**
+	 * Encode bytes into buffer, which can be direct one, starting at its
+	 * position.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @param dst the buffer to write to, it must have
+	 *            {@link #encodedLength(int)} bytes remaining
+	 * @return Number of bytes written
+	 */
+	public static int encode(byte[] src, int off, int len, ByteBuffer dst) {
+
+		int pos = dst.position();
+		int end = off + len - len % 4;
+
+		for (int i = off; i < end; i += 4) {
+			long v = ((src[i] & 0xFF) << 24 | (src[i + 1] & 0xFF) << 16 | (src[i + 2] & 0xFF) << 8 | src[i + 3] & 0xFF) & 0xFFFFFFFFL;
+			int p = dst.position();
+			for (int k = 4; k >= 0; k--) {
+				dst.put(p + k, ALPHABET[(int) (v % 85)]);
+				v /= 85;
+			}
+			dst.position(p + 5);
+		}
+
+		int r = len % 4;
+		if (r > 0) {
+			long v = 0;
+			for (int k = 0; k < 4; k++) {
+				v = v << 8 | (k < r ? src[end + k] & 0xFF : 0);
+			}
+			for (int k = 0; k <= r; k++) {
+				dst.put(ALPHABET[(int) (v / POWERS[k] % 85)]);
+			}
+		}
+
+		return dst.position() - pos;
+	}
+
+	/**
+	 * Encode bytes into string.
+	 *
+	 * @param src the bytes to be encoded
+	 * @param off the first byte to be encoded
+	 * @param len the number of bytes to be encoded
+	 * @return Encoded string
+	 */
+	public static String encodeToString(byte[] src, int off, int len) {
+		byte[] dst = new byte[encodedLength(len)];
+		encode(src, off, len, dst, 0);
+		return new String(dst, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Return exact number of bytes given number of characters is decoded to.
+	 *
+	 * @param length the number of characters
+	 * @return Number of bytes
+	 */
+	public static int decodedLength(int length) {
+		return length / 5 * 4 + (length % 5 == 0 ? 0 : length % 5 - 1);
+	}
+
+	private static int digit(CharSequence src, int i, int from) {
+		char c = src.charAt(i);
+		int v = c < 128 ? DECODE[c] : -1;
+		if (v < 0) {
+			throw new IllegalArgumentException(String.format("Invalid Z85 character 0x%02x at %d", (int) c, i - from));
+		}
+		return v;
+	}
+
+	/**
+	 * Decode characters.
+	 *
+	 * @param src the encoded characters
+	 * @param from the first character
+	 * @param to the character after the last one
+	 * @param dst the array to write to, it must have
+	 *            {@link #decodedLength(int)} bytes left
+	 * @param pos the position to start writing at
+	 * @return Number of bytes written
+	 * @throws IllegalArgumentException when characters are not valid Z85
+	 */
+	public static int decode(CharSequence src, int from, int to, byte[] dst, int pos) {
+
+		int r = (to - from) % 5;
+		if (r == 1) {
+			throw new IllegalArgumentException("Truncated Z85 data");
+		}
+
+		int p = pos;
+		int end = to - r;
+
+		for (int i = from; i < end; i += 5) {
+			long v = 0;
+			for (int k = 0; k < 5; k++) {
+				v = v * 85 + digit(src, i + k, from);
+			}
+			if (v > 0xFFFFFFFFL) {
+				throw new IllegalArgumentException(String.format("Invalid Z85 group at %d", i - from));
+			}
+			dst[p++] = (byte) (v >> 24);
+			dst[p++] = (byte) (v >> 16);
+			dst[p++] = (byte) (v >> 8);
+			dst[p++] = (byte) v;
+		}
+
+		if (r > 0) {
+			long v = 0;
+			for (int k = 0; k < 5; k++) {
+				v = v * 85 + (k < r ? digit(src, end + k, from) : 84);
+			}
+			if (v > 0xFFFFFFFFL) {
+				throw new IllegalArgumentException(String.format("Invalid Z85 group at %d", end - from));
+			}
+			for (int k = 0; k < r - 1; k++) {
+				dst[p++] = (byte) (v >> 24 - 8 * k);
+			}
+		}
+
+		return p - pos;
+	}
+
+	/**
+	 * Decode characters.
+	 *
+	 * @param src the encoded characters
+	 * @param from the first character
+	 * @param to the character after the last one
+	 * @return Decoded bytes
+	 * @throws IllegalArgumentException when characters are not valid Z85
+	 */
+	public static byte[] decode(CharSequence src, int from, int to) {
+		byte[] dst = new byte[decodedLength(to - from)];
+		decode(src, from, to, dst, 0);
+		return dst;
+	}
+}
@@ -0,0 +1,83 @@
+package com.github.sarxos.securetoken;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.github.sarxos.securetoken.annotation.TokenPart;
+
+
+public class TokenAccessorTest {
+
+	public static class Account implements Token {
+
+		@TokenPart("id")
+		int id;
+
+		@TokenPart("name")
+		String name;
+	}
+
+	/**
+	 * Accessor written the same way as the one generated by annotation
+	 * processor, registered in META-INF/services.
+	 */
+	public static final class AccountAccessor extends TokenAccessor<Account> {
+
+		static int reads = 0;
+
+		public AccountAccessor() {
+			super(Account.class, "#", new String[] { "id", "name" }, new Class<?>[] { int.class, String.class });
+		}
+
+		@Override
+		public Account newInstance() {
+			return new Account();
+		}
+
+		@Override
+		public Object get(Account token, int part) {
+			reads++;
+			switch (part) {
+				case 0:
+					return token.id;
+				case 1:
+					return token.name;
+				default:
+					throw new IndexOutOfBoundsException(String.valueOf(part));
+			}
+		}
+
+		@Override
+		public void set(Account token, int part, Object value) {
+			switch (part) {
+				case 0:
+					token.id = (Integer) value;
+					break;
+				case 1:
+					token.name = (String) value;
+					break;
+				default:
+					throw new IndexOutOfBoundsException(String.valueOf(part));
+			}
+		}
+	}
+
+	@Test
+	public void test_generatedAccessorIsUsed() {
+
+		Account account = new Account();
+		account.id = 15;
+		account.name = "john";
+
+		int reads = AccountAccessor.reads;
+
+		String token = Tokenizer.tokenize(account, CipherType.NOOP, "secret");
+		Assert.assertEquals("id=15#name=john", token);
+		Assert.assertEquals(reads + 2, AccountAccessor.reads);
+
+		Account restored = Tokenizer.objectify(Account.class, token, CipherType.NOOP, "secret");
+		Assert.assertEquals(15, restored.id);
+		Assert.assertEquals("john", restored.name);
+	}
+}
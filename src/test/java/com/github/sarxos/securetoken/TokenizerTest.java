@@ -1,11 +1,33 @@
 package com.github.sarxos.securetoken;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.bouncycastle.util.encoders.Base64;
 import org.junit.Test;
 
+import com.github.sarxos.securetoken.annotation.TokenEntity;
 import com.github.sarxos.securetoken.annotation.TokenPart;
+import com.github.sarxos.securetoken.impl.CipherEngine;
 
 
 public class TokenizerTest {
@@ -77,6 +99,789 @@ public class TokenizerTest {
 		}
 	}
 
+	@Test
+	public void test_knownTokens() {
+
+		TokenTest tt = new TokenTest();
+		tt.setA("ABBA");
+		tt.setC(new BigDecimal("123456789"));
+
+		Assert.assertEquals("a=ABBA#c=123456789", Tokenizer.tokenize(tt, CipherType.NOOP, "test1234"));
+		Assert.assertEquals("M8wVvME3LPv/m/LSv4N12gpPGsWtwdU0", Tokenizer.tokenize(tt, CipherType.DES, "test1234"));
+		Assert.assertEquals("LwENCU71qZ1TnHHz+kk909C9JSZByMzXYf6TqzVDXbw=", Tokenizer.tokenize(tt, CipherType.AES, "test1234"));
+		Assert.assertEquals("N1nonTaqcu+K5nr6zR5N1EoSlefAZKIR", Tokenizer.tokenize(tt, CipherType.BLOWFISH, "test1234"));
+		Assert.assertEquals("jzQz3EUFKoTIX07+qkR3LtW9OoOTZKCEpVOdfEC3l44=", Tokenizer.tokenize(tt, CipherType.SERPENT, "test1234"));
+	}
+
+	@Test
+	public void test_legacyTokens() {
+
+		// tokens with 3-byte compression marker, created before header byte
+
+		Assert.assertEquals("ABBA 123456789", Tokenizer.objectify(TokenTest.class, "Px6RdrqrDVqvVmEFsdxLt1k8Z36mlDAz", CipherType.DES, "test1234").toString());
+		Assert.assertEquals("ABBA 123456789", Tokenizer.objectify(TokenTest.class, "UDCeDQUFNSRGenj6oURtwuvX8vWIQQYbQphRIPiW5ms=", CipherType.AES, "test1234").toString());
+		Assert.assertEquals("ABBA 123456789", Tokenizer.objectify(TokenTest.class, "yoauimkSm0x6VwvdjgnMd06xKkptgSCP", CipherType.BLOWFISH, "test1234").toString());
+		Assert.assertEquals("ABBA 123456789", Tokenizer.objectify(TokenTest.class, "fnXveZM72eHblyGI+fk1sC7lLBF7c+wnCczjNPGT/pg=", CipherType.SERPENT, "test1234").toString());
+	}
+
+	@Test
+	public void test_objectifyReordered() throws Exception {
+
+		// header byte of uncompressed text token, then parts in other order,
+		// with unknown part and empty segment
+
+		byte[] text = "_x=1##a=ZA\u017b\u00d3\u0141#c=42".getBytes("UTF-8");
+		byte[] input = new byte[text.length + 1];
+		input[0] = (byte) 0x80;
+		System.arraycopy(text, 0, input, 1, text.length);
+
+		String token = new String(Base64.encode(CipherEngine.encrypt(CipherType.AES, "test1234", input)), "UTF-8");
+		TokenTest tt = Tokenizer.objectify(TokenTest.class, token, CipherType.AES, "test1234");
+
+		Assert.assertEquals("ZA\u017b\u00d3\u0141 42", tt.toString());
+	}
+
+	@Test
+	public void test_compressionThreshold() {
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 1000) {
+			sb.append("repeated ");
+		}
+
+		Primitives p = new Primitives();
+		p.s = sb.toString();
+
+		String compressed = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+
+		int threshold = Tokenizer.getCompressionThreshold();
+		Tokenizer.setCompressionThreshold(Integer.MAX_VALUE);
+
+		try {
+			String plain = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+			Assert.assertTrue(compressed.length() < plain.length());
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, plain, CipherType.AES, "test1234").s);
+		} finally {
+			Tokenizer.setCompressionThreshold(threshold);
+		}
+
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, compressed, CipherType.AES, "test1234").s);
+	}
+
+	@Test
+	public void test_secret() {
+
+		Primitives p = new Primitives();
+
+		for (CipherType type : CipherType.values()) {
+
+			SecretHandle secret = Tokenizer.secret(type, "test1234");
+			Assert.assertSame(secret, Tokenizer.secret(type, "test1234"));
+			Assert.assertEquals(type, secret.getType());
+
+			String token = Tokenizer.tokenize(p, secret);
+			if (type.getNonceSize() == 0) {
+				Assert.assertEquals(Tokenizer.tokenize(p, type, "test1234"), token);
+			}
+			Assert.assertEquals(p.l, Tokenizer.objectify(Primitives.class, token, secret).l);
+			Assert.assertEquals(p.l, Tokenizer.objectify(Primitives.class, token, type, "test1234").l);
+		}
+	}
+
+	@Test
+	public void test_provider() {
+
+		Primitives p = new Primitives();
+
+		Assert.assertEquals("SunJCE", CipherEngine.getProvider(CipherType.AES));
+		Assert.assertEquals(CipherEngine.BC, CipherEngine.getProvider(CipherType.SERPENT));
+
+		String jdk = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+
+		CipherEngine.setProvider(CipherType.AES, CipherEngine.BC);
+
+		try {
+			Assert.assertEquals(CipherEngine.BC, CipherEngine.getProvider(CipherType.AES));
+			Assert.assertEquals(jdk, Tokenizer.tokenize(p, CipherType.AES, "test1234"));
+		} finally {
+			CipherEngine.setProvider(CipherType.AES, CipherEngine.AUTO);
+		}
+
+		try {
+			CipherEngine.setProvider(CipherType.SERPENT, "SunJCE");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_authenticated() throws Exception {
+
+		Primitives p = new Primitives();
+
+		for (CipherType type : new CipherType[] { CipherType.AES_GCM, CipherType.AES_CTR_HMAC }) {
+			for (String provider : new String[] { CipherEngine.AUTO, CipherEngine.BC }) {
+
+				CipherEngine.setProvider(type, provider);
+
+				byte[] data = "a=ABBA#c=123456789".getBytes("UTF-8");
+				byte[] encrypted = CipherEngine.encrypt(type, "test1234", data);
+
+				Assert.assertEquals(data.length + type.getNonceSize() + type.getTagSize(), encrypted.length);
+				Assert.assertFalse(Arrays.equals(encrypted, CipherEngine.encrypt(type, "test1234", data)));
+				Assert.assertTrue(Arrays.equals(data, CipherEngine.decrypt(type, "test1234", encrypted)));
+
+				String token = Tokenizer.tokenize(p, type, "test1234");
+				Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, type, "test1234").s);
+
+				for (int i : new int[] { 0, type.getNonceSize(), encrypted.length - 1 }) {
+					byte[] tampered = encrypted.clone();
+					tampered[i] ^= 1;
+					try {
+						CipherEngine.decrypt(type, "test1234", tampered);
+						Assert.fail();
+					} catch (IllegalArgumentException e) {
+						// expected
+					}
+				}
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Tokenizer.tokenize(p, type, "test1234", out);
+				byte[] bytes = Base64.decode(out.toByteArray());
+				bytes[bytes.length - 1] ^= 1;
+
+				try {
+					Tokenizer.objectify(Primitives.class, new ByteArrayInputStream(Base64.encode(bytes)), type, "test1234");
+					Assert.fail();
+				} catch (IOException e) {
+					// expected
+				}
+			}
+
+			CipherEngine.setProvider(type, CipherEngine.AUTO);
+		}
+	}
+
+	@Test
+	public void test_lightweight() throws Exception {
+
+		Primitives p = new Primitives();
+
+		for (CipherType type : CipherType.values()) {
+
+			if (type == CipherType.NOOP) {
+				continue;
+			}
+
+			String token = Tokenizer.tokenize(p, type, "test1234");
+
+			CipherEngine.setProvider(type, CipherEngine.LIGHTWEIGHT);
+
+			try {
+				Assert.assertEquals(CipherEngine.LIGHTWEIGHT, CipherEngine.getProvider(type));
+				if (type.getNonceSize() == 0) {
+					Assert.assertEquals(token, Tokenizer.tokenize(p, type, "test1234"));
+				}
+				Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, type, "test1234").s);
+				Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, ByteBuffer.wrap(token.getBytes("US-ASCII")), type, "test1234").s);
+				ByteBuffer direct = ByteBuffer.allocateDirect(token.length());
+				direct.put(token.getBytes("US-ASCII")).flip();
+				Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, direct, type, "test1234").s);
+				token = Tokenizer.tokenize(p, type, "test1234");
+			} finally {
+				CipherEngine.setProvider(type, CipherEngine.AUTO);
+			}
+
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, type, "test1234").s);
+		}
+	}
+
+	@Test
+	public void test_async() throws Exception {
+
+		Primitives p = new Primitives();
+		SecretHandle secret = Tokenizer.secret(CipherType.AES_GCM, "test1234");
+
+		String token = Tokenizer.tokenizeAsync(p, CipherType.AES_GCM, "test1234").get();
+		Assert.assertEquals(p.s, Tokenizer.objectifyAsync(Primitives.class, token, secret).get().s);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			token = Tokenizer.tokenizeAsync(p, secret, executor).get();
+			Assert.assertEquals(p.s, Tokenizer.objectifyAsync(Primitives.class, token, secret, executor).get().s);
+		} finally {
+			executor.shutdown();
+		}
+
+		try {
+			Tokenizer.objectifyAsync(Primitives.class, token.substring(4), CipherType.AES_GCM, "test1234").get();
+			Assert.fail("Modified token should not be objectified");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	public static class Primitives implements Token {
+
+		@TokenPart("i")
+		private int i = 7;
+
+		@TokenPart("l")
+		private long l = -1234567890123L;
+
+		@TokenPart("b")
+		private boolean b = true;
+
+		@TokenPart("d")
+		private double d = 0.5;
+
+		@TokenPart("s")
+		private String s = "text";
+	}
+
+	@Test
+	public void test_objectify() {
+
+		Primitives p = new Primitives();
+		p.i = 42;
+		p.l = Long.MAX_VALUE;
+		p.b = false;
+		p.d = -2.25;
+		p.s = "changed";
+
+		for (CipherType type : CipherType.values()) {
+
+			String token = Tokenizer.tokenize(p, type, "test1234");
+			Primitives r = Tokenizer.objectify(Primitives.class, token, type, "test1234");
+
+			Assert.assertEquals(p.i, r.i);
+			Assert.assertEquals(p.l, r.l);
+			Assert.assertEquals(p.b, r.b);
+			Assert.assertEquals(p.d, r.d, 0);
+			Assert.assertEquals(p.s, r.s);
+		}
+	}
+
+	@Test
+	public void test_cache() {
+
+		Primitives p = new Primitives();
+		SecretHandle secret = Tokenizer.secret(CipherType.AES, "test1234");
+		String token = Tokenizer.tokenize(p, secret);
+
+		TokenCache cache = new TokenCache(100, 1, TimeUnit.MINUTES);
+		Tokenizer.setCache(cache);
+
+		try {
+
+			Primitives a = Tokenizer.objectify(Primitives.class, token, secret);
+			Primitives b = Tokenizer.objectify(Primitives.class, token, secret);
+
+			Assert.assertNotSame(a, b);
+			Assert.assertEquals(p.l, b.l);
+			Assert.assertEquals(p.s, b.s);
+			Assert.assertEquals(1, cache.getHitCount());
+			Assert.assertEquals(1, cache.getMissCount());
+
+			a.l = 1;
+			Assert.assertEquals(p.l, Tokenizer.objectify(Primitives.class, token, secret).l);
+
+			// other cipher is other key
+
+			Tokenizer.objectify(Primitives.class, Tokenizer.tokenize(p, CipherType.DES, "test1234"), CipherType.DES, "test1234");
+			Assert.assertEquals(2, cache.getMissCount());
+
+			cache.setCopyOnRead(false);
+			Assert.assertSame(Tokenizer.objectify(Primitives.class, token, secret), Tokenizer.objectify(Primitives.class, token, secret));
+
+			TokenKeyring keyring = new TokenKeyring();
+			keyring.add("k", secret);
+
+			String keyed = Tokenizer.tokenize(p, keyring);
+			Assert.assertSame(Tokenizer.objectify(Primitives.class, keyed, keyring), Tokenizer.objectify(Primitives.class, keyed, keyring));
+
+		} finally {
+			Tokenizer.setCache(null);
+		}
+	}
+
+	@Test
+	public void test_armor() throws Exception {
+
+		Primitives p = new Primitives();
+		SecretHandle secret = Tokenizer.secret(CipherType.AES, "test1234");
+		String standard = Tokenizer.tokenize(p, secret);
+
+		Tokenizer.setArmor(TokenArmor.BASE64URL);
+
+		try {
+
+			String token = Tokenizer.tokenize(p, secret);
+
+			Assert.assertEquals(standard.replace('+', '-').replace('/', '_').replace("=", ""), token);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, secret).s);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, standard, secret).s);
+
+			String header = "Bearer " + token + "; Path=/";
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, header, 7, 7 + token.length(), secret).s);
+
+			Tokenizer.setArmor(TokenArmor.Z85);
+
+			token = Tokenizer.tokenize(p, secret);
+
+			Assert.assertEquals('~', token.charAt(0));
+			Assert.assertTrue(token.length() < standard.length());
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, secret).s);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, Tokenizer.tokenizeToBytes(p, secret), secret).s);
+
+			Tokenizer.setArmor(TokenArmor.RAW);
+
+			byte[] bytes = Tokenizer.tokenizeToBytes(p, secret);
+
+			Assert.assertEquals(0, bytes[0]);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, bytes, secret).s);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, standard.getBytes("US-ASCII"), secret).s);
+
+			try {
+				Tokenizer.tokenize(p, secret);
+				Assert.fail("Raw token should not be created as string");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+
+		} finally {
+			Tokenizer.setArmor(TokenArmor.BASE64);
+		}
+	}
+
+	@Test
+	public void test_buffer() throws Exception {
+
+		Primitives p = new Primitives();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+		for (CipherType type : CipherType.values()) {
+
+			SecretHandle secret = Tokenizer.secret(type, "test1234");
+
+			for (TokenArmor armor : TokenArmor.values()) {
+
+				Tokenizer.setArmor(armor);
+
+				try {
+
+					buffer.clear();
+					buffer.put((byte) 1);
+
+					int length = Tokenizer.tokenize(p, secret, buffer);
+
+					buffer.flip();
+					buffer.get();
+
+					Assert.assertEquals(length, buffer.remaining());
+
+					if (type.getNonceSize() == 0) {
+						byte[] written = new byte[length];
+						buffer.duplicate().get(written);
+						Assert.assertTrue(Arrays.equals(Tokenizer.tokenizeToBytes(p, secret), written));
+					}
+
+					Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, buffer, secret).s);
+					Assert.assertEquals(0, buffer.remaining());
+
+					ByteBuffer small = ByteBuffer.allocateDirect(length - 1);
+					try {
+						Tokenizer.tokenize(p, secret, small);
+						Assert.fail("Token should not fit into buffer");
+					} catch (BufferOverflowException e) {
+						Assert.assertEquals(0, small.position());
+					}
+
+				} finally {
+					Tokenizer.setArmor(TokenArmor.BASE64);
+				}
+			}
+
+			byte[] bytes = Tokenizer.tokenizeToBytes(p, type, "test1234");
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, ByteBuffer.wrap(bytes), type, "test1234").s);
+		}
+	}
+
+	public static class Identified implements Token {
+
+		@TokenPart("id")
+		private UUID id = new UUID(1, 2);
+	}
+
+	@Test
+	public void test_builder() throws Exception {
+
+		Primitives p = new Primitives();
+
+		TokenEngine engine = Tokenizer.builder()
+			.armor(TokenArmor.Z85)
+			.compressionThreshold(0)
+			.cipherPoolSize(4)
+			.register(UUID.class, new Converter<UUID>() {
+
+				@Override
+				public UUID toObject(String string) {
+					return UUID.fromString(string);
+				}
+
+				@Override
+				public String toString(UUID object) {
+					return object.toString();
+				}
+			})
+			.build();
+
+		SecretHandle secret = engine.secret(CipherType.AES, "test1234");
+
+		Assert.assertNotSame(Tokenizer.secret(CipherType.AES, "test1234"), secret);
+		Assert.assertEquals(4, engine.getSecretStore().getPoolSize());
+
+		String token = engine.tokenize(p, secret);
+
+		Assert.assertEquals('~', token.charAt(0));
+		Assert.assertEquals(TokenArmor.BASE64, Tokenizer.getArmor());
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, CipherType.AES, "test1234").s);
+		Assert.assertEquals(p.s, engine.objectify(Primitives.class, Tokenizer.tokenize(p, CipherType.AES, "test1234"), secret).s);
+
+		Identified identified = new Identified();
+		token = engine.tokenize(identified, secret);
+
+		Assert.assertEquals(identified.id, engine.objectify(Identified.class, token, secret).id);
+
+		try {
+			Tokenizer.tokenize(identified, CipherType.AES, "test1234");
+			Assert.fail("Converter registered in instance should not be visible in default one");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		TokenEngine copy = engine.toBuilder().armor(TokenArmor.BASE64URL).build();
+
+		Assert.assertSame(engine.getSecretStore(), copy.getSecretStore());
+		Assert.assertEquals(TokenArmor.Z85, engine.getArmor());
+		Assert.assertEquals(identified.id, copy.objectify(Identified.class, token, secret).id);
+	}
+
+	@Test
+	public void test_keyring() {
+
+		Primitives p = new Primitives();
+
+		TokenKeyring keyring = new TokenKeyring();
+		try {
+			Tokenizer.tokenize(p, keyring);
+			Assert.fail("Empty keyring should not be used");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		keyring.add("old", Tokenizer.secret(CipherType.AES, "test1234"));
+		keyring.add("new", Tokenizer.secret(CipherType.AES_GCM, "test5678"));
+
+		Assert.assertEquals("old", keyring.getPrimary());
+
+		String old = Tokenizer.tokenize(p, keyring);
+
+		keyring.setPrimary("new");
+
+		String token = Tokenizer.tokenize(p, keyring);
+		byte[] bytes = Tokenizer.builder().armor(TokenArmor.RAW).build().tokenizeToBytes(p, keyring);
+
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, old, keyring).s);
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, keyring).s);
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, bytes, keyring).s);
+
+		keyring.remove("old");
+		try {
+			Tokenizer.objectify(Primitives.class, old, keyring);
+			Assert.fail("Token of removed key should not be objectified");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		String legacy = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+		keyring.setFallback(Tokenizer.secret(CipherType.AES, "test1234"));
+
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, legacy, keyring).s);
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, keyring).s);
+		Assert.assertTrue(token.startsWith("new:" + CipherType.AES_GCM.getId() + "|"));
+
+		// legacy token whose ciphertext starts like binary key header
+		TokenKeyring migrated = new TokenKeyring();
+		migrated.add("new", Tokenizer.secret(CipherType.AES_GCM, "test5678"));
+		migrated.setFallback(Tokenizer.secret(CipherType.AES_GCM, "test1234"));
+
+		byte[] encrypted = null;
+		do {
+			legacy = Tokenizer.tokenize(p, CipherType.AES_GCM, "test1234");
+			encrypted = Base64.decode(legacy);
+		} while (encrypted[0] != 0x4B || encrypted[2] < 1 || encrypted[2] > 32);
+
+		Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, legacy, migrated).s);
+
+		try {
+			Tokenizer.objectify(Primitives.class, old, keyring);
+			Assert.fail("Token of removed key should not be decrypted with fallback secret");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		TokenKeyring other = new TokenKeyring();
+		other.add("new", Tokenizer.secret(CipherType.AES, "test5678"));
+		other.setFallback(Tokenizer.secret(CipherType.AES_GCM, "test5678"));
+
+		try {
+			Tokenizer.objectify(Primitives.class, token, other);
+			Assert.fail("Token with different cipher than its key should not be objectified");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_statistics() throws Exception {
+
+		Primitives p = new Primitives();
+		TokenStatistics statistics = new TokenStatistics();
+		ObjectName name = statistics.register();
+
+		Tokenizer.setListener(statistics);
+
+		try {
+
+			String token = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+			Tokenizer.objectify(Primitives.class, token, CipherType.AES, "test1234");
+			Tokenizer.tokenize(p, CipherType.NOOP, null);
+
+			try {
+				Tokenizer.objectify(Primitives.class, "x" + token, CipherType.AES, "test1234");
+				Assert.fail("Malformed token should not be objectified");
+			} catch (RuntimeException e) {
+				// expected
+			}
+
+			Assert.assertEquals(2, statistics.getTokenizeCount());
+			Assert.assertEquals(1, statistics.getObjectifyCount());
+			Assert.assertEquals(1, statistics.getObjectifyFailureCount());
+			Assert.assertEquals(Long.valueOf(1), statistics.getTokenizeCounts().get("AES"));
+			Assert.assertEquals(Long.valueOf(1), statistics.getTokenizeCounts().get("NOOP"));
+			Assert.assertEquals(Long.valueOf(1), statistics.getFailureCounts().get("AES"));
+			Assert.assertTrue(statistics.getStageMaxTimes().get("ENCRYPT") > 0);
+			Assert.assertTrue(statistics.getStageMeanTimes().get("DECODE") > 0);
+			Assert.assertEquals(1.0, statistics.getCompressionRatio());
+
+			Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ObjectifyCount");
+			Assert.assertEquals(Long.valueOf(1), count);
+
+			statistics.reset();
+			Assert.assertEquals(0, statistics.getTokenizeCount());
+			Assert.assertEquals(0.0, statistics.getStage99thPercentileTimes().get("ENCODE"));
+
+		} finally {
+			Tokenizer.setListener(null);
+			statistics.unregister();
+		}
+	}
+
+	@TokenEntity(format = TokenFormat.BINARY)
+	public static class Compact implements Token {
+
+		@TokenPart(value = "i", tag = 1)
+		private int i = 7;
+
+		@TokenPart(value = "l", tag = 2)
+		private long l = -1234567890123L;
+
+		@TokenPart(value = "b", tag = 3)
+		private boolean b = true;
+
+		@TokenPart(value = "d", tag = 4)
+		private double d = 0.5;
+
+		@TokenPart(value = "s", tag = 5)
+		private String s = "text";
+
+		@TokenPart(value = "c", tag = 6)
+		private BigDecimal c = new BigDecimal("-12.345");
+	}
+
+	@TokenEntity(format = TokenFormat.BINARY)
+	public static class Named implements Token {
+
+		@TokenPart(value = "n", tag = 1)
+		private String n = "name";
+	}
+
+	@TokenEntity(format = TokenFormat.BINARY)
+	public static class Described implements Token {
+
+		@TokenPart(value = "n", tag = 1)
+		private String n = "other";
+
+		@TokenPart(value = "d", tag = 2)
+		private String d = "description";
+	}
+
+	@Test
+	public void test_binary() {
+
+		Compact p = new Compact();
+		p.i = -42;
+		p.l = Long.MIN_VALUE;
+		p.b = false;
+		p.d = -2.25;
+		p.s = "za\u017c\u00f3\u0142\u0107";
+		p.c = new BigDecimal("123456789.000001");
+
+		for (CipherType type : CipherType.values()) {
+
+			String token = Tokenizer.tokenize(p, type, "test1234");
+			Compact r = Tokenizer.objectify(Compact.class, token, type, "test1234");
+
+			Assert.assertEquals(p.i, r.i);
+			Assert.assertEquals(p.l, r.l);
+			Assert.assertEquals(p.b, r.b);
+			Assert.assertEquals(p.d, r.d, 0);
+			Assert.assertEquals(p.s, r.s);
+			Assert.assertEquals(p.c, r.c);
+		}
+
+		Primitives t = new Primitives();
+		t.i = p.i;
+		t.l = p.l;
+		t.b = p.b;
+		t.d = p.d;
+		t.s = p.s;
+
+		String binary = Tokenizer.tokenize(p, CipherType.DES, "test1234");
+		String text = Tokenizer.tokenize(t, CipherType.DES, "test1234");
+
+		Assert.assertTrue(binary.length() < text.length());
+
+		String token = Tokenizer.tokenize(new Named(), CipherType.AES, "test1234");
+		Described d = Tokenizer.objectify(Described.class, token, CipherType.AES, "test1234");
+
+		Assert.assertEquals("name", d.n);
+		Assert.assertNull("Missing binary part should be set like missing text part", d.d);
+	}
+
+	@Test
+	public void test_stream() throws Exception {
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 1 << 20) {
+			sb.append("large license part ").append(sb.length()).append(' ');
+		}
+
+		Primitives p = new Primitives();
+		p.s = sb.toString();
+
+		Compact c = new Compact();
+		c.s = sb.toString();
+
+		for (CipherType type : CipherType.values()) {
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			Tokenizer.tokenize(p, type, "test1234", baos);
+
+			String token = baos.toString("UTF-8");
+			Primitives r = Tokenizer.objectify(Primitives.class, new ByteArrayInputStream(baos.toByteArray()), type, "test1234");
+
+			Assert.assertEquals(p.s, r.s);
+			Assert.assertEquals(p.l, r.l);
+			Assert.assertEquals(p.s, Tokenizer.objectify(Primitives.class, token, type, "test1234").s);
+
+			baos.reset();
+			Tokenizer.tokenize(c, type, "test1234", baos);
+
+			Compact q = Tokenizer.objectify(Compact.class, new ByteArrayInputStream(baos.toByteArray()), type, "test1234");
+
+			Assert.assertEquals(c.s, q.s);
+			Assert.assertEquals(c.c, q.c);
+
+			// tokens created in memory can be read from stream
+
+			token = Tokenizer.tokenize(c, type, "test1234");
+			q = Tokenizer.objectify(Compact.class, new ByteArrayInputStream(token.getBytes("UTF-8")), type, "test1234");
+
+			Assert.assertEquals(c.s, q.s);
+
+			token = Tokenizer.tokenize(new Primitives(), type, "test1234");
+			r = Tokenizer.objectify(Primitives.class, new ByteArrayInputStream(token.getBytes("UTF-8")), type, "test1234");
+
+			Assert.assertEquals("text", r.s);
+		}
+	}
+
+	@Test
+	public void test_batch() {
+
+		List<Primitives> objects = new ArrayList<Primitives>();
+		for (int i = 0; i < 1000; i++) {
+			Primitives p = new Primitives();
+			p.i = i;
+			objects.add(p);
+		}
+
+		BatchResult<String> tokens = Tokenizer.tokenizeAll(objects, CipherType.AES, "test1234");
+
+		Assert.assertEquals(1000, tokens.size());
+		Assert.assertEquals(0, tokens.getFailureCount());
+
+		List<String> list = new ArrayList<String>(tokens.getValues());
+		list.set(500, "broken");
+
+		BatchResult<Primitives> restored = Tokenizer.objectifyAll(Primitives.class, list, CipherType.AES, "test1234");
+
+		Assert.assertEquals(1, restored.getFailureCount());
+		Assert.assertTrue(restored.isFailed(500));
+		Assert.assertNull(restored.get(500));
+
+		for (int i = 0; i < 1000; i++) {
+			if (i != 500) {
+				Assert.assertEquals(i, restored.get(i).i);
+			}
+		}
+	}
+
+	@Test
+	public void test_concurrent() throws Exception {
+
+		final Primitives p = new Primitives();
+		final String expected = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+		final AtomicInteger failures = new AtomicInteger();
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 500; j++) {
+						String token = Tokenizer.tokenize(p, CipherType.AES, "test1234");
+						Primitives r = Tokenizer.objectify(Primitives.class, token, CipherType.AES, "test1234");
+						if (!expected.equals(token) || r.i != p.i || !p.s.equals(r.s)) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(0, failures.get());
+	}
+
 	public static class Example implements Token {
 
 		/**
@@ -0,0 +1,81 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class Base64CodecTest {
+
+	@Test
+	public void test_sameAsJdk() throws IOException {
+
+		Random random = new Random(1234);
+
+		for (int n = 0; n < 70; n++) {
+
+			byte[] bytes = new byte[n];
+			random.nextBytes(bytes);
+
+			String standard = Base64.getEncoder().encodeToString(bytes);
+			String url = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+			Assert.assertEquals(standard, Base64Codec.STANDARD.encodeToString(bytes, 0, n));
+			Assert.assertEquals(url, Base64Codec.URL.encodeToString(bytes, 0, n));
+			Assert.assertEquals(standard.length(), Base64Codec.STANDARD.encodedLength(n));
+			Assert.assertEquals(url.length(), Base64Codec.URL.encodedLength(n));
+
+			char[] chars = new char[url.length() + 2];
+			Assert.assertEquals(url.length(), Base64Codec.URL.encode(bytes, 0, n, chars, 1));
+			Assert.assertEquals(url, new String(chars, 1, url.length()));
+
+			Assert.assertTrue(Arrays.equals(bytes, Base64Codec.decode(standard, 0, standard.length())));
+			Assert.assertTrue(Arrays.equals(bytes, Base64Codec.decode(url, 0, url.length())));
+			Assert.assertEquals(n, Base64Codec.decodedLength(standard, 0, standard.length()));
+
+			InputStream in = Base64Codec.decode(new ByteArrayInputStream(url.getBytes(StandardCharsets.US_ASCII)));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[7];
+			for (int k; (k = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, k);
+			}
+			Assert.assertTrue(Arrays.equals(bytes, out.toByteArray()));
+
+			out.reset();
+			OutputStream encoder = Base64Codec.URL.encode(out);
+			encoder.write(bytes);
+			encoder.close();
+			Assert.assertEquals(url, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void test_slice() {
+
+		byte[] bytes = "secure token".getBytes(StandardCharsets.UTF_8);
+		StringBuilder header = new StringBuilder("Bearer ").append(Base64Codec.URL.encodeToString(bytes, 0, bytes.length)).append("; x");
+
+		Assert.assertTrue(Arrays.equals(bytes, Base64Codec.decode(header, 7, header.length() - 3)));
+		Assert.assertTrue(Arrays.equals(bytes, Base64Codec.decode(" c2Vj\r\ndXJlIHRva2Vu\n", 0, 20)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_invalid() {
+		Base64Codec.decode("ab=c", 0, 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_truncated() {
+		Base64Codec.decode("abcde", 0, 5);
+	}
+}
@@ -0,0 +1,75 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class BoundedCacheTest {
+
+	private static final BoundedCache.Loader<Integer, String> LOADER = new BoundedCache.Loader<Integer, String>() {
+
+		@Override
+		public String load(Integer key) {
+			return "v" + key;
+		}
+	};
+
+	@Test
+	public void test_hitsAndMisses() {
+
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, 0, TimeUnit.SECONDS);
+
+		Assert.assertEquals("v1", cache.get(1, LOADER));
+		Assert.assertEquals("v1", cache.get(1, LOADER));
+		Assert.assertEquals("v2", cache.get(2, LOADER));
+
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void test_sizeEviction() {
+
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100, 0, TimeUnit.SECONDS);
+
+		for (int i = 0; i < 1000; i++) {
+			cache.get(i, LOADER);
+			Assert.assertTrue(cache.size() <= 100);
+		}
+
+		Assert.assertTrue(cache.getEvictionCount() >= 900);
+		Assert.assertNotNull(cache.getIfPresent(999));
+	}
+
+	@Test
+	public void test_idleEviction() throws InterruptedException {
+
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, 20, TimeUnit.MILLISECONDS);
+
+		cache.get(1, LOADER);
+		Thread.sleep(50);
+
+		Assert.assertNull(cache.getIfPresent(1));
+		Assert.assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void test_writeExpiration() throws InterruptedException {
+
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, 0, TimeUnit.SECONDS);
+		cache.setExpireAfterWrite(50, TimeUnit.MILLISECONDS);
+
+		cache.get(1, LOADER);
+
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(20);
+			cache.getIfPresent(1);
+		}
+
+		Assert.assertNull(cache.getIfPresent(1));
+	}
+}
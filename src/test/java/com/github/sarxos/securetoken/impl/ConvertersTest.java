@@ -0,0 +1,208 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.github.sarxos.securetoken.BooleanConverter;
+import com.github.sarxos.securetoken.Converter;
+import com.github.sarxos.securetoken.DoubleConverter;
+import com.github.sarxos.securetoken.ExtendedConverter;
+import com.github.sarxos.securetoken.IntConverter;
+import com.github.sarxos.securetoken.LongConverter;
+
+
+public class ConvertersTest {
+
+	private static final String[] BAD_NUMBERS = { "", "-", "+", "1a", " 1", "1.0", "--1" };
+
+	@Test
+	public void test_parseInt() {
+
+		IntConverter c = (IntConverter) Converters.getPrimitiveConverter(int.class);
+
+		for (String s : new String[] { "0", "-0", "+7", "2147483647", "-2147483648", "00012" }) {
+			Assert.assertEquals(Integer.parseInt(s), c.parse("#" + s + "#", 1, s.length() + 1));
+		}
+
+		for (String s : new String[] { "2147483648", "-2147483649" }) {
+			try {
+				c.parse(s, 0, s.length());
+				Assert.fail(s);
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void test_parseLong() {
+
+		LongConverter c = (LongConverter) Converters.getPrimitiveConverter(long.class);
+
+		for (String s : new String[] { "9223372036854775807", "-9223372036854775808", "-1" }) {
+			Assert.assertEquals(Long.parseLong(s), c.parse(s, 0, s.length()));
+		}
+
+		for (String s : BAD_NUMBERS) {
+			try {
+				c.parse(s, 0, s.length());
+				Assert.fail(s);
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+
+		try {
+			c.parse("9223372036854775808", 0, 19);
+			Assert.fail();
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_parseDouble() {
+
+		DoubleConverter c = (DoubleConverter) Converters.getPrimitiveConverter(double.class);
+
+		String[] strings = {
+			"0", "-0.0", "0.5", "-2.25", "1.0E10", "1.7976931348623157E308", "4.9E-324",
+			"123456789012345678", "0.1", "1e22", "1e23", "3.14159", "1.", "NaN", "-Infinity",
+		};
+
+		for (String s : strings) {
+			Assert.assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(c.parse(s, 0, s.length())));
+		}
+
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < 100000; i++) {
+
+			double d = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+
+			sb.setLength(0);
+			c.append(d, sb);
+
+			Assert.assertEquals(d, c.parse(sb, 0, sb.length()));
+		}
+	}
+
+	@Test
+	public void test_parseBoolean() {
+
+		BooleanConverter c = (BooleanConverter) Converters.getPrimitiveConverter(boolean.class);
+
+		Assert.assertTrue(c.parse("xTrUe", 1, 5));
+		Assert.assertFalse(c.parse("yes", 0, 3));
+		Assert.assertFalse(c.parse("true", 0, 3));
+	}
+
+	@Test
+	public void test_extended() throws Exception {
+
+		ExtendedConverter<BigDecimal> d = Converters.getExtendedConverter(BigDecimal.class);
+		ExtendedConverter<Short> s = Converters.getExtendedConverter(short.class);
+
+		Assert.assertEquals(new BigDecimal("-12.50"), d.parse("x=-12.50#", 2, 8));
+		Assert.assertEquals(BigDecimal.valueOf(123456789), d.parse("123456789", 0, 9));
+		Assert.assertEquals(Short.valueOf((short) -300), s.parse("#-300", 1, 5));
+
+		try {
+			s.parse("40000", 0, 5);
+			Assert.fail();
+		} catch (NumberFormatException e) {
+			// expected
+		}
+
+		StringBuilder sb = new StringBuilder("a=");
+		d.appendTo(new BigDecimal("1.5E+7"), sb);
+		s.appendTo((short) 7, sb);
+
+		Assert.assertEquals("a=15E+6" + "7", sb.toString());
+	}
+
+	@Test
+	public void test_concurrentRegistration() throws Exception {
+
+		final Converter<StringBuilder> custom = new Converter<StringBuilder>() {
+
+			@Override
+			public StringBuilder toObject(String string) {
+				return new StringBuilder(string);
+			}
+
+			@Override
+			public String toString(StringBuilder object) {
+				return object.toString();
+			}
+		};
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						while (running.get()) {
+							Assert.assertEquals(42, Converters.toObject(int.class, "42"));
+							Assert.assertEquals("1.5", Converters.toString(1.5));
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			};
+			readers[i].start();
+		}
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				Converters.register(StringBuilder.class, custom);
+				Assert.assertEquals("x", Converters.toString(new StringBuilder("x")));
+				Converters.unregister(StringBuilder.class);
+				Assert.assertFalse(Converters.canConvert(StringBuilder.class));
+			}
+		} finally {
+			running.set(false);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+
+		Assert.assertNull(error.get());
+	}
+
+	@Test
+	public void test_registryBindings() {
+
+		ConverterRegistry registry = Converters.getRegistry();
+		ConverterRegistry copy = registry.with(StringBuilder.class, new Converter<StringBuilder>() {
+
+			@Override
+			public StringBuilder toObject(String string) {
+				return new StringBuilder(string);
+			}
+
+			@Override
+			public String toString(StringBuilder object) {
+				return object.toString();
+			}
+		});
+
+		Assert.assertSame(registry.getExtendedConverter(String.class), copy.getExtendedConverter(String.class));
+		Assert.assertSame(registry.getExtendedConverter(int.class), copy.without(StringBuilder.class).getExtendedConverter(int.class));
+		Assert.assertTrue(copy.canConvert(StringBuilder.class));
+		Assert.assertFalse(registry.canConvert(StringBuilder.class));
+	}
+}
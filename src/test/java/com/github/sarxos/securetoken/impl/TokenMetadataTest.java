@@ -0,0 +1,74 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.lang.reflect.Field;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.github.sarxos.securetoken.CipherType;
+import com.github.sarxos.securetoken.Token;
+import com.github.sarxos.securetoken.TokenFormat;
+import com.github.sarxos.securetoken.annotation.TokenEntity;
+import com.github.sarxos.securetoken.annotation.TokenPart;
+
+
+public class TokenMetadataTest {
+
+	@TokenEntity(delimiter = "|", cipher = CipherType.DES)
+	public static class Base implements Token {
+
+		@TokenPart("z")
+		private String z;
+
+		@TokenPart("static")
+		private static String ignored;
+
+		private Thread notPart;
+	}
+
+	public static class Derived extends Base {
+
+		@TokenPart("b")
+		private long b;
+
+		@TokenPart("a")
+		private int a;
+	}
+
+	public static class Plain implements Token {
+
+		@TokenPart("x")
+		private String x;
+	}
+
+	@Test
+	public void test_inherited() {
+
+		TokenMetadata<Derived> metadata = TokenMetadata.of(Derived.class);
+
+		Assert.assertSame(metadata, TokenMetadata.of(Derived.class));
+		Assert.assertEquals(Derived.class, metadata.getType());
+		Assert.assertEquals("|", metadata.getDelimiter());
+		Assert.assertEquals(CipherType.DES, metadata.getCipher());
+		Assert.assertEquals(TokenFormat.TEXT, metadata.getFormat());
+		Assert.assertNotNull(metadata.getConstructor());
+
+		Field[] parts = metadata.getParts();
+
+		Assert.assertEquals(3, parts.length);
+		Assert.assertEquals("a", parts[0].getName());
+		Assert.assertEquals("b", parts[1].getName());
+		Assert.assertEquals("z", parts[2].getName());
+	}
+
+	@Test
+	public void test_interfaceEntity() {
+
+		TokenMetadata<Plain> metadata = TokenMetadata.of(Plain.class);
+
+		Assert.assertEquals("#", metadata.getDelimiter());
+		Assert.assertEquals(CipherType.NOOP, metadata.getCipher());
+		Assert.assertEquals(1, metadata.getParts().length);
+	}
+}
@@ -0,0 +1,52 @@
+package com.github.sarxos.securetoken.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class Z85CodecTest {
+
+	@Test
+	public void test_vector() {
+
+		byte[] bytes = { (byte) 0x86, 0x4F, (byte) 0xD2, 0x6F, (byte) 0xB5, 0x59, (byte) 0xF7, 0x5B };
+
+		Assert.assertEquals("HelloWorld", Z85Codec.encodeToString(bytes, 0, bytes.length));
+		Assert.assertTrue(Arrays.equals(bytes, Z85Codec.decode("HelloWorld", 0, 10)));
+	}
+
+	@Test
+	public void test_roundTrip() {
+
+		Random random = new Random(1234);
+
+		for (int n = 0; n < 70; n++) {
+
+			byte[] bytes = new byte[n];
+			random.nextBytes(bytes);
+			if (n % 2 == 0) {
+				Arrays.fill(bytes, (byte) 0xFF);
+			}
+
+			String encoded = Z85Codec.encodeToString(bytes, 0, n);
+
+			Assert.assertEquals(Z85Codec.encodedLength(n), encoded.length());
+			Assert.assertEquals(n, Z85Codec.decodedLength(encoded.length()));
+			Assert.assertTrue(Arrays.equals(bytes, Z85Codec.decode(encoded, 0, encoded.length())));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_invalid() {
+		Z85Codec.decode("Hello,orld", 0, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_overflow() {
+		Z85Codec.decode("#####", 0, 5);
+	}
+}